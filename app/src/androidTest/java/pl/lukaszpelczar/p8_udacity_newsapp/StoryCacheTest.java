@@ -0,0 +1,69 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests of the search index kept by {@link StoryCache}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StoryCacheTest {
+
+    private StoryCache mCache;
+
+    /** Made up for every test, so nothing indexed by an earlier run matches it */
+    private String mWord;
+
+    @Before
+    public void setUp() {
+        mCache = StoryCache.getInstance(InstrumentationRegistry.getTargetContext());
+        mWord = "w" + Long.toString(System.nanoTime(), 36);
+    }
+
+    @Test
+    public void put_editedStoryAfterRestart_replacesIndexedText() throws Exception {
+        String requestUrl = "http://localhost/cache-test?q=" + mWord;
+        String webUrl = "http://localhost/story/" + mWord;
+        Story original = new Story(1500000000000L, "Original " + mWord, "Section", webUrl,
+                "Author");
+        put(requestUrl, original, new StoryIdentityMap(StoryIdentityMap.DEFAULT_CAPACITY));
+        assertEquals(1, mCache.search("original " + mWord, 10).size());
+
+        // A new process starts with an empty identity map, so the edit counts as added
+        Story edited = new Story(1500000000000L, "Edited " + mWord, "Section", webUrl,
+                "Author");
+        put(requestUrl, edited, new StoryIdentityMap(StoryIdentityMap.DEFAULT_CAPACITY));
+
+        assertTrue(mCache.search("original " + mWord, 10).isEmpty());
+        List<Story> found = mCache.search("edited " + mWord, 10);
+        assertEquals(1, found.size());
+        assertEquals("Edited " + mWord, found.get(0).getTitle());
+    }
+
+    @Test
+    public void put_sameStoryAfterRestart_staysIndexedOnce() throws Exception {
+        String requestUrl = "http://localhost/cache-test?q=" + mWord;
+        Story story = new Story(1500000000000L, "Title " + mWord, "Section",
+                "http://localhost/story/" + mWord, "Author");
+        put(requestUrl, story, new StoryIdentityMap(StoryIdentityMap.DEFAULT_CAPACITY));
+        put(requestUrl, story, new StoryIdentityMap(StoryIdentityMap.DEFAULT_CAPACITY));
+
+        assertEquals(1, mCache.search(mWord, 10).size());
+    }
+
+    private void put(String requestUrl, Story story, StoryIdentityMap identities) {
+        List<Story> stories = Arrays.asList(story);
+        StoryPage page = new StoryPage(stories, 1, 1);
+        page.setCacheInfo(null, null, StoryPage.NO_MAX_AGE, System.currentTimeMillis());
+        mCache.put(requestUrl, page, identities.merge(stories));
+    }
+}
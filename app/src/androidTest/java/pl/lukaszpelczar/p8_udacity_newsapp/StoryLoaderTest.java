@@ -0,0 +1,143 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import android.app.Instrumentation;
+import android.content.Loader;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests of the {@link StoryLoader} lifecycle, against a {@link StorySource}
+ * that fails for as long as the test wants it to.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StoryLoaderTest {
+
+    /** Stands in for a delivered null, which a BlockingQueue cannot hold */
+    private static final StoryPage FAILED = new StoryPage(
+            Collections.<Story>emptyList(), 0, 0);
+
+    private Instrumentation mInstrumentation;
+    private FlakySource mSource;
+    private StoryLoader mLoader;
+    private final BlockingQueue<StoryPage> mDelivered = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        mSource = new FlakySource();
+        // A URL of its own, so nothing is cached for it
+        String url = "http://localhost/loader-test?run=" + System.nanoTime();
+        mLoader = new StoryLoader(InstrumentationRegistry.getTargetContext(),
+                Arrays.asList(url), 0, mSource);
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mLoader.registerListener(0, new Loader.OnLoadCompleteListener<StoryPage>() {
+                    @Override
+                    public void onLoadComplete(Loader<StoryPage> loader, StoryPage page) {
+                        mDelivered.add(page == null ? FAILED : page);
+                    }
+                });
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mLoader.reset();
+            }
+        });
+    }
+
+    @Test
+    public void failedFirstLoad_isRetriedOnNextStart() throws Exception {
+        mSource.mFailures.set(1);
+        start();
+        assertSame(FAILED, mDelivered.poll(10, TimeUnit.SECONDS));
+        assertNotNull(mLoader.getFailure());
+
+        // Back online: stopping and starting again, as the activity does, loads the page
+        stop();
+        start();
+        StoryPage page = mDelivered.poll(10, TimeUnit.SECONDS);
+        assertNotNull(page);
+        assertNotSame(FAILED, page);
+        assertEquals(1, page.getStories().size());
+        assertNull(mLoader.getFailure());
+        assertEquals(2, mSource.mCalls.get());
+    }
+
+    @Test
+    public void failedFirstLoad_allowsLoadNextPage() throws Exception {
+        mSource.mFailures.set(1);
+        start();
+        assertSame(FAILED, mDelivered.poll(10, TimeUnit.SECONDS));
+
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mLoader.loadNextPage();
+            }
+        });
+        StoryPage page = mDelivered.poll(10, TimeUnit.SECONDS);
+        assertNotNull(page);
+        assertNotSame(FAILED, page);
+    }
+
+    private void start() {
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mLoader.startLoading();
+            }
+        });
+    }
+
+    private void stop() {
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mLoader.stopLoading();
+            }
+        });
+    }
+
+    /**
+     * Fails as many times as asked, as if offline, and then returns a page of one story.
+     */
+    private static class FlakySource implements StorySource {
+
+        final AtomicInteger mFailures = new AtomicInteger();
+        final AtomicInteger mCalls = new AtomicInteger();
+
+        @Override
+        public StoryPage fetch(String requestUrl, StoryPage cachedPage, Deadline deadline)
+                throws StoryException {
+            mCalls.incrementAndGet();
+            if (mFailures.getAndDecrement() > 0) {
+                throw new StoryException(StoryException.Kind.NETWORK, "Offline", null);
+            }
+            StoryPage page = new StoryPage(Arrays.asList(new Story(1500000000000L,
+                    "Title", "Technology", requestUrl + "#story", "Author")), 1, 1);
+            page.setCacheInfo(null, null, StoryPage.NO_MAX_AGE, System.currentTimeMillis());
+            return page;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import android.app.Instrumentation;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.filters.SdkSuppress;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.Choreographer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Scrolls the story list through 600 rows that each have a thumbnail of their own,
+ * served by a local web server, and checks the scroll stays within its frame and
+ * memory budgets while the thumbnails are downloaded, decoded and cached.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+@SdkSuppress(minSdkVersion = 16)
+public class ThumbnailScrollBenchmark {
+
+    private static final String LOG_TAG = ThumbnailScrollBenchmark.class.getSimpleName();
+
+    private static final int ROWS = 600;
+
+    /** Frames scrolled, and the distance in pixels scrolled every frame */
+    private static final int SCROLL_FRAMES = 900;
+    private static final int SCROLL_STEP = 60;
+
+    /** A frame is janky once it takes longer than this many refresh intervals */
+    private static final double JANK_THRESHOLD = 1.5;
+    private static final double MAX_JANKY_FRAMES = 0.05;
+
+    /** Memory the scroll may take beyond the thumbnail memory cache */
+    private static final long MEMORY_SLACK = 8 * 1024 * 1024;
+
+    /** Size of the served images, which are downsampled to the thumbnail size */
+    private static final int IMAGE_WIDTH = 500;
+    private static final int IMAGE_HEIGHT = 300;
+
+    @Rule
+    public ActivityTestRule<StoryActivity> mActivityRule =
+            new ActivityTestRule<>(StoryActivity.class);
+
+    private MockWebServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        Bitmap image = Bitmap.createBitmap(IMAGE_WIDTH, IMAGE_HEIGHT, Bitmap.Config.ARGB_8888);
+        image.eraseColor(Color.rgb(120, 160, 200));
+        final Buffer jpeg = new Buffer();
+        image.compress(Bitmap.CompressFormat.JPEG, 90, jpeg.outputStream());
+
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse()
+                        .setHeader("Content-Type", "image/jpeg")
+                        .setBody(jpeg.clone());
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void scrollWithThumbnails_staysWithinBudget() throws Exception {
+        final StoryActivity activity = mActivityRule.getActivity();
+        final RecyclerView list = (RecyclerView) activity.findViewById(R.id.list);
+        final StoryAdapter adapter = (StoryAdapter) list.getAdapter();
+
+        final List<Story> stories = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            stories.add(new Story(1500000000000L - i * 60 * 1000L, "Story " + i, "Technology",
+                    "https://www.theguardian.com/story/" + i, "Author " + i,
+                    mServer.url("/thumbnail/" + i + ".jpg").toString()));
+        }
+
+        // Show only the generated stories, whatever the loader would deliver
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                activity.getLoaderManager().destroyLoader(StoryActivity.STORY_LOADER_ID);
+                adapter.replaceAll(stories);
+            }
+        });
+        while (adapter.getItemCount() != ROWS) {
+            instrumentation.waitForIdleSync();
+            Thread.sleep(50);
+        }
+
+        Runtime.getRuntime().gc();
+        long memoryBefore = usedMemory();
+
+        final long frameInterval =
+                (long) (1e9 / activity.getWindowManager().getDefaultDisplay().getRefreshRate());
+        final long[] frameTimes = new long[SCROLL_FRAMES];
+        final CountDownLatch done = new CountDownLatch(1);
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                    private int mFrame;
+
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        frameTimes[mFrame++] = frameTimeNanos;
+                        if (mFrame == SCROLL_FRAMES) {
+                            done.countDown();
+                            return;
+                        }
+                        // Scroll back up half way through, so cached thumbnails are shown too
+                        list.scrollBy(0, mFrame < SCROLL_FRAMES / 2 ? SCROLL_STEP : -SCROLL_STEP);
+                        Choreographer.getInstance().postFrameCallback(this);
+                    }
+                });
+            }
+        });
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+
+        int janky = 0;
+        for (int i = 1; i < SCROLL_FRAMES; i++) {
+            if (frameTimes[i] - frameTimes[i - 1] > JANK_THRESHOLD * frameInterval) {
+                janky++;
+            }
+        }
+        Runtime.getRuntime().gc();
+        long memoryUsed = usedMemory() - memoryBefore;
+        Log.i(LOG_TAG, "Janky frames: " + janky + "/" + (SCROLL_FRAMES - 1)
+                + ", memory used: " + memoryUsed / 1024 + " KB, " + Metrics.snapshot());
+
+        assertTrue("Too many janky frames: " + janky,
+                janky <= MAX_JANKY_FRAMES * (SCROLL_FRAMES - 1));
+        long memoryCacheSize = Runtime.getRuntime().maxMemory() / 8;
+        assertTrue("Too much memory used: " + memoryUsed,
+                memoryUsed <= memoryCacheSize + MEMORY_SLACK);
+    }
+
+    /**
+     * Returns the bytes allocated on the Java heap and, where bitmap pixels live
+     * from Android 8.0 on, the native heap.
+     */
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory() + Debug.getNativeHeapAllocatedSize();
+    }
+}
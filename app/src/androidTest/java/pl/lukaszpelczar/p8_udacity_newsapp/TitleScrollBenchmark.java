@@ -0,0 +1,131 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import android.app.Instrumentation;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.filters.SdkSuppress;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.Choreographer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Scrolls the story list through 2000 rows whose titles all need ellipsizing, and
+ * checks the scroll stays within its frame budget and that nearly every title layout
+ * was built ahead of its row on a background thread rather than while binding.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+@SdkSuppress(minSdkVersion = 16)
+public class TitleScrollBenchmark {
+
+    private static final String LOG_TAG = TitleScrollBenchmark.class.getSimpleName();
+
+    private static final int ROWS = 2000;
+
+    /** Frames scrolled, and the distance in pixels scrolled every frame */
+    private static final int SCROLL_FRAMES = 900;
+    private static final int SCROLL_STEP = 60;
+
+    /** A frame is janky once it takes longer than this many refresh intervals */
+    private static final double JANK_THRESHOLD = 1.5;
+    private static final double MAX_JANKY_FRAMES = 0.05;
+
+    /** Share of the bound rows whose title layout may be built while binding */
+    private static final double MAX_LAYOUT_MISSES = 0.1;
+
+    private static final String LONG_TITLE = "Bitcoin price swings again as regulators on "
+            + "three continents weigh new rules for exchanges, wallets and the banks that "
+            + "serve them, story ";
+
+    @Rule
+    public ActivityTestRule<StoryActivity> mActivityRule =
+            new ActivityTestRule<>(StoryActivity.class);
+
+    @Test
+    public void scrollWithLongTitles_staysWithinBudget() throws Exception {
+        final StoryActivity activity = mActivityRule.getActivity();
+        final RecyclerView list = (RecyclerView) activity.findViewById(R.id.list);
+        final StoryAdapter adapter = (StoryAdapter) list.getAdapter();
+
+        final List<Story> stories = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            stories.add(new Story(1500000000000L - i * 60 * 1000L, LONG_TITLE + i, "Technology",
+                    "https://www.theguardian.com/story/" + i, "Author " + i));
+        }
+
+        // Show only the generated stories, whatever the loader would deliver
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                activity.getLoaderManager().destroyLoader(StoryActivity.STORY_LOADER_ID);
+                adapter.replaceAll(stories);
+            }
+        });
+        while (adapter.getItemCount() != ROWS) {
+            instrumentation.waitForIdleSync();
+            Thread.sleep(50);
+        }
+
+        Metrics.Histogram bindTime = Metrics.histogram("bind_us");
+        Metrics.Counter misses = Metrics.counter("title_layout_misses");
+        long bindsBefore = bindTime.getCount();
+        long missesBefore = misses.get();
+
+        final long frameInterval =
+                (long) (1e9 / activity.getWindowManager().getDefaultDisplay().getRefreshRate());
+        final long[] frameTimes = new long[SCROLL_FRAMES];
+        final CountDownLatch done = new CountDownLatch(1);
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                    private int mFrame;
+
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        frameTimes[mFrame++] = frameTimeNanos;
+                        if (mFrame == SCROLL_FRAMES) {
+                            done.countDown();
+                            return;
+                        }
+                        list.scrollBy(0, SCROLL_STEP);
+                        Choreographer.getInstance().postFrameCallback(this);
+                    }
+                });
+            }
+        });
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+
+        int janky = 0;
+        for (int i = 1; i < SCROLL_FRAMES; i++) {
+            if (frameTimes[i] - frameTimes[i - 1] > JANK_THRESHOLD * frameInterval) {
+                janky++;
+            }
+        }
+        long binds = bindTime.getCount() - bindsBefore;
+        long layoutMisses = misses.get() - missesBefore;
+        Log.i(LOG_TAG, "Janky frames: " + janky + "/" + (SCROLL_FRAMES - 1)
+                + ", rows bound: " + binds + ", title layouts built while binding: "
+                + layoutMisses + ", bind p50 " + bindTime.percentile(0.5) + " us, p90 "
+                + bindTime.percentile(0.9) + " us, " + Metrics.snapshot());
+
+        assertTrue("Too many janky frames: " + janky,
+                janky <= MAX_JANKY_FRAMES * (SCROLL_FRAMES - 1));
+        assertTrue("Too many title layouts built while binding: " + layoutMisses,
+                layoutMisses <= MAX_LAYOUT_MISSES * binds);
+    }
+}
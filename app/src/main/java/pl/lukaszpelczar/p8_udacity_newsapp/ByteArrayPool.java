@@ -0,0 +1,109 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A small pool of byte arrays used as read buffers for response bodies, so that
+ * responses do not each allocate a buffer and leave it for the garbage collector.
+ *
+ * Buffers come in power-of-two sizes between {@link #MIN_SIZE} and {@link #MAX_SIZE},
+ * chosen from the length of the response body, and a few buffers of each size are
+ * kept for reuse, enough for the requests that run at the same time.
+ */
+final class ByteArrayPool {
+
+    /** Smallest and largest buffer sizes */
+    static final int MIN_SIZE = 4 * 1024;
+    static final int MAX_SIZE = 64 * 1024;
+
+    /**
+     * Size used when the length of the body is not known up front. Gzip responses are
+     * decompressed on the fly and lose their Content-Length, so QueryUtils buffers
+     * them to find out.
+     */
+    static final int DEFAULT_SIZE = 8 * 1024;
+
+    /** Number of buffers of each size kept for reuse */
+    private static final int MAX_POOLED_PER_SIZE = 4;
+
+    /** Pooled buffers, one queue for every size from MIN_SIZE up to MAX_SIZE */
+    private static final List<ArrayDeque<byte[]>> sPool = new ArrayList<>();
+
+    private static final Metrics.Counter POOL_HITS = Metrics.counter("buffer_pool_hits");
+    private static final Metrics.Counter POOL_MISSES = Metrics.counter("buffer_pool_misses");
+
+    static {
+        for (int size = MIN_SIZE; size <= MAX_SIZE; size <<= 1) {
+            sPool.add(new ArrayDeque<byte[]>(MAX_POOLED_PER_SIZE));
+        }
+    }
+
+    /**
+     * Create a private constructor because no one should ever create a {@link ByteArrayPool}
+     * object. This class is only meant to hold static methods.
+     */
+    private ByteArrayPool() {
+    }
+
+    /**
+     * Returns the buffer size to use for a body of the given length in bytes,
+     * or of unknown length when it is negative.
+     */
+    static int sizeFor(long contentLength) {
+        if (contentLength < 0) {
+            return DEFAULT_SIZE;
+        }
+        int size = MIN_SIZE;
+        while (size < contentLength && size < MAX_SIZE) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * Returns a buffer suited to a body of the given length, reusing a pooled one if
+     * possible. It should be handed back with {@link #release} once it is no longer used.
+     */
+    static byte[] acquire(long contentLength) {
+        int size = sizeFor(contentLength);
+        byte[] buffer;
+        synchronized (sPool) {
+            buffer = sPool.get(indexOf(size)).poll();
+        }
+        if (buffer != null) {
+            POOL_HITS.increment();
+            return buffer;
+        }
+        POOL_MISSES.increment();
+        return new byte[size];
+    }
+
+    /**
+     * Returns the given buffer to the pool. The caller must not use it afterwards.
+     */
+    static void release(byte[] buffer) {
+        int index = indexOf(buffer.length);
+        if (index < 0) {
+            return;
+        }
+        synchronized (sPool) {
+            ArrayDeque<byte[]> buffers = sPool.get(index);
+            if (buffers.size() < MAX_POOLED_PER_SIZE) {
+                buffers.push(buffer);
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the queue for the given size, or -1 if buffers of
+     * that size are not pooled.
+     */
+    private static int indexOf(int size) {
+        if (size < MIN_SIZE || size > MAX_SIZE || Integer.bitCount(size) != 1) {
+            return -1;
+        }
+        return Integer.numberOfTrailingZeros(size) - Integer.numberOfTrailingZeros(MIN_SIZE);
+    }
+}
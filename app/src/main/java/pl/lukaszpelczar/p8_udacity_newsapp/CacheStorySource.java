@@ -0,0 +1,37 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+/**
+ * Answers every request from the {@link StoryCache} alone, as a server would that finds
+ * every cached page still current. Nothing is fetched or parsed, so the loading, merging
+ * and display of stories can be profiled on their own, and the app keeps working offline
+ * with whatever it has cached.
+ */
+public class CacheStorySource implements StorySource {
+
+    private final StoryCache mCache;
+
+    public CacheStorySource(StoryCache cache) {
+        mCache = cache;
+    }
+
+    @Override
+    public StoryPage fetch(String requestUrl, StoryPage cachedPage, Deadline deadline)
+            throws StoryException {
+        deadline.check();
+        if (cachedPage == null) {
+            cachedPage = mCache.get(requestUrl);
+        }
+        if (cachedPage == null) {
+            throw new StoryException(StoryException.Kind.REQUEST,
+                    "No cached page for " + requestUrl, null);
+        }
+
+        // A copy marked as not modified, which refreshes the cached page's fetch time
+        StoryPage page = new StoryPage(cachedPage.getStories(), cachedPage.getCurrentPage(),
+                cachedPage.getPages());
+        page.setCacheInfo(cachedPage.getEtag(), cachedPage.getLastModified(),
+                cachedPage.getMaxAge(), System.currentTimeMillis());
+        page.setNotModified(true);
+        return page;
+    }
+}
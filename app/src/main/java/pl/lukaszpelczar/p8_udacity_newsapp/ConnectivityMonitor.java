@@ -0,0 +1,129 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps track of whether the device has a network connection, so the state can be read
+ * at any time without asking the {@link ConnectivityManager} again.
+ *
+ * The state is read once when the monitor is created, and then kept up to date by a
+ * default network callback from Android 7.0, or by the connectivity change broadcast
+ * before it. Listeners are told about every change on the main thread.
+ */
+public class ConnectivityMonitor {
+
+    /**
+     * Told when the device gains or loses its network connection.
+     */
+    public interface Listener {
+        void onConnectivityChanged(boolean connected);
+    }
+
+    private static ConnectivityMonitor sInstance;
+
+    private final ConnectivityManager mConnectivityManager;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Only touched on the main thread */
+    private final List<Listener> mListeners = new ArrayList<>();
+
+    private volatile boolean mConnected;
+
+    private ConnectivityMonitor(Context context) {
+        mConnectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = mConnectivityManager.getActiveNetworkInfo();
+        mConnected = networkInfo != null && networkInfo.isConnected();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            mConnectivityManager.registerDefaultNetworkCallback(
+                    new ConnectivityManager.NetworkCallback() {
+                        /** Network last made the default */
+                        private Network mDefaultNetwork;
+
+                        @Override
+                        public void onAvailable(Network network) {
+                            mDefaultNetwork = network;
+                            setConnected(true);
+                        }
+
+                        @Override
+                        public void onLost(Network network) {
+                            // The old default may be lost after the new one is available
+                            if (network.equals(mDefaultNetwork)) {
+                                mDefaultNetwork = null;
+                                setConnected(false);
+                            }
+                        }
+                    });
+        } else {
+            context.registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    NetworkInfo networkInfo = mConnectivityManager.getActiveNetworkInfo();
+                    setConnected(networkInfo != null && networkInfo.isConnected());
+                }
+            }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        }
+    }
+
+    /**
+     * Returns the process-wide {@link ConnectivityMonitor}, which is registered for as
+     * long as the process lives.
+     */
+    public static synchronized ConnectivityMonitor getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ConnectivityMonitor(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns true if the device had a network connection when last heard of.
+     */
+    public boolean isConnected() {
+        return mConnected;
+    }
+
+    /**
+     * Start telling the given listener about changes. Call on the main thread.
+     */
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Stop telling the given listener about changes. Call on the main thread.
+     */
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private void setConnected(final boolean connected) {
+        if (connected == mConnected) {
+            return;
+        }
+        mConnected = connected;
+        // The network callback runs on a thread of its own
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : new ArrayList<>(mListeners)) {
+                    listener.onConnectivityChanged(connected);
+                }
+            }
+        });
+    }
+}
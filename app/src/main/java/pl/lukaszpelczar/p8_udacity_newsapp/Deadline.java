@@ -0,0 +1,103 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.Call;
+
+/**
+ * The time limit and cancellation of one load, shared by every request it makes.
+ *
+ * Requests register their HTTP {@link Call} while it runs, so cancelling the deadline
+ * aborts them straight away, even while they are blocked on the network, and waits
+ * between retries wake up as soon as the deadline is cancelled.
+ */
+public class Deadline {
+
+    private final long mExpiresAt;
+    private final List<Call> mCalls = new ArrayList<>();
+    private boolean mCancelled;
+
+    /**
+     * @param timeout time in milliseconds from now until the deadline expires
+     */
+    public Deadline(long timeout) {
+        mExpiresAt = System.currentTimeMillis() + timeout;
+    }
+
+    /**
+     * Returns the time in milliseconds left until the deadline, or 0 once it has passed.
+     */
+    public long remaining() {
+        return Math.max(0, mExpiresAt - System.currentTimeMillis());
+    }
+
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Cancel the load: every registered call is cancelled and later requests fail
+     * with {@link StoryException.Kind#CANCELLED}.
+     */
+    public synchronized void cancel() {
+        if (mCancelled) {
+            return;
+        }
+        mCancelled = true;
+        for (Call call : mCalls) {
+            call.cancel();
+        }
+        mCalls.clear();
+        notifyAll();
+    }
+
+    /**
+     * Throw if the load has been cancelled or has run out of time.
+     */
+    public void check() throws StoryException {
+        if (isCancelled()) {
+            throw new StoryException(StoryException.Kind.CANCELLED, "Load cancelled", null);
+        }
+        if (remaining() == 0) {
+            throw new StoryException(StoryException.Kind.TIMEOUT, "Load deadline passed", null);
+        }
+    }
+
+    /**
+     * Register a call that is about to run, cancelling it right away if the load
+     * has already been cancelled.
+     */
+    public synchronized void register(Call call) {
+        if (mCancelled) {
+            call.cancel();
+        } else {
+            mCalls.add(call);
+        }
+    }
+
+    /**
+     * Unregister a call that has finished.
+     */
+    public synchronized void unregister(Call call) {
+        mCalls.remove(call);
+    }
+
+    /**
+     * Wait for the given time in milliseconds, or until the load is cancelled.
+     */
+    public synchronized void sleep(long millis) throws StoryException {
+        long wakeAt = System.currentTimeMillis() + millis;
+        long left = millis;
+        while (!mCancelled && left > 0) {
+            try {
+                wait(left);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new StoryException(StoryException.Kind.CANCELLED, "Interrupted", e);
+            }
+            left = wakeAt - System.currentTimeMillis();
+        }
+        check();
+    }
+}
@@ -0,0 +1,297 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import android.os.Build;
+import android.os.Trace;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lightweight metrics for the fetch, parse and bind pipeline.
+ *
+ * Counters and histograms are registered once by name and kept in static fields by the
+ * code that records them, so recording a sample is a handful of atomic operations and
+ * cheap enough to leave on in release builds. Spans record their duration into a
+ * histogram and also show up as sections in systrace on devices that support it.
+ *
+ * A snapshot of every metric can be written periodically as one JSON object per line
+ * to logcat and to a local file, to be aggregated across devices.
+ */
+public final class Metrics {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = Metrics.class.getSimpleName();
+
+    /** Size at which the export file is rotated */
+    private static final long MAX_EXPORT_FILE_SIZE = 1024 * 1024;
+
+    private static final ConcurrentMap<String, Counter> sCounters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Histogram> sHistograms =
+            new ConcurrentHashMap<>();
+
+    private static ScheduledExecutorService sExporter;
+
+    /**
+     * Create a private constructor because no one should ever create a {@link Metrics}
+     * object. This class is only meant to hold static methods.
+     */
+    private Metrics() {
+    }
+
+    /**
+     * Returns the counter with the given name, creating it on first use.
+     */
+    public static Counter counter(String name) {
+        Counter counter = sCounters.get(name);
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = sCounters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Returns the histogram with the given name, creating it on first use.
+     */
+    public static Histogram histogram(String name) {
+        Histogram histogram = sHistograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = sHistograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Begin a span and return its start time, to be passed to {@link #endSpan}.
+     * Spans must be ended on the thread that began them, innermost first.
+     */
+    public static long beginSpan(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name);
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * End the span begun at the given start time and record its duration
+     * in microseconds in the given histogram.
+     */
+    public static void endSpan(Histogram histogram, long start) {
+        histogram.record((System.nanoTime() - start) / 1000);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Returns a snapshot of every metric as a single-line JSON object.
+     */
+    public static String snapshot() {
+        StringBuilder json = new StringBuilder(512);
+        json.append("{\"time\":").append(System.currentTimeMillis());
+
+        json.append(",\"counters\":{");
+        boolean first = true;
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(sCounters).entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            appendName(json, entry.getKey()).append(entry.getValue().get());
+        }
+
+        json.append("},\"histograms\":{");
+        first = true;
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(sHistograms).entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            Histogram histogram = entry.getValue();
+            appendName(json, entry.getKey())
+                    .append("{\"count\":").append(histogram.getCount())
+                    .append(",\"sum\":").append(histogram.getSum())
+                    .append(",\"max\":").append(histogram.getMax())
+                    .append(",\"p50\":").append(histogram.percentile(0.5))
+                    .append(",\"p90\":").append(histogram.percentile(0.9))
+                    .append(",\"p99\":").append(histogram.percentile(0.99))
+                    .append('}');
+        }
+        return json.append("}}").toString();
+    }
+
+    private static StringBuilder appendName(StringBuilder json, String name) {
+        json.append('"');
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\');
+            }
+            json.append(c);
+        }
+        return json.append("\":");
+    }
+
+    /**
+     * Start writing a snapshot every given period to logcat and appending it to the given
+     * file. The file is rotated once it grows past {@link #MAX_EXPORT_FILE_SIZE}.
+     * Calling this again while the export is running has no effect.
+     */
+    public static synchronized void startExport(final File file, long periodMillis) {
+        if (sExporter != null) {
+            return;
+        }
+        sExporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, LOG_TAG);
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        sExporter.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                export(file);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Write a snapshot to logcat and append it to the given file.
+     */
+    private static void export(File file) {
+        String snapshot = snapshot();
+        Log.i(LOG_TAG, snapshot);
+
+        if (file.length() > MAX_EXPORT_FILE_SIZE) {
+            File rotated = new File(file.getPath() + ".1");
+            if (!file.renameTo(rotated)) {
+                Log.w(LOG_TAG, "Problem rotating " + file);
+            }
+        }
+
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(file, true);
+            outputStream.write((snapshot + "\n").getBytes(Charset.forName("UTF-8")));
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Problem writing metrics to " + file, e);
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Problem closing " + file, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A monotonically increasing count.
+     */
+    public static final class Counter {
+
+        private final AtomicLong mValue = new AtomicLong();
+
+        public void increment() {
+            mValue.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            mValue.addAndGet(delta);
+        }
+
+        public long get() {
+            return mValue.get();
+        }
+    }
+
+    /**
+     * Distribution of non-negative values in power-of-two buckets. Bucket 0 holds zeros
+     * and bucket i holds values from 2^(i-1) to 2^i - 1, so percentiles are reported as
+     * the upper bound of their bucket, capped by the largest value recorded.
+     */
+    public static final class Histogram {
+
+        private static final int BUCKETS = 64;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        /**
+         * Record a value; negative values are recorded as zero.
+         */
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            mBuckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value)));
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+
+            long max = mMax.get();
+            while (value > max && !mMax.compareAndSet(max, value)) {
+                max = mMax.get();
+            }
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        public long getSum() {
+            return mSum.get();
+        }
+
+        public long getMax() {
+            return mMax.get();
+        }
+
+        /**
+         * Returns an upper bound of the given percentile, for example 0.99, or 0 when
+         * nothing has been recorded.
+         */
+        public long percentile(double fraction) {
+            long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= rank) {
+                    long upperBound = i == 0 ? 0 : (1L << i) - 1;
+                    return Math.min(upperBound, mMax.get());
+                }
+            }
+            return mMax.get();
+        }
+    }
+}
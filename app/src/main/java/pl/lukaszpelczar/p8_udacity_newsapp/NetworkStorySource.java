@@ -0,0 +1,14 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+/**
+ * Fetches pages from the Guardian API through the {@link StoryFetcher}, which coalesces
+ * and retries the requests made over the shared {@link StoryHttpClient}.
+ */
+public class NetworkStorySource implements StorySource {
+
+    @Override
+    public StoryPage fetch(String requestUrl, StoryPage cachedPage, Deadline deadline)
+            throws StoryException {
+        return StoryFetcher.fetch(requestUrl, cachedPage, deadline);
+    }
+}
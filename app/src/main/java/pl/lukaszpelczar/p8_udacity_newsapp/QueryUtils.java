@@ -1,22 +1,26 @@
 package pl.lukaszpelczar.p8_udacity_newsapp;
 
-import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
+import android.util.MalformedJsonException;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
+import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.BufferedSource;
 
 /**
  * Helper methods related to requesting and receiving story from Guardian API.
@@ -27,17 +31,45 @@ public final class QueryUtils {
     private static final String LOG_TAG = QueryUtils.class.getSimpleName();
 
     private static final int SUCCESS_CODE = 200;
+    private static final int NOT_MODIFIED_CODE = 304;
+    private static final int TOO_MANY_REQUESTS_CODE = 429;
+    private static final int SERVER_ERROR_CODE = 500;
+
+    /** HTTP headers */
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_RETRY_AFTER = "Retry-After";
+
+    /** Cache-Control directives */
+    private static final String MAX_AGE = "max-age=";
+    private static final String NO_CACHE = "no-cache";
+    private static final String NO_STORE = "no-store";
 
     /** JSON objects data */
     private static final String RESPONSE = "response";
     private static final String RESULTS = "results";
+    private static final String CURRENT_PAGE = "currentPage";
+    private static final String PAGES = "pages";
     private static final String WEB_PUBLICATION_DATE = "webPublicationDate";
     private static final String WEB_TITLE = "webTitle";
     private static final String SECTION_NAME = "sectionName";
     private static final String WEB_URL = "webUrl";
     private static final String TAGS = "tags";
+    private static final String FIELDS = "fields";
+    private static final String THUMBNAIL = "thumbnail";
     private static final String NO_AVAILABLE = "N/A";
-    private static final int TAGS_INDEX = 0;
+
+    /** Metrics of the fetch and parse stages */
+    private static final Metrics.Histogram FETCH_TIME = Metrics.histogram("fetch_us");
+    private static final Metrics.Histogram PARSE_TIME = Metrics.histogram("parse_us");
+    private static final Metrics.Counter STORIES_PARSED = Metrics.counter("stories_parsed");
+    private static final Metrics.Counter RESPONSES_OK = Metrics.counter("responses_200");
+    private static final Metrics.Counter RESPONSES_NOT_MODIFIED = Metrics.counter("responses_304");
+    private static final Metrics.Counter RESPONSES_FAILED = Metrics.counter("responses_failed");
+
     /**
      * Create a private constructor because no one should ever create a {@link QueryUtils} object.
      * This class is only meant to hold static variables and methods, which can be accessed
@@ -47,172 +79,429 @@ public final class QueryUtils {
     }
 
     /**
-     * Query the Guardian API and return a list of {@link Story} objects.
+     * Query the Guardian API and return the requested {@link StoryPage}. If a previously
+     * cached page is given, the request is made conditional on its validators and a
+     * 304 Not Modified answer returns its stories without reading a response body.
+     *
+     * The request is cancelled with the given {@link Deadline} and may not take longer
+     * than the time it has left. This is safe to call from several threads at once;
+     * the requests share the connections of the {@link StoryHttpClient}.
+     *
+     * @throws StoryException telling why no page could be loaded
      */
-    public static List<Story> fetchStoryData(String requestUrl) {
+    public static StoryPage fetchStoryData(String requestUrl, StoryPage cachedPage,
+                                           Deadline deadline) throws StoryException {
         // Create URL object
         URL url = createUrl(requestUrl);
 
-        // Perform HTTP request to the URL and receive a JSON response back
-        String jsonResponse = null;
-        try {
-            jsonResponse = makeHttpRequest(url);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem making the HTTP request.", e);
-        }
-
-        // Extract relevant fields from the JSON response and create a list of {@link Story}
-        List<Story> stories = extractFeatureFromJson(jsonResponse);
-
-        // Return the list of {@link Story}
-        return stories;
+        // Perform HTTP request to the URL and parse the JSON response as it arrives
+        return makeHttpRequest(url, cachedPage, deadline);
     }
 
     /**
      * Returns new URL object from the given string URL.
      */
-    private static URL createUrl(String stringUrl) {
-        URL url = null;
+    private static URL createUrl(String stringUrl) throws StoryException {
         try {
-            url = new URL(stringUrl);
+            return new URL(stringUrl);
         } catch (MalformedURLException e) {
-            Log.e(LOG_TAG, "Problem building the URL ", e);
+            throw new StoryException(StoryException.Kind.REQUEST, "Problem building the URL", e);
         }
-        return url;
     }
 
     /**
-     * Make an HTTP request to the given URL and return a String as the response.
+     * Make an HTTP request to the given URL over the shared {@link StoryHttpClient}
+     * and return the {@link StoryPage} parsed straight from the response stream.
+     * The client asks for gzip and decompresses the body transparently.
      */
-    private static String makeHttpRequest(URL url) throws IOException {
-        String jsonResponse = "";
-
-        // If the URL is null, then return early.
-        if (url == null) {
-            return jsonResponse;
+    private static StoryPage makeHttpRequest(URL url, StoryPage cachedPage, Deadline deadline)
+            throws StoryException {
+        deadline.check();
+
+        Request.Builder requestBuilder = new Request.Builder().url(url).get();
+        if (cachedPage != null) {
+            if (cachedPage.getEtag() != null) {
+                requestBuilder.header(HEADER_IF_NONE_MATCH, cachedPage.getEtag());
+            }
+            if (cachedPage.getLastModified() != null) {
+                requestBuilder.header(HEADER_IF_MODIFIED_SINCE, cachedPage.getLastModified());
+            }
         }
 
-        HttpURLConnection urlConnection = null;
-        InputStream inputStream = null;
+        // The whole call, body included, has to finish within the time the load has left
+        Call call = StoryHttpClient.getClient().newCall(requestBuilder.build());
+        call.timeout().timeout(Math.max(1, deadline.remaining()), TimeUnit.MILLISECONDS);
+        deadline.register(call);
+
+        Response response = null;
+        long fetchStart = Metrics.beginSpan("fetch");
         try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(10000 /* milliseconds */);
-            urlConnection.setConnectTimeout(15000 /* milliseconds */);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // If the request was successful (response code 200),
-            // then read the input stream and parse the response.
-            if (urlConnection.getResponseCode() == SUCCESS_CODE) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
-            } else {
-                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
+            response = call.execute();
+
+            int responseCode = response.code();
+            if (responseCode == SUCCESS_CODE) {
+                // If the request was successful (response code 200), then parse the body.
+                // Gzip responses are decompressed on the fly and have no Content-Length,
+                // so the size is told from the bytes buffered: a large body is read in
+                // full and parsed on several cores, and a smaller one, which is then
+                // buffered whole, is parsed on this thread with its length known.
+                // The span is closed even if the body fails, so the fetch closes its own
+                StoryPage page;
+                long parseStart = Metrics.beginSpan("parse");
+                try {
+                    BufferedSource source = response.body().source();
+                    page = source.request(StoryBatchParser.MIN_PARALLEL_SIZE)
+                            ? StoryBatchParser.parse(source.readByteArray())
+                            : extractFeatureFromStream(source.inputStream(),
+                            source.buffer().size());
+                } finally {
+                    Metrics.endSpan(PARSE_TIME, parseStart);
+                }
+                STORIES_PARSED.add(page.getStories().size());
+                RESPONSES_OK.increment();
+
+                page.setCacheInfo(response.header(HEADER_ETAG),
+                        response.header(HEADER_LAST_MODIFIED),
+                        parseMaxAge(response.header(HEADER_CACHE_CONTROL)),
+                        System.currentTimeMillis());
+                return page;
+            } else if (responseCode == NOT_MODIFIED_CODE && cachedPage != null) {
+                RESPONSES_NOT_MODIFIED.increment();
+
+                // The cached page is still current, so reuse its stories and
+                // only refresh the cache information.
+                StoryPage page = new StoryPage(cachedPage.getStories(),
+                        cachedPage.getCurrentPage(), cachedPage.getPages());
+                String etag = response.header(HEADER_ETAG);
+                String lastModified = response.header(HEADER_LAST_MODIFIED);
+                String cacheControl = response.header(HEADER_CACHE_CONTROL);
+                page.setCacheInfo(
+                        etag != null ? etag : cachedPage.getEtag(),
+                        lastModified != null ? lastModified : cachedPage.getLastModified(),
+                        cacheControl != null ? parseMaxAge(cacheControl) : cachedPage.getMaxAge(),
+                        System.currentTimeMillis());
+                page.setNotModified(true);
+                return page;
             }
+
+            RESPONSES_FAILED.increment();
+            Log.e(LOG_TAG, "Error response code: " + responseCode);
+            throw responseError(response);
+        } catch (StoryException e) {
+            throw e;
         } catch (IOException e) {
+            RESPONSES_FAILED.increment();
             Log.e(LOG_TAG, "Problem retrieving the JSON results.", e);
+            throw requestError(e, deadline);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (inputStream != null) {
-                // Closing the input stream could throw an IOException, which is why
-                // the makeHttpRequest(URL url) method signature specifies than an IOException
-                // could be thrown.
-                inputStream.close();
+            if (response != null) {
+                // Closing the response releases its connection back to the pool,
+                // so the next request can reuse it.
+                response.close();
             }
+            deadline.unregister(call);
+            Metrics.endSpan(FETCH_TIME, fetchStart);
+        }
+    }
+
+    /**
+     * Returns the failure for a response with an unexpected status code.
+     */
+    private static StoryException responseError(Response response) {
+        int code = response.code();
+        StoryException.Kind kind;
+        if (code == TOO_MANY_REQUESTS_CODE) {
+            kind = StoryException.Kind.RATE_LIMITED;
+        } else if (code >= SERVER_ERROR_CODE) {
+            kind = StoryException.Kind.SERVER;
+        } else {
+            kind = StoryException.Kind.REQUEST;
+        }
+        return new StoryException(kind, "Error response code: " + code, code,
+                parseRetryAfter(response));
+    }
+
+    /**
+     * Returns the failure for a request that could not be completed.
+     */
+    private static StoryException requestError(IOException e, Deadline deadline) {
+        StoryException.Kind kind;
+        if (deadline.isCancelled()) {
+            kind = StoryException.Kind.CANCELLED;
+        } else if (e instanceof InterruptedIOException) {
+            // Socket timeouts, and the call timeout set from the deadline
+            kind = StoryException.Kind.TIMEOUT;
+        } else {
+            kind = StoryException.Kind.NETWORK;
         }
-        return jsonResponse;
+        return new StoryException(kind, e.getMessage(), e);
     }
 
     /**
-     * Convert the {@link InputStream} into a String which contains the
-     * whole JSON response from the server.
+     * Return the time in milliseconds from now given by the Retry-After header of the
+     * response, either as a number of seconds or as a date, or
+     * {@link StoryException#NO_RETRY_AFTER} if there is no usable header.
      */
-    private static String readFromStream(InputStream inputStream) throws IOException {
-        StringBuilder output = new StringBuilder();
-        if (inputStream != null) {
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-            BufferedReader reader = new BufferedReader(inputStreamReader);
-            String line = reader.readLine();
-            while (line != null) {
-                output.append(line);
-                line = reader.readLine();
+    private static long parseRetryAfter(Response response) {
+        String retryAfter = response.header(HEADER_RETRY_AFTER);
+        if (retryAfter == null) {
+            return StoryException.NO_RETRY_AFTER;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            Date date = response.headers().getDate(HEADER_RETRY_AFTER);
+            if (date == null) {
+                return StoryException.NO_RETRY_AFTER;
             }
+            return Math.max(0, date.getTime() - System.currentTimeMillis());
         }
-        return output.toString();
     }
 
     /**
-     * Return a list of {@link Story} objects that has been built up from
-     * parsing the given JSON response.
+     * Return the max-age in seconds of the given Cache-Control header value,
+     * 0 if the response must not be reused without revalidation, or
+     * {@link StoryPage#NO_MAX_AGE} if the header does not say.
      */
-    private static List<Story> extractFeatureFromJson(String storyJSON) {
-        // If the JSON string is empty or null, then return early.
-        if (TextUtils.isEmpty(storyJSON)) {
-            return null;
+    private static long parseMaxAge(String cacheControl) {
+        if (cacheControl == null) {
+            return StoryPage.NO_MAX_AGE;
+        }
+        if (cacheControl.contains(NO_CACHE) || cacheControl.contains(NO_STORE)) {
+            return 0;
+        }
+        int start = cacheControl.indexOf(MAX_AGE);
+        if (start < 0) {
+            return StoryPage.NO_MAX_AGE;
+        }
+        start += MAX_AGE.length();
+        int end = start;
+        while (end < cacheControl.length() && Character.isDigit(cacheControl.charAt(end))) {
+            end++;
+        }
+        try {
+            return Long.parseLong(cacheControl.substring(start, end));
+        } catch (NumberFormatException e) {
+            return StoryPage.NO_MAX_AGE;
         }
+    }
+
+    /**
+     * Return a {@link StoryPage} that has been built up from pulling the JSON
+     * response off the given {@link InputStream}. Each {@link Story} is created as
+     * soon as its record has been read, and every value that is not needed is
+     * skipped without being materialised.
+     *
+     * Package-private so the benchmark module can measure it.
+     */
+    static StoryPage extractFeatureFromStream(InputStream inputStream) throws IOException {
+        return extractFeatureFromStream(inputStream, -1);
+    }
 
+    /**
+     * Return a {@link StoryPage} parsed from the given {@link InputStream}, which holds
+     * the given number of bytes or -1 if that is not known. The bytes are decoded by a
+     * {@link Utf8Reader} whose pooled read buffer is sized from that length, and the
+     * stream is closed once it has been parsed.
+     *
+     * @throws IOException if reading the stream failed; malformed JSON is not an error
+     *                     and gives the stories read up to that point
+     */
+    static StoryPage extractFeatureFromStream(InputStream inputStream, long contentLength)
+            throws IOException {
         // Create an empty ArrayList that we can start adding stories to
         List<Story> stories = new ArrayList<>();
+        int[] paging = new int[2];
 
-        // Try to parse the JSON response string. If there's a problem with the way the JSON
-        // is formatted, a JSONException exception object will be thrown.
-        // Catch the exception so the app doesn't crash, and print the error message to the logs.
-        try {
-
-            // Create a JSONObject from the JSON response string
-            JSONObject baseJsonResponse = new JSONObject(storyJSON);
+        // Share one instance of every repeated section and author name within the page
+        Map<String, String> names = new HashMap<>();
 
-            JSONObject response = baseJsonResponse.getJSONObject(RESPONSE);
+        JsonReader reader = new JsonReader(new Utf8Reader(inputStream, contentLength));
 
-            JSONArray storyArray = response.getJSONArray(RESULTS);
+        // Try to parse the JSON response. If there's a problem with the way the JSON is
+        // formatted, a MalformedJsonException or IllegalStateException will be thrown.
+        // Catch the exception so the app doesn't crash, and keep the stories read so far.
+        // Any other IOException means the body could not be read, and is passed on.
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (RESPONSE.equals(reader.nextName())) {
+                    readResponse(reader, stories, paging, names);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException | IllegalStateException e) {
+            Log.e(LOG_TAG, "Problem parsing the story JSON results", e);
+        } finally {
+            // Closing the reader hands its read buffer back to the pool
+            try {
+                reader.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Problem closing the story JSON reader", e);
+            }
+        }
 
-            // For each story in the storyArray, create an {@link Story} object
-            for (int i = 0; i < storyArray.length(); i++) {
+        // Return the page of stories
+        return new StoryPage(stories, paging[0], paging[1]);
+    }
 
-                // Get a single story at position i within the list of stories
-                JSONObject currentStory = storyArray.getJSONObject(i);
+    /**
+     * Return the stories of a bare JSON array of results read from the given
+     * {@link InputStream}, which holds the given number of bytes or -1 if that is not
+     * known. Used by {@link StoryBatchParser} to parse a run of a larger response;
+     * unlike a whole response, malformed JSON is passed on as an exception.
+     */
+    static List<Story> extractStoriesFromStream(InputStream inputStream, long contentLength)
+            throws IOException {
+        List<Story> stories = new ArrayList<>();
+        Map<String, String> names = new HashMap<>();
 
-                String date = currentStory.optString(WEB_PUBLICATION_DATE);
+        JsonReader reader = new JsonReader(new Utf8Reader(inputStream, contentLength));
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                stories.add(readStory(reader, names));
+            }
+            reader.endArray();
+        } finally {
+            reader.close();
+        }
+        return stories;
+    }
 
-                String title = currentStory.optString(WEB_TITLE);
+    /**
+     * Read the "response" object, add a {@link Story} for every entry of its results
+     * and store the current page and the page count in the given paging array.
+     */
+    private static void readResponse(JsonReader reader, List<Story> stories, int[] paging,
+                                     Map<String, String> names) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (CURRENT_PAGE.equals(name)) {
+                paging[0] = reader.nextInt();
+            } else if (PAGES.equals(name)) {
+                paging[1] = reader.nextInt();
+            } else if (RESULTS.equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    stories.add(readStory(reader, names));
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
 
-                String section = currentStory.optString(SECTION_NAME);
+    /**
+     * Read a single result object and create a {@link Story} from it.
+     * Section and author names are looked up in the given map of shared names.
+     */
+    private static Story readStory(JsonReader reader, Map<String, String> names)
+            throws IOException {
+        long publishedAt = StoryDates.NO_DATE;
+        String title = "";
+        String section = "";
+        String url = "";
+        String author = NO_AVAILABLE;
+        String thumbnail = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if (WEB_PUBLICATION_DATE.equals(name)) {
+                publishedAt = StoryDates.parse(reader.nextString());
+            } else if (WEB_TITLE.equals(name)) {
+                title = reader.nextString();
+            } else if (SECTION_NAME.equals(name)) {
+                section = dedupe(names, reader.nextString());
+            } else if (WEB_URL.equals(name)) {
+                url = reader.nextString();
+            } else if (TAGS.equals(name)) {
+                author = dedupe(names, readAuthor(reader, author));
+            } else if (FIELDS.equals(name)) {
+                thumbnail = readThumbnail(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
 
-                String url = currentStory.optString(WEB_URL);
+        // Create a new {@link Story} object
+        return new Story(publishedAt, title, section, url, author, thumbnail);
+    }
 
-                String author = NO_AVAILABLE;
+    /**
+     * Returns the instance of the given name already held in the map,
+     * adding the name if it is not there yet.
+     */
+    static String dedupe(Map<String, String> names, String name) {
+        if (name == null) {
+            return null;
+        }
+        String shared = names.get(name);
+        if (shared == null) {
+            names.put(name, name);
+            shared = name;
+        }
+        return shared;
+    }
 
-                if (currentStory.has(TAGS)) {
+    /**
+     * Read the fields object and return its thumbnail URL, or null if it has none.
+     */
+    private static String readThumbnail(JsonReader reader) throws IOException {
+        String thumbnail = null;
 
-                    JSONArray tagsArray = currentStory.getJSONArray(TAGS);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (THUMBNAIL.equals(reader.nextName()) && reader.peek() == JsonToken.STRING) {
+                thumbnail = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
 
-                    if (!tagsArray.isNull(TAGS_INDEX)) {
-                        JSONObject currentStoryTags = tagsArray.getJSONObject(TAGS_INDEX);
+        return thumbnail;
+    }
 
-                        if (currentStory.has(WEB_TITLE)) {
-                            author = currentStoryTags.getString(WEB_TITLE);
-                        }
+    /**
+     * Read the tags array and return the title of the first contributor tag,
+     * or the given fallback when there is none. Remaining tags are skipped.
+     */
+    private static String readAuthor(JsonReader reader, String fallback) throws IOException {
+        String author = fallback;
+
+        reader.beginArray();
+        if (reader.hasNext()) {
+            if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (WEB_TITLE.equals(reader.nextName())
+                            && reader.peek() == JsonToken.STRING) {
+                        author = reader.nextString();
+                    } else {
+                        reader.skipValue();
                     }
                 }
-
-                // Create a new {@link Story} object
-                Story story = new Story(date, title, section, url, author);
-
-                // Add the new {@link Story} to the list of stories.
-                stories.add(story);
+                reader.endObject();
+            } else {
+                reader.skipValue();
             }
-
-        } catch (JSONException e) {
-            // If an error is thrown when executing any of the above statements in the "try" block,
-            // catch the exception here, so the app doesn't crash. Print a log message
-            // with the message from the exception.
-            Log.e(LOG_TAG, "Problem parsing the story JSON results", e);
         }
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
 
-        // Return the list of stories
-        return stories;
+        return author;
     }
 
 }
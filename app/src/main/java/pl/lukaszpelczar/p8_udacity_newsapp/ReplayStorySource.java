@@ -0,0 +1,131 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Answers requests with recorded Guardian responses read from a directory, parsed the
+ * same way as responses from the network. Loads are repeatable and need no network,
+ * which makes them comparable from one profiling run to the next.
+ *
+ * A request is answered with the recording named by {@link #recordingName}, or with
+ * {@link #DEFAULT_RECORDING} if there is none. The names only depend on the path and
+ * the query parameters of the URL, so recordings of the live API also answer requests
+ * made to a local server, see the benchmark module's ReplayServer.
+ */
+public class ReplayStorySource implements StorySource {
+
+    /** Recording answering requests that have none of their own */
+    public static final String DEFAULT_RECORDING = "default.json";
+
+    /** Suffix of the recording files */
+    private static final String SUFFIX = ".json";
+
+    /** Query parameter left out of the recording names, so no key ends up in a file name */
+    private static final String API_KEY_PARAM = "api-key=";
+
+    private static final Metrics.Counter REPLAYS = Metrics.counter("replays");
+
+    private final File mDirectory;
+
+    /**
+     * @param directory holding the recorded responses
+     */
+    public ReplayStorySource(File directory) {
+        mDirectory = directory;
+    }
+
+    @Override
+    public StoryPage fetch(String requestUrl, StoryPage cachedPage, Deadline deadline)
+            throws StoryException {
+        deadline.check();
+        File file = new File(mDirectory, recordingName(requestUrl));
+        if (!file.isFile()) {
+            file = new File(mDirectory, DEFAULT_RECORDING);
+        }
+        if (!file.isFile()) {
+            throw new StoryException(StoryException.Kind.REQUEST,
+                    "No recording for " + requestUrl, null);
+        }
+
+        try {
+            StoryPage page;
+            if (file.length() >= StoryBatchParser.MIN_PARALLEL_SIZE) {
+                page = StoryBatchParser.parse(readFile(file));
+            } else {
+                InputStream inputStream = new FileInputStream(file);
+                try {
+                    page = QueryUtils.extractFeatureFromStream(inputStream, file.length());
+                } finally {
+                    inputStream.close();
+                }
+            }
+            page.setCacheInfo(null, null, StoryPage.NO_MAX_AGE, System.currentTimeMillis());
+            REPLAYS.increment();
+            return page;
+        } catch (IOException e) {
+            throw new StoryException(StoryException.Kind.REQUEST, "Problem replaying " + file, e);
+        }
+    }
+
+    /**
+     * Returns the file name of the recording of the given URL: its path and its sorted
+     * query parameters, without the API key, URL-encoded.
+     */
+    public static String recordingName(String requestUrl) {
+        StringBuilder key = new StringBuilder(requestUrl.length());
+        try {
+            URI uri = new URI(requestUrl);
+            if (uri.getRawPath() != null) {
+                key.append(uri.getRawPath());
+            }
+            List<String> params = new ArrayList<>();
+            if (uri.getRawQuery() != null) {
+                for (String param : uri.getRawQuery().split("&")) {
+                    if (!param.isEmpty() && !param.startsWith(API_KEY_PARAM)) {
+                        params.add(param);
+                    }
+                }
+            }
+            Collections.sort(params);
+            for (int i = 0; i < params.size(); i++) {
+                key.append(i == 0 ? '?' : '&').append(params.get(i));
+            }
+        } catch (URISyntaxException e) {
+            key.append(requestUrl);
+        }
+
+        try {
+            return URLEncoder.encode(key.toString(), "UTF-8") + SUFFIX;
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < bytes.length) {
+                int count = inputStream.read(bytes, read, bytes.length - read);
+                if (count < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+                read += count;
+            }
+        } finally {
+            inputStream.close();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,50 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs at most one call per key at a time. Callers that ask for a key while a call
+ * for it is still running join that call and receive its result, instead of
+ * starting a call of their own.
+ *
+ * @param <V> type of the result of the calls
+ */
+public class SingleFlight<V> {
+
+    /** Calls currently running, by key */
+    private final ConcurrentMap<String, FutureTask<V>> mCalls = new ConcurrentHashMap<>();
+
+    /**
+     * Run the given callable for the given key on the calling thread, or wait for the
+     * call for that key that is already running, and return its result.
+     *
+     * @throws ExecutionException if the call threw an exception
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public V execute(String key, Callable<V> callable)
+            throws ExecutionException, InterruptedException {
+        FutureTask<V> task = new FutureTask<>(callable);
+        FutureTask<V> running = mCalls.putIfAbsent(key, task);
+        if (running == null) {
+            // No call is running for this key, so this thread makes it
+            running = task;
+            try {
+                task.run();
+            } finally {
+                mCalls.remove(key, task);
+            }
+        }
+        return running.get();
+    }
+
+    /**
+     * Returns the number of calls currently running.
+     */
+    public int inFlight() {
+        return mCalls.size();
+    }
+}
@@ -2,22 +2,71 @@ package pl.lukaszpelczar.p8_udacity_newsapp;
 
 public class Story {
 
-    private String date;
+    /** Seed and prime of the 64-bit FNV-1a hash used for URLs and contents */
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** Hashed in place of a missing field, and after every field; neither is a char */
+    private static final int NULL_FIELD = 0x10000;
+    private static final int END_OF_FIELD = 0x10001;
+
+    private long publishedAt;
     private String section;
     private String title;
     private String author;
     private String url;
 
-    public Story(String date, String title, String section, String url, String author){
-        this.date = date;
+    /** URL of the thumbnail image, or null if the story has none */
+    private String thumbnail;
+
+    /** Publication time as shown in the list, formatted on first use */
+    private String formattedDate;
+
+    /** Hash of everything but the web URL, see {@link #getContentHash} */
+    private long contentHash;
+
+    /**
+     * Constructs a new {@link Story}. Section and author names repeat across a page,
+     * so callers should pass shared instances of them rather than fresh copies.
+     *
+     * @param publishedAt publication time in epoch milliseconds, or {@link StoryDates#NO_DATE}
+     */
+    public Story(long publishedAt, String title, String section, String url, String author){
+        this(publishedAt, title, section, url, author, null);
+    }
+
+    /**
+     * Constructs a new {@link Story} with a thumbnail.
+     *
+     * @param thumbnail URL of the thumbnail image, or null if there is none
+     */
+    public Story(long publishedAt, String title, String section, String url, String author,
+                 String thumbnail) {
+        this.publishedAt = publishedAt;
         this.section = section;
         this.title = title;
         this.url = url;
         this.author = author;
+        this.thumbnail = thumbnail;
+        this.contentHash = contentHash(publishedAt, title, section, author, thumbnail);
     }
 
-    public String getDate() {
-        return date;
+    /**
+     * Returns the publication time in epoch milliseconds, or {@link StoryDates#NO_DATE}.
+     */
+    public long getPublishedAt() {
+        return publishedAt;
+    }
+
+    /**
+     * Returns the publication time formatted for display. The text is created once
+     * and reused by every later call.
+     */
+    public String getFormattedDate() {
+        if (formattedDate == null) {
+            formattedDate = StoryDates.format(publishedAt);
+        }
+        return formattedDate;
     }
 
     public String getSection() {
@@ -35,4 +84,66 @@ public class Story {
     public String getUrl() {
         return url;
     }
+
+    /**
+     * Returns the URL of the thumbnail image, or null if the story has none.
+     */
+    public String getThumbnail() {
+        return thumbnail;
+    }
+
+    /**
+     * Returns a 64-bit hash of the publication time, title, section, author and thumbnail
+     * URL, computed when the story is created. Two versions of the story under the same
+     * web URL have different contents when their hashes differ.
+     */
+    public long getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Returns the 64-bit FNV-1a hash of the characters of the given text, which is the
+     * seed of the hash when the text is null.
+     */
+    static long hash(String text) {
+        long hash = FNV_OFFSET_BASIS;
+        if (text != null) {
+            for (int i = 0; i < text.length(); i++) {
+                hash ^= text.charAt(i);
+                hash *= FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    private static long contentHash(long publishedAt, String title, String section,
+                                    String author, String thumbnail) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int shift = 0; shift < 64; shift += 8) {
+            hash ^= (publishedAt >>> shift) & 0xff;
+            hash *= FNV_PRIME;
+        }
+        hash = hashField(hash, title);
+        hash = hashField(hash, section);
+        hash = hashField(hash, author);
+        return hashField(hash, thumbnail);
+    }
+
+    /**
+     * Continue the given hash with a field, ended by a value no character has so that
+     * text cannot move from one field to the next without changing the hash.
+     */
+    private static long hashField(long hash, String field) {
+        if (field == null) {
+            hash ^= NULL_FIELD;
+            hash *= FNV_PRIME;
+        } else {
+            for (int i = 0; i < field.length(); i++) {
+                hash ^= field.charAt(i);
+                hash *= FNV_PRIME;
+            }
+        }
+        hash ^= END_OF_FIELD;
+        return hash * FNV_PRIME;
+    }
 }
@@ -1,39 +1,88 @@
 package pl.lukaszpelczar.p8_udacity_newsapp;
 
+import android.app.ActivityManager;
+import android.app.AlarmManager;
 import android.app.LoaderManager;
 import android.app.LoaderManager.LoaderCallbacks;
 import android.content.Context;
 import android.content.Intent;
 import android.content.Loader;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.support.v4.app.ActivityManagerCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.DividerItemDecoration;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.view.ViewTreeObserver;
 import android.widget.TextView;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 public class StoryActivity extends AppCompatActivity
-        implements LoaderCallbacks<List<Story>> {
+        implements LoaderCallbacks<StoryPage> {
 
     private static final String LOG_TAG = StoryActivity.class.getName();
 
-    private static final String KEY = "f51da863-1553-4b0f-8207-bad009cf42d4";
-    /** URL for stories from Guardian API */
-    private static final String GUARDIAN_REQUEST_URL =
-            "https://content.guardianapis.com/search?order-by=newest&q=bitcoin&show-tags=contributor&api-key="
-            + KEY;
+    /** URL for stories from Guardian API, whose address and key are set by the build */
+    private static final String GUARDIAN_REQUEST_URL = BuildConfig.GUARDIAN_API_URL
+            + "?order-by=newest&show-tags=contributor&show-fields=thumbnail&api-key="
+            + BuildConfig.GUARDIAN_API_KEY;
+
+    /** Query parameter holding the search terms */
+    private static final String QUERY_PARAM = "q";
+
+    /** Topics whose stories are merged into the list */
+    private static final String[] QUERIES = {"bitcoin", "blockchain", "cryptocurrency"};
 
     /**
      * Constant value for the story loader ID. We can choose any integer.
      * This really only comes into play if you're using multiple loaders.
      */
-    private static final int STORY_LOADER_ID = 1;
+    static final int STORY_LOADER_ID = 1;
+
+    /**
+     * Number of rows left below the last visible one at which
+     * the next page of stories starts loading.
+     */
+    private static final int PREFETCH_DISTANCE = 5;
+
+    /** Time in milliseconds cached stories are shown without being revalidated */
+    private static final long CACHE_TTL = 15 * 60 * 1000;
+
+    /** Maximum number of stories shown for a search */
+    private static final int SEARCH_LIMIT = 200;
+
+    /** Time in milliseconds between background syncs, and the conditions they need */
+    private static final long SYNC_INTERVAL = AlarmManager.INTERVAL_HOUR;
+    private static final boolean SYNC_UNMETERED_ONLY = true;
+    private static final boolean SYNC_CHARGING_ONLY = false;
+
+    /** File and period in milliseconds of the metrics export */
+    private static final String METRICS_FILE = "metrics.jsonl";
+    private static final long METRICS_EXPORT_PERIOD = 60 * 1000;
+
+    /** Number of loaded stories held on the heap on devices with little memory */
+    private static final int LOW_RAM_WINDOW_CAPACITY = 200;
+
+    /** File the loaded stories are saved to, so they survive the process being killed */
+    private static final String SAVED_STORIES_FILE = "saved_stories.bin";
+
+    /** Time from the creation of the activity to its first frame, and to the first stories */
+    private static final Metrics.Histogram INITIAL_DISPLAY_TIME =
+            Metrics.histogram("initial_display_us");
+    private static final Metrics.Histogram FULL_DISPLAY_TIME =
+            Metrics.histogram("full_display_us");
 
     /** Adapter for the list of stories */
     private StoryAdapter mAdapter;
@@ -41,37 +90,77 @@ public class StoryActivity extends AppCompatActivity
     /** TextView that is displayed when the list is empty */
     private TextView mEmptyStateTextView;
 
+    /** Text typed into the search box, empty when the loaded stories are shown */
+    private String mSearchQuery = "";
+
+    /** Incremented for every search, so only the results of the newest one are shown */
+    private int mSearchGeneration;
+
+    /** Stories saved before the process was killed, handed to the next story loader */
+    private StoryPage mRestoredPage;
+
+    /** Time in nanoseconds the activity was created at */
+    private long mCreatedAt;
+
+    /** Whether the system has been told the activity is fully drawn */
+    private boolean mReportedFullyDrawn;
+
+    /** Connection state behind the empty view, null until the first frame is drawn */
+    private ConnectivityMonitor mConnectivity;
+
+    private final ConnectivityMonitor.Listener mConnectivityListener =
+            new ConnectivityMonitor.Listener() {
+                @Override
+                public void onConnectivityChanged(boolean connected) {
+                    refreshEmptyText();
+                }
+            };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        mCreatedAt = System.nanoTime();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.story_activity);
 
+        // None of this is needed to draw the first frame, so it waits until it is drawn
+        runAfterFirstFrame(new Runnable() {
+            @Override
+            public void run() {
+                INITIAL_DISPLAY_TIME.record((System.nanoTime() - mCreatedAt) / 1000);
+
+                Metrics.startExport(new File(getFilesDir(), METRICS_FILE),
+                        METRICS_EXPORT_PERIOD);
+
+                // Keep the cached stories up to date in the background, so the next start
+                // can show them without waiting for the network
+                StorySyncService.schedule(StoryActivity.this, SYNC_INTERVAL,
+                        SYNC_UNMETERED_ONLY, SYNC_CHARGING_ONLY);
+
+                mConnectivity = ConnectivityMonitor.getInstance(StoryActivity.this);
+                mConnectivity.addListener(mConnectivityListener);
+                refreshEmptyText();
+            }
+        });
+
         //These lines of code sets the logo in App Toolbar
         getSupportActionBar().setDisplayUseLogoEnabled(true);
         getSupportActionBar().setDisplayShowHomeEnabled(true);
         getSupportActionBar().setIcon(R.drawable.ic_account_balance_white_18dp);
 
-        // Find a reference to the {@link ListView} in the layout
-        ListView storyListView = (ListView) findViewById(R.id.list);
+        // Find a reference to the {@link RecyclerView} in the layout
+        RecyclerView storyListView = (RecyclerView) findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        storyListView.setLayoutManager(layoutManager);
+        storyListView.addItemDecoration(
+                new DividerItemDecoration(this, layoutManager.getOrientation()));
 
         mEmptyStateTextView = (TextView) findViewById(R.id.empty_view);
-        storyListView.setEmptyView(mEmptyStateTextView);
-
-        // Create a new adapter that takes an empty list of stories as input
-        mAdapter = new StoryAdapter(this, new ArrayList<Story>());
-
-        // Set the adapter on the {@link ListView}
-        // so the list can be populated in the user interface
-        storyListView.setAdapter(mAdapter);
 
-        // Set an item click listener on the ListView, which sends an intent to a web browser
+        // Create a new adapter that sends an intent to a web browser when a story is clicked,
         // to open a website with more information about the selected story.
-        storyListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        mAdapter = new StoryAdapter(new StoryAdapter.OnStoryClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long l) {
-                // Find the current story that was clicked on
-                Story currentStory = mAdapter.getItem(position);
-
+            public void onStoryClick(Story currentStory) {
                 // Convert the String URL into a URI object (to pass into the Intent constructor)
                 Uri storyUri = Uri.parse(currentStory.getUrl());
 
@@ -81,82 +170,365 @@ public class StoryActivity extends AppCompatActivity
                 // Send the intent to launch a new activity
                 startActivity(websiteIntent);
             }
+        }, ThumbnailLoader.getInstance(this), new StoryTextLayouts(getResources()));
+
+        // Show the empty view only while the adapter has no stories
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
         });
 
-        // Get details on the currently active default data network
-        NetworkInfo networkInfo = getNetworkInfo();
+        // Set the adapter on the {@link RecyclerView}
+        // so the list can be populated in the user interface
+        storyListView.setAdapter(mAdapter);
 
-        // If there is a network connection, fetch data
-        if (networkInfo != null && networkInfo.isConnected()) {
-            // Get a reference to the LoaderManager, in order to interact with loaders.
-            LoaderManager loaderManager = getLoaderManager();
+        // Set a scroll listener on the RecyclerView, which prefetches the next page of stories
+        // once the user gets close to the end of the list.
+        storyListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int totalItemCount = mAdapter.getItemCount();
+                if (mSearchQuery.isEmpty() && totalItemCount > 0
+                        && layoutManager.findLastVisibleItemPosition()
+                        >= totalItemCount - 1 - PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+            }
+        });
 
-            // Initialize the loader. Pass in the int ID constant defined above and pass in null for
-            // the bundle. Pass in this activity for the LoaderCallbacks parameter (which is valid
-            // because this activity implements the LoaderCallbacks interface).
-            loaderManager.initLoader(STORY_LOADER_ID, null, this);
-        } else {
-            // Otherwise, display error
-            // First, hide loading indicator so error message will be visible
-            View loadingIndicator = findViewById(R.id.loading_indicator);
-            loadingIndicator.setVisibility(View.GONE);
+        // Get a reference to the LoaderManager, in order to interact with loaders.
+        LoaderManager loaderManager = getLoaderManager();
+
+        // A saved state without a loader means the process was killed in the background,
+        // taking the loaded stories with it, so read them back from the saved file.
+        if (savedInstanceState != null && loaderManager.getLoader(STORY_LOADER_ID) == null) {
+            File savedFile = new File(getCacheDir(), SAVED_STORIES_FILE);
+            try {
+                mRestoredPage = StoryCodec.read(savedFile);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Problem restoring the saved stories", e);
+            }
+            // Read only once, so a later restore never brings back these old stories
+            deleteSavedStories(savedFile);
+        }
 
-            // Update empty state with no connection error message
-            mEmptyStateTextView.setText(R.string.no_internet_connection);
+        // Initialize the loader even without a network connection, so cached stories
+        // can be shown. Pass in the int ID constant defined above and pass in null for
+        // the bundle. Pass in this activity for the LoaderCallbacks parameter (which is valid
+        // because this activity implements the LoaderCallbacks interface).
+        loaderManager.initLoader(STORY_LOADER_ID, null, this);
+    }
+
+    /**
+     * Run the given work on the main thread once the first frame of the activity has been
+     * drawn, so it does not delay the first frame of a cold start.
+     */
+    private void runAfterFirstFrame(final Runnable work) {
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        // Posted, so it runs once the frame about to be drawn is done
+                        decorView.post(work);
+                        return true;
+                    }
+                });
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+
+        // Memory given back while in the background is needed again for scrolling
+        Loader<StoryPage> loader = getLoaderManager().getLoader(STORY_LOADER_ID);
+        if (loader != null) {
+            ((StoryLoader) loader).getStories().restoreCapacity();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // The loader and its window outlive the activity on a configuration change
+        mAdapter.release();
+        if (mConnectivity != null) {
+            mConnectivity.removeListener(mConnectivityListener);
+        }
+    }
+
+    /**
+     * Give back memory as the system runs short of it, before it has to kill the process
+     * in the background: the loaded stories shrink to a smaller window, and cached
+     * thumbnails are dropped.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        Loader<StoryPage> loader = getLoaderManager().getLoader(STORY_LOADER_ID);
+        if (loader != null) {
+            ((StoryLoader) loader).getStories().trimMemory(level);
+        }
+        ThumbnailLoader.getInstance(this).trimMemory(level);
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+
+        // The stories are too many for the bundle, so they are saved to a file instead.
+        // A configuration change keeps the loader and never reads it.
+        Loader<StoryPage> loader = getLoaderManager().getLoader(STORY_LOADER_ID);
+        StoryPage saved = loader == null ? null : ((StoryLoader) loader).getSavedState();
+        final File savedFile = new File(getCacheDir(), SAVED_STORIES_FILE);
+        if (saved == null) {
+            // Nothing loaded yet, so the stories of an earlier session must not come back
+            deleteSavedStories(savedFile);
+            return;
+        }
+
+        // Encoded here, as the loader changes the stories on this thread, and written in
+        // the background, after any earlier save or delete
+        final byte[] encoded = StoryCodec.encode(saved);
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    StoryCodec.write(encoded, savedFile);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Problem saving the stories", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Delete the given file of saved stories in the background, after any save still
+     * being written.
+     */
+    private static void deleteSavedStories(final File savedFile) {
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!savedFile.delete() && savedFile.exists()) {
+                    Log.w(LOG_TAG, "Problem deleting " + savedFile);
+                }
+            }
+        });
+    }
+
+    /**
+     * Show the empty view when there are no stories in the list, and hide it otherwise.
+     */
+    private void updateEmptyView() {
+        mEmptyStateTextView.setVisibility(mAdapter.isEmpty() ? View.VISIBLE : View.GONE);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.story_menu, menu);
+
+        // Search the stories as the query is typed
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                search(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                search(newText);
+                return true;
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Show the stories matching the given text, looked up in the local search index on a
+     * background thread. Text too short to search for brings back the stories loaded
+     * from the queries.
+     */
+    private void search(String text) {
+        final String query = StorySearch.matchQuery(text) == null ? "" : text.trim();
+        if (query.equals(mSearchQuery)) {
+            return;
+        }
+        mSearchQuery = query;
+        final int generation = ++mSearchGeneration;
+
+        if (query.isEmpty()) {
+            Loader<StoryPage> loader = getLoaderManager().getLoader(STORY_LOADER_ID);
+            if (loader != null) {
+                mAdapter.setStories(((StoryLoader) loader).getStories());
+            }
+            updateEmptyText();
+            return;
+        }
+
+        final StoryCache cache = StoryCache.getInstance(this);
+        new AsyncTask<Void, Void, List<Story>>() {
+            @Override
+            protected List<Story> doInBackground(Void... voids) {
+                return cache.search(query, SEARCH_LIMIT);
+            }
+
+            @Override
+            protected void onPostExecute(List<Story> stories) {
+                // Drop the results if a newer search has started in the meantime
+                if (generation != mSearchGeneration) {
+                    return;
+                }
+                mEmptyStateTextView.setText(R.string.no_matching_stories);
+                mAdapter.replaceAll(stories);
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Ask the story loader for the next page of stories, if it exists.
+     */
+    private void loadNextPage() {
+        Loader<StoryPage> loader = getLoaderManager().getLoader(STORY_LOADER_ID);
+        if (loader != null) {
+            ((StoryLoader) loader).loadNextPage();
         }
     }
 
     @Override
-    public Loader<List<Story>> onCreateLoader(int i, Bundle bundle) {
-        // Create a new loader for the given URL
-        return new StoryLoader(this, GUARDIAN_REQUEST_URL);
+    public Loader<StoryPage> onCreateLoader(int i, Bundle bundle) {
+        // Create a new loader for the URLs of all the queries
+        StoryLoader loader = new StoryLoader(this, buildQueryUrls(), CACHE_TTL,
+                StorySources.get(this));
+        if (ActivityManagerCompat.isLowRamDevice(
+                (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE))) {
+            loader.getStories().setCapacity(LOW_RAM_WINDOW_CAPACITY);
+        }
+        if (mRestoredPage != null) {
+            loader.restore(mRestoredPage);
+            mRestoredPage = null;
+        }
+        return loader;
+    }
+
+    /**
+     * Returns the request URL of every topic in {@link #QUERIES}. These are also the
+     * queries kept up to date by the {@link StorySyncService}.
+     */
+    static List<String> buildQueryUrls() {
+        List<String> urls = new ArrayList<>(QUERIES.length);
+        for (String query : QUERIES) {
+            urls.add(Uri.parse(GUARDIAN_REQUEST_URL).buildUpon()
+                    .appendQueryParameter(QUERY_PARAM, query)
+                    .build()
+                    .toString());
+        }
+        return urls;
     }
 
     @Override
-    public void onLoadFinished(Loader<List<Story>> loader, List<Story> stories) {
+    public void onLoadFinished(Loader<StoryPage> loader, StoryPage page) {
         // Hide loading indicator because the data has been loaded
         View loadingIndicator = findViewById(R.id.loading_indicator);
         loadingIndicator.setVisibility(View.GONE);
 
-        // Get details on the currently active default data network
-        NetworkInfo networkInfo = getNetworkInfo();
+        StoryLoader storyLoader = (StoryLoader) loader;
+        // Taken either way, as it only describes the rows shown right now
+        StoryLoader.FirstPageChange firstPageChange = storyLoader.takeFirstPageChange();
+        if (!mSearchQuery.isEmpty()) {
+            // Search results are shown; the loaded stories come back when the search ends
+            return;
+        }
 
-        // If there is a network connection,
-        if (networkInfo != null && networkInfo.isConnected()) {
+        if (firstPageChange != null && !mAdapter.isEmpty()) {
+            // The first page was revalidated with changes: update only its rows, and drop
+            // the rows loaded after it
+            mAdapter.replaceFirstPage(storyLoader.getStories(), firstPageChange);
+        } else if (mAdapter.isEmpty() || (page != null && page.getCurrentPage() <= 1
+                && !page.isUnchanged())) {
+            // Nothing is shown yet (recreated activity), or the first page was loaded or
+            // revalidated with changes, so show every story the loader holds, straight
+            // from its window
+            mAdapter.setStories(storyLoader.getStories());
+        } else if (page != null && !page.isUnchanged()) {
+            // The loader has appended the stories of the newly loaded page
+            mAdapter.notifyStoriesAppended(page.getStories().size());
+        }
 
-            // Set empty state text to display "No stories found."
-            mEmptyStateTextView.setText(R.string.no_stories);
+        updateEmptyText();
+        reportFullyDrawnOnce();
+    }
 
-            // Clear the adapter of previous story data
-            mAdapter.clear();
+    /**
+     * Tell the system the activity is fully drawn, the first time a load finishes: the
+     * first stories are shown then, or the empty view says why there are none.
+     */
+    private void reportFullyDrawnOnce() {
+        if (mReportedFullyDrawn) {
+            return;
+        }
+        mReportedFullyDrawn = true;
+        FULL_DISPLAY_TIME.record((System.nanoTime() - mCreatedAt) / 1000);
+        // On Android 4.4 it needs a permission only system apps hold
+        if (Build.VERSION.SDK_INT > Build.VERSION_CODES.KITKAT) {
+            reportFullyDrawn();
+        }
+    }
+
+    /**
+     * Bring the text of the empty view up to date with the network connection, unless
+     * it shows no text yet or is about a search.
+     */
+    private void refreshEmptyText() {
+        if (mReportedFullyDrawn && mSearchQuery.isEmpty()) {
+            updateEmptyText();
+        }
+    }
+
+    /**
+     * Set the text of the empty view according to the network connection
+     * and the outcome of the last load. The connection counts as there until
+     * it is first known, after the first frame.
+     */
+    private void updateEmptyText() {
+        boolean connected = mConnectivity == null || mConnectivity.isConnected();
+        Loader<StoryPage> loader = getLoaderManager().getLoader(STORY_LOADER_ID);
+        StoryException failure = loader == null ? null : ((StoryLoader) loader).getFailure();
 
-            // If there is a valid list of {@link Story}s, then add them to the adapter's
-            // data set. This will trigger the ListView to update.
-            if (stories != null && !stories.isEmpty()) {
-                mAdapter.addAll(stories);
+        // If there is a network connection,
+        if (connected) {
+            if (failure != null && failure.isTransient()) {
+                // Set empty state text to display "Stories could not be loaded."
+                mEmptyStateTextView.setText(R.string.load_failed);
+                return;
             }
+            // Set empty state text to display "No stories found."
+            mEmptyStateTextView.setText(R.string.no_stories);
         } else {
-            // Clear the adapter of previous story data
-            mAdapter.clear();
-
             // Set empty state text to display "No internet connection."
             mEmptyStateTextView.setText(R.string.no_internet_connection);
         }
     }
 
-    private NetworkInfo getNetworkInfo() {
-        // Get a reference to the ConnectivityManager to check state of network connectivity
-        ConnectivityManager connMgr = (ConnectivityManager)
-                getSystemService(Context.CONNECTIVITY_SERVICE);
-
-        // Get details on the currently active default data network
-        NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
-
-        return networkInfo;
-    }
-
     @Override
-    public void onLoaderReset(Loader<List<Story>> loader) {
+    public void onLoaderReset(Loader<StoryPage> loader) {
         // Loader reset, so we can clear out our existing data.
         mAdapter.clear();
     }
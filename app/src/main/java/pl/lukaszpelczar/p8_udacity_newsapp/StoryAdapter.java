@@ -1,69 +1,363 @@
 package pl.lukaszpelczar.p8_udacity_newsapp;
 
-import android.content.Context;
+import android.os.AsyncTask;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.ImageView;
 import android.widget.TextView;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * An {@link StoryAdapter} knows how to create a list item layout for each story
  * in the data source (a list of {@link Story} objects).
  *
- * These list item layouts will be provided to an adapter view like ListView
- * to be displayed to the user.
+ * These list item layouts are bound to a RecyclerView. Item IDs are stable and derived
+ * from the story's web URL, and replacing the list computes a diff on a background
+ * thread, so only the rows that were inserted, removed or changed get rebound.
+ * The loaded stories are shown straight from their {@link StoryWindow} instead: a row
+ * whose story is still being read back from the window's spill file is bound empty,
+ * and bound again once the story is loaded. A refreshed first page is diffed against
+ * the one it replaces, so the rows after it only need removing.
+ * Thumbnails are loaded in the background by a {@link ThumbnailLoader}, and the
+ * request of a row is dropped as soon as the row is recycled. Title layouts and dates
+ * are built by {@link StoryTextLayouts} on a background thread for the rows ahead of
+ * the ones being bound.
  */
-public class StoryAdapter extends ArrayAdapter<Story> {
+public class StoryAdapter extends RecyclerView.Adapter<StoryAdapter.ViewHolder> {
 
-    public StoryAdapter(Context context, List<Story> stories) {
-        super(context, 0, stories);
+    /**
+     * Interface definition for a callback invoked when a story row is clicked.
+     */
+    public interface OnStoryClickListener {
+        void onStoryClick(Story story);
+    }
+
+    /** Number of rows ahead of the one being bound whose titles are built in advance */
+    private static final int PRECOMPUTE_AHEAD = 50;
+
+    /** Time spent binding a row */
+    private static final Metrics.Histogram BIND_TIME = Metrics.histogram("bind_us");
+
+    private final OnStoryClickListener mListener;
+
+    private final ThumbnailLoader mThumbnailLoader;
+
+    private final StoryTextLayouts mTextLayouts;
+
+    /** Stories currently bound to the list */
+    private List<Story> mStories = new ArrayList<>();
+
+    /** Incremented for every replacement, so only the newest diff is applied */
+    private int mGeneration;
+
+    /** End of the rows whose titles have been handed to {@link #mTextLayouts} */
+    private int mPrecomputedEnd;
+
+    /** Binds again the rows of stories read back by the window shown, if any */
+    private final StoryWindow.OnStoriesLoadedListener mStoriesLoadedListener =
+            new StoryWindow.OnStoriesLoadedListener() {
+                @Override
+                public void onStoriesLoaded(int start, int count) {
+                    // Their titles were skipped while they were missing
+                    mPrecomputedEnd = Math.min(mPrecomputedEnd, start);
+                    notifyItemRangeChanged(start, count);
+                }
+            };
+
+    public StoryAdapter(OnStoryClickListener listener, ThumbnailLoader thumbnailLoader,
+                        StoryTextLayouts textLayouts) {
+        mListener = listener;
+        mThumbnailLoader = thumbnailLoader;
+        mTextLayouts = textLayouts;
+        setHasStableIds(true);
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View listItemView = LayoutInflater.from(parent.getContext()).inflate(
+                R.layout.story_list_item, parent, false);
+        return new ViewHolder(listItemView);
     }
 
     /**
-     * Returns a list item view that displays information about the story at the given position
-     * in the list of stories.
+     * Displays information about the story at the given position in the list of stories.
      */
     @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-        // Check if there is an existing list item view (called convertView) that we can reuse,
-        // otherwise, if convertView is null, then inflate a new list item layout.
-        View listItemView = convertView;
-        if (listItemView == null) {
-            listItemView = LayoutInflater.from(getContext()).inflate(
-                    R.layout.story_list_item, parent, false);
-        }
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        long bindStart = Metrics.beginSpan("bind");
 
         // Find the story at the given position in the list of stories
-        Story currentStory = getItem(position);
+        Story currentStory = mStories.get(position);
+        if (currentStory == null) {
+            // Still being read back from the window, which binds the row again once it is
+            bindPlaceholder(holder);
+            Metrics.endSpan(BIND_TIME, bindStart);
+            return;
+        }
+
+        holder.sectionView.setText(currentStory.getSection());
+        holder.authorView.setText(currentStory.getAuthor());
+        holder.titleView.setText(currentStory.getTitle());
+        holder.dateView.setText(currentStory.getFormattedDate());
+        mThumbnailLoader.load(currentStory.getThumbnail(), holder.thumbnailView);
+        precomputeAhead(position);
+
+        Metrics.endSpan(BIND_TIME, bindStart);
+    }
+
+    /**
+     * Leaves the row empty while its story is being loaded.
+     */
+    private void bindPlaceholder(ViewHolder holder) {
+        holder.sectionView.setText(null);
+        holder.authorView.setText(null);
+        holder.titleView.setText(null);
+        holder.dateView.setText(null);
+        mThumbnailLoader.cancel(holder.thumbnailView);
+        holder.thumbnailView.setImageDrawable(null);
+    }
+
+    /**
+     * Drops the thumbnail request of a row that has scrolled out of view.
+     */
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        mThumbnailLoader.cancel(holder.thumbnailView);
+        holder.thumbnailView.setImageDrawable(null);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mStories.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        if (mStories instanceof StoryWindow) {
+            // Known even while the story is being read back
+            return ((StoryWindow) mStories).getId(position);
+        }
+        return urlId(mStories.get(position).getUrl());
+    }
+
+    /**
+     * Returns the story at the given position, or null while it is being read back
+     * from the window shown.
+     */
+    public Story getItem(int position) {
+        return mStories.get(position);
+    }
+
+    public boolean isEmpty() {
+        return mStories.isEmpty();
+    }
+
+    /**
+     * Show the given list as it is, without diffing it against the current one. This is
+     * used for the {@link StoryWindow} of the loaded stories, which is too large to diff
+     * and changes on the main thread; the caller reports its changes to the adapter.
+     */
+    public void setStories(List<Story> stories) {
+        mGeneration++;
+        show(stories);
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Show the given first page of the window set with {@link #setStories}, which the
+     * window has just been refilled with. Only the rows changed by the first page are
+     * updated, and the rows after it removed. If another list is shown, the window is
+     * set as it is.
+     */
+    public void replaceFirstPage(StoryWindow stories, StoryLoader.FirstPageChange change) {
+        if (mStories != stories) {
+            setStories(stories);
+            return;
+        }
+        mGeneration++;
+        mPrecomputedEnd = 0;
+        int removed = change.getOldCount() - change.getOldFirstPageSize();
+        if (removed > 0) {
+            notifyItemRangeRemoved(change.getOldFirstPageSize(), removed);
+        }
+        change.getDiff().dispatchUpdatesTo(this);
+    }
+
+    /**
+     * Show the given number of stories just appended to the list set with
+     * {@link #setStories}.
+     */
+    public void notifyStoriesAppended(int count) {
+        if (count > 0) {
+            notifyItemRangeInserted(mStories.size() - count, count);
+        }
+    }
+
+    /**
+     * Replace the list with the given stories. The difference to the current list is
+     * computed on a background thread and only the affected rows are updated.
+     * The adapter keeps the given list, so the caller must not modify it afterwards.
+     */
+    public void replaceAll(final List<Story> stories) {
+        if (mStories instanceof StoryWindow) {
+            // The window may change while a diff runs, so it is replaced without one
+            setStories(stories);
+            return;
+        }
+        final List<Story> oldStories = mStories;
+        final int generation = ++mGeneration;
+
+        new AsyncTask<Void, Void, DiffUtil.DiffResult>() {
+            @Override
+            protected DiffUtil.DiffResult doInBackground(Void... voids) {
+                return DiffUtil.calculateDiff(new StoryDiffCallback(oldStories, stories));
+            }
+
+            @Override
+            protected void onPostExecute(DiffUtil.DiffResult diffResult) {
+                // Drop the result if a newer replacement has started in the meantime
+                if (generation != mGeneration) {
+                    return;
+                }
+                show(stories);
+                diffResult.dispatchUpdatesTo(StoryAdapter.this);
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
 
-        TextView sectionView = (TextView) listItemView.findViewById(R.id.section_name);
-        sectionView.setText(currentStory.getSection());
+    /**
+     * Remove every story from the list.
+     */
+    public void clear() {
+        mGeneration++;
+        int count = mStories.size();
+        show(new ArrayList<Story>());
+        notifyItemRangeRemoved(0, count);
+    }
 
-        TextView authorView = (TextView) listItemView.findViewById(R.id.author_name);
-        authorView.setText(currentStory.getAuthor());
+    /**
+     * Stop listening to the window shown, if any, once the list is gone.
+     */
+    public void release() {
+        if (mStories instanceof StoryWindow) {
+            ((StoryWindow) mStories).setOnStoriesLoadedListener(null);
+        }
+    }
 
-        TextView titleView = (TextView) listItemView.findViewById(R.id.story_title);
-        titleView.setText(currentStory.getTitle());
+    /**
+     * Bind the given list, listening to it if it is a window. The caller notifies the
+     * change.
+     */
+    private void show(List<Story> stories) {
+        release();
+        mStories = stories;
+        mPrecomputedEnd = 0;
+        if (stories instanceof StoryWindow) {
+            ((StoryWindow) stories).setOnStoriesLoadedListener(mStoriesLoadedListener);
+        }
+    }
 
-        TextView dateView = (TextView) listItemView.findViewById(R.id.story_date);
-        String formattedDate = formatDate(currentStory.getDate());
-        dateView.setText(formattedDate);
+    /**
+     * Have the titles of the rows after the given one built in the background, once the
+     * rows built so far are half used up. Rows scrolled back to are mostly still cached.
+     */
+    private void precomputeAhead(int position) {
+        if (position + PRECOMPUTE_AHEAD / 2 < mPrecomputedEnd) {
+            return;
+        }
+        int start = Math.max(position + 1, mPrecomputedEnd);
+        int end = Math.min(mStories.size(), position + 1 + PRECOMPUTE_AHEAD);
+        if (start < end && mTextLayouts.precompute(mStories.subList(start, end))) {
+            mPrecomputedEnd = end;
+        }
+    }
 
-        // Return the list item view that is now showing the appropriate data
-        return listItemView;
+    /**
+     * Returns a stable ID for the given web URL, a 64-bit FNV-1a hash of its characters.
+     */
+    static long urlId(String url) {
+        return Story.hash(url);
     }
 
     /**
-     * Return the formatted date string.
+     * Caches the views of a story row, so they are looked up only once.
      */
-    private String formatDate(String date) {
-        String unformattedDate = date;
-        String subDate = unformattedDate.substring(0,10);
-        String subTime = unformattedDate.substring(11,19);
-        return subDate + "  " + subTime;
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        final TextView sectionView;
+        final TextView authorView;
+        final StoryTitleView titleView;
+        final TextView dateView;
+        final ImageView thumbnailView;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            sectionView = (TextView) itemView.findViewById(R.id.section_name);
+            authorView = (TextView) itemView.findViewById(R.id.author_name);
+            titleView = (StoryTitleView) itemView.findViewById(R.id.story_title);
+            titleView.setTextLayouts(mTextLayouts);
+            dateView = (TextView) itemView.findViewById(R.id.story_date);
+            thumbnailView = (ImageView) itemView.findViewById(R.id.thumbnail);
+            itemView.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION || mListener == null) {
+                return;
+            }
+            Story story = mStories.get(position);
+            if (story != null) {
+                mListener.onStoryClick(story);
+            }
+        }
     }
 
+    /**
+     * Compares two lists of stories for {@link DiffUtil}. Stories are the same item
+     * when they share a web URL, and have the same contents when their content hashes,
+     * taken over everything shown in their row, are equal.
+     */
+    static class StoryDiffCallback extends DiffUtil.Callback {
+
+        private final List<Story> oldStories;
+        private final List<Story> newStories;
+
+        StoryDiffCallback(List<Story> oldStories, List<Story> newStories) {
+            this.oldStories = oldStories;
+            this.newStories = newStories;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldStories.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newStories.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return equal(oldStories.get(oldItemPosition).getUrl(),
+                    newStories.get(newItemPosition).getUrl());
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldStories.get(oldItemPosition).getContentHash()
+                    == newStories.get(newItemPosition).getContentHash();
+        }
+
+        private static boolean equal(String first, String second) {
+            return first == null ? second == null : first.equals(second);
+        }
+    }
 }
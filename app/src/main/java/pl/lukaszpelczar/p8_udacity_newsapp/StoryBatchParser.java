@@ -0,0 +1,244 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Parses large Guardian responses on several cores at once.
+ *
+ * A quick scan over the raw bytes finds where every element of the results array ends,
+ * without decoding anything. The array is then cut into one run of stories per thread,
+ * each run is parsed by its own {@link android.util.JsonReader}, and the stories are
+ * put back together in their original order.
+ */
+public final class StoryBatchParser {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = StoryBatchParser.class.getSimpleName();
+
+    /** Size in bytes from which a response is parsed in parallel */
+    public static final long MIN_PARALLEL_SIZE = 128 * 1024;
+
+    /** Upper bound of the parsing threads; beyond the big cores of a phone they only contend */
+    private static final int MAX_PARSE_THREADS = 4;
+
+    /** Fewest stories worth handing to a thread of their own */
+    private static final int MIN_STORIES_PER_CHUNK = 16;
+
+    private static final int PARSE_THREADS =
+            Math.max(1, Math.min(MAX_PARSE_THREADS, Runtime.getRuntime().availableProcessors()));
+
+    private static final ExecutorService sExecutor = Executors.newFixedThreadPool(PARSE_THREADS);
+
+    /** Key of the results array within the response object */
+    private static final byte[] RESULTS_KEY = {'r', 'e', 's', 'u', 'l', 't', 's'};
+
+    private static final byte[] ARRAY_START = {'['};
+    private static final byte[] ARRAY_END = {']'};
+
+    /** Responses split into chunks, and responses parsed on one thread */
+    private static final Metrics.Counter PARALLEL_PARSES = Metrics.counter("parses_parallel");
+    private static final Metrics.Counter SEQUENTIAL_PARSES = Metrics.counter("parses_sequential");
+
+    /**
+     * Create a private constructor because no one should ever create a {@link StoryBatchParser}
+     * object. This class is only meant to hold static methods.
+     */
+    private StoryBatchParser() {
+    }
+
+    /**
+     * Return the {@link StoryPage} held by the given response body, parsed on the shared
+     * pool of parsing threads.
+     */
+    public static StoryPage parse(byte[] body) throws IOException {
+        return parse(body, sExecutor, PARSE_THREADS);
+    }
+
+    /**
+     * Return the {@link StoryPage} held by the given response body, cut into at most the
+     * given number of chunks that are parsed on the given executor. The calling thread
+     * parses the first chunk itself. A body that is malformed, or too small to be worth
+     * splitting, is parsed on the calling thread alone.
+     */
+    static StoryPage parse(final byte[] body, ExecutorService executor, int chunks)
+            throws IOException {
+        int[] bounds = chunks < 2 ? null : splitResults(body);
+        int elements = bounds == null ? 0 : bounds.length - 1;
+        chunks = Math.min(chunks, elements / MIN_STORIES_PER_CHUNK);
+        if (chunks < 2) {
+            SEQUENTIAL_PARSES.increment();
+            return QueryUtils.extractFeatureFromStream(new ByteArrayInputStream(body), body.length);
+        }
+        PARALLEL_PARSES.increment();
+
+        // Hand every chunk but the first to the pool
+        List<Future<List<Story>>> futures = new ArrayList<>(chunks - 1);
+        for (int i = 1; i < chunks; i++) {
+            final int start = bounds[elements * i / chunks] + 1;
+            final int end = bounds[elements * (i + 1) / chunks];
+            futures.add(executor.submit(new Callable<List<Story>>() {
+                @Override
+                public List<Story> call() throws IOException {
+                    return QueryUtils.extractStoriesFromStream(arrayStream(body, start, end),
+                            end - start + 2);
+                }
+            }));
+        }
+
+        try {
+            int firstEnd = bounds[elements / chunks];
+            List<Story> stories = new ArrayList<>(elements);
+            stories.addAll(QueryUtils.extractStoriesFromStream(
+                    arrayStream(body, bounds[0] + 1, firstEnd), firstEnd - bounds[0] + 1));
+            for (Future<List<Story>> future : futures) {
+                stories.addAll(future.get());
+            }
+
+            // The rest of the response, with an empty results array, gives the paging
+            int close = bounds[elements];
+            InputStream envelope = new SequenceInputStream(
+                    new ByteArrayInputStream(body, 0, bounds[0] + 1),
+                    new ByteArrayInputStream(body, close, body.length - close));
+            StoryPage paging = QueryUtils.extractFeatureFromStream(envelope,
+                    bounds[0] + 1 + body.length - close);
+            return new StoryPage(stories, paging.getCurrentPage(), paging.getPages());
+        } catch (ExecutionException | IOException | RuntimeException e) {
+            // Fall back to the sequential parse, which keeps the stories read
+            // before a malformed part of the response
+            Log.w(LOG_TAG, "Problem parsing the stories in parallel", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Future<List<Story>> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return QueryUtils.extractFeatureFromStream(new ByteArrayInputStream(body), body.length);
+    }
+
+    /**
+     * Returns a stream of the given range of the body enclosed in square brackets.
+     */
+    private static InputStream arrayStream(byte[] body, int start, int end) {
+        return new SequenceInputStream(
+                new SequenceInputStream(new ByteArrayInputStream(ARRAY_START),
+                        new ByteArrayInputStream(body, start, end - start)),
+                new ByteArrayInputStream(ARRAY_END));
+    }
+
+    /**
+     * Returns the offsets in the given body of the opening bracket of the results array,
+     * of the comma after each of its elements but the last, and of its closing bracket.
+     * Returns null if there is no results array two levels deep, or if the body ends
+     * before it does. An empty array has no elements to split, so it also gives null.
+     *
+     * Only the brackets, braces, commas and quotes are looked at. Every byte of a
+     * multi-byte UTF-8 character is at least 0x80, so none of them is mistaken for one.
+     */
+    static int[] splitResults(byte[] body) {
+        int depth = 0;
+        int arrayDepth = -1;
+        boolean afterResultsKey = false;
+        boolean empty = true;
+        int[] bounds = new int[64];
+        int count = 0;
+
+        for (int i = 0; i < body.length; i++) {
+            byte b = body[i];
+            switch (b) {
+                case '"':
+                    int start = i + 1;
+                    i = skipString(body, start);
+                    if (depth == 2 && arrayDepth < 0) {
+                        afterResultsKey = rangeEquals(body, start, i, RESULTS_KEY);
+                    }
+                    empty = false;
+                    break;
+                case '{':
+                case '[':
+                    depth++;
+                    if (b == '[' && depth == 3 && afterResultsKey && arrayDepth < 0) {
+                        arrayDepth = depth;
+                        bounds[count++] = i;
+                        empty = true;
+                    } else {
+                        empty = false;
+                    }
+                    break;
+                case '}':
+                case ']':
+                    if (depth == arrayDepth) {
+                        if (empty) {
+                            return null;
+                        }
+                        if (count == bounds.length) {
+                            bounds = Arrays.copyOf(bounds, count + 1);
+                        }
+                        bounds[count++] = i;
+                        return Arrays.copyOf(bounds, count);
+                    }
+                    depth--;
+                    break;
+                case ',':
+                    if (depth == arrayDepth) {
+                        if (count == bounds.length) {
+                            bounds = Arrays.copyOf(bounds, count * 2);
+                        }
+                        bounds[count++] = i;
+                    } else if (depth == 2) {
+                        afterResultsKey = false;
+                    }
+                    break;
+                case ' ':
+                case '\t':
+                case '\n':
+                case '\r':
+                    break;
+                default:
+                    empty = false;
+                    break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the offset of the quote closing the string that starts at the given offset,
+     * or the length of the body if the string is not closed.
+     */
+    private static int skipString(byte[] body, int start) {
+        for (int i = start; i < body.length; i++) {
+            if (body[i] == '\\') {
+                i++;
+            } else if (body[i] == '"') {
+                return i;
+            }
+        }
+        return body.length;
+    }
+
+    private static boolean rangeEquals(byte[] body, int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (body[start + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
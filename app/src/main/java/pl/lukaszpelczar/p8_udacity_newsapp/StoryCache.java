@@ -0,0 +1,402 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent cache of parsed {@link StoryPage}s, keyed by the request URL they were
+ * loaded from. Each page is stored together with the HTTP cache information of the
+ * response, so callers can decide whether it is still fresh.
+ *
+ * Every story stored also goes into a full-text search index, see {@link StorySearch},
+ * so the stories seen so far can be searched without a network request.
+ */
+public class StoryCache {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = StoryCache.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "stories.db";
+    private static final int DATABASE_VERSION = 5;
+
+    /** Table holding one row per cached page */
+    private static final String TABLE_PAGES = "pages";
+    /** Table holding the stories of every cached page */
+    private static final String TABLE_STORIES = "stories";
+
+    private static final String COLUMN_REQUEST_URL = "request_url";
+    private static final String COLUMN_CURRENT_PAGE = "current_page";
+    private static final String COLUMN_PAGES = "pages";
+    private static final String COLUMN_ETAG = "etag";
+    private static final String COLUMN_LAST_MODIFIED = "last_modified";
+    private static final String COLUMN_MAX_AGE = "max_age";
+    private static final String COLUMN_FETCHED_AT = "fetched_at";
+    private static final String COLUMN_POSITION = "position";
+    private static final String COLUMN_PUBLISHED_AT = "published_at";
+    private static final String COLUMN_TITLE = "title";
+    private static final String COLUMN_SECTION = "section";
+    private static final String COLUMN_WEB_URL = "web_url";
+    private static final String COLUMN_AUTHOR = "author";
+    private static final String COLUMN_THUMBNAIL = "thumbnail";
+
+    /** Time spent answering a search */
+    private static final Metrics.Histogram SEARCH_TIME = Metrics.histogram("search_us");
+
+    private static StoryCache sInstance;
+
+    private final DbHelper mDbHelper;
+
+    private StoryCache(Context context) {
+        mDbHelper = new DbHelper(context);
+    }
+
+    /**
+     * Returns the process-wide {@link StoryCache}.
+     */
+    public static synchronized StoryCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new StoryCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the page cached for the given request URL, or null if there is none.
+     */
+    public StoryPage get(String requestUrl) {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        String[] selectionArgs = {requestUrl};
+
+        Cursor pageCursor = db.query(TABLE_PAGES, null, COLUMN_REQUEST_URL + "=?",
+                selectionArgs, null, null, null);
+        try {
+            if (!pageCursor.moveToFirst()) {
+                return null;
+            }
+
+            // Share one instance of every repeated section and author name
+            Map<String, String> names = new HashMap<>();
+            List<Story> stories = new ArrayList<>();
+            Cursor storyCursor = db.query(TABLE_STORIES, null, COLUMN_REQUEST_URL + "=?",
+                    selectionArgs, null, null, COLUMN_POSITION);
+            try {
+                int publishedAtIndex = storyCursor.getColumnIndex(COLUMN_PUBLISHED_AT);
+                int titleIndex = storyCursor.getColumnIndex(COLUMN_TITLE);
+                int sectionIndex = storyCursor.getColumnIndex(COLUMN_SECTION);
+                int urlIndex = storyCursor.getColumnIndex(COLUMN_WEB_URL);
+                int authorIndex = storyCursor.getColumnIndex(COLUMN_AUTHOR);
+                int thumbnailIndex = storyCursor.getColumnIndex(COLUMN_THUMBNAIL);
+                while (storyCursor.moveToNext()) {
+                    stories.add(new Story(
+                            storyCursor.getLong(publishedAtIndex),
+                            storyCursor.getString(titleIndex),
+                            QueryUtils.dedupe(names, storyCursor.getString(sectionIndex)),
+                            storyCursor.getString(urlIndex),
+                            QueryUtils.dedupe(names, storyCursor.getString(authorIndex)),
+                            storyCursor.getString(thumbnailIndex)));
+                }
+            } finally {
+                storyCursor.close();
+            }
+
+            StoryPage page = new StoryPage(stories,
+                    pageCursor.getInt(pageCursor.getColumnIndex(COLUMN_CURRENT_PAGE)),
+                    pageCursor.getInt(pageCursor.getColumnIndex(COLUMN_PAGES)));
+            page.setCacheInfo(
+                    pageCursor.getString(pageCursor.getColumnIndex(COLUMN_ETAG)),
+                    pageCursor.getString(pageCursor.getColumnIndex(COLUMN_LAST_MODIFIED)),
+                    pageCursor.getLong(pageCursor.getColumnIndex(COLUMN_MAX_AGE)),
+                    pageCursor.getLong(pageCursor.getColumnIndex(COLUMN_FETCHED_AT)));
+            page.setFromCache(true);
+            return page;
+        } finally {
+            pageCursor.close();
+        }
+    }
+
+    /**
+     * Stores the given page under the given request URL, replacing the previous entry.
+     * Only the stories the given changes hold as added or changed are indexed for search;
+     * the others were indexed when they were first seen.
+     */
+    public void put(String requestUrl, StoryPage page, StoryIdentityMap.Changes changes) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        String[] whereArgs = {requestUrl};
+
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_STORIES, COLUMN_REQUEST_URL + "=?", whereArgs);
+
+            ContentValues pageValues = new ContentValues();
+            pageValues.put(COLUMN_REQUEST_URL, requestUrl);
+            pageValues.put(COLUMN_CURRENT_PAGE, page.getCurrentPage());
+            pageValues.put(COLUMN_PAGES, page.getPages());
+            putCacheInfo(pageValues, page);
+            db.insertWithOnConflict(TABLE_PAGES, null, pageValues,
+                    SQLiteDatabase.CONFLICT_REPLACE);
+
+            List<Story> stories = page.getStories();
+            ContentValues storyValues = new ContentValues();
+            for (int i = 0; i < stories.size(); i++) {
+                Story story = stories.get(i);
+                storyValues.clear();
+                storyValues.put(COLUMN_REQUEST_URL, requestUrl);
+                storyValues.put(COLUMN_POSITION, i);
+                storyValues.put(COLUMN_PUBLISHED_AT, story.getPublishedAt());
+                storyValues.put(COLUMN_TITLE, story.getTitle());
+                storyValues.put(COLUMN_SECTION, story.getSection());
+                storyValues.put(COLUMN_WEB_URL, story.getUrl());
+                storyValues.put(COLUMN_AUTHOR, story.getAuthor());
+                storyValues.put(COLUMN_THUMBNAIL, story.getThumbnail());
+                db.insert(TABLE_STORIES, null, storyValues);
+            }
+
+            if (!changes.isEmpty()) {
+                unindex(db, changes.getChanged());
+                List<Story> modified = new ArrayList<>(changes.getAdded());
+                modified.addAll(changes.getChanged());
+                index(db, modified);
+            }
+            db.setTransactionSuccessful();
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Problem caching the stories for " + requestUrl, e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Updates only the HTTP cache information of the page stored under the given
+     * request URL, leaving its stories untouched. Used after a 304 Not Modified.
+     */
+    public void updateCacheInfo(String requestUrl, StoryPage page) {
+        ContentValues pageValues = new ContentValues();
+        putCacheInfo(pageValues, page);
+        try {
+            mDbHelper.getWritableDatabase().update(TABLE_PAGES, pageValues,
+                    COLUMN_REQUEST_URL + "=?", new String[]{requestUrl});
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Problem updating the cache entry for " + requestUrl, e);
+        }
+    }
+
+    /**
+     * Returns the indexed stories whose title, section or author match the given text,
+     * newest first and at most the given number. Every word of the text is matched as
+     * a prefix, see {@link StorySearch#matchQuery}.
+     */
+    public List<Story> search(String text, int limit) {
+        List<Story> stories = new ArrayList<>();
+        String matchQuery = StorySearch.matchQuery(text);
+        if (matchQuery == null) {
+            return stories;
+        }
+
+        long searchStart = Metrics.beginSpan("search");
+        Map<String, String> names = new HashMap<>();
+        Cursor cursor = null;
+        try {
+            cursor = mDbHelper.getReadableDatabase().rawQuery(StorySearch.SEARCH,
+                    new String[]{matchQuery, String.valueOf(limit)});
+            while (cursor.moveToNext()) {
+                stories.add(new Story(cursor.getLong(0), cursor.getString(1),
+                        QueryUtils.dedupe(names, cursor.getString(2)), cursor.getString(3),
+                        QueryUtils.dedupe(names, cursor.getString(4)), cursor.getString(5)));
+            }
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Problem searching for " + text, e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            Metrics.endSpan(SEARCH_TIME, searchStart);
+        }
+        return stories;
+    }
+
+    /**
+     * Add the given stories to the search index within the current transaction, then
+     * evict the oldest indexed stories if there are more than
+     * {@link StorySearch#MAX_INDEXED_STORIES}.
+     * Row IDs are taken from the publication time, see {@link StorySearch#firstId}.
+     *
+     * A story whose web URL is indexed already is left alone, unless it is indexed with
+     * other contents: the {@link StoryIdentityMap} only lives as long as the process, so
+     * after a restart a story edited since it was indexed is counted as added, not changed.
+     */
+    private static void index(SQLiteDatabase db, List<Story> stories) {
+        SQLiteStatement nextId = db.compileStatement(StorySearch.NEXT_ID);
+        SQLiteStatement insertStory = db.compileStatement(StorySearch.INSERT_STORY);
+        SQLiteStatement insertIndex = db.compileStatement(StorySearch.INSERT_INDEX);
+        SQLiteStatement findStaleId = db.compileStatement(StorySearch.FIND_STALE_ID);
+        SQLiteStatement removeIndex = db.compileStatement(StorySearch.REMOVE_INDEX);
+        SQLiteStatement removeStory = db.compileStatement(StorySearch.REMOVE_STORY);
+        try {
+            for (Story story : stories) {
+                long firstId = StorySearch.firstId(story.getPublishedAt());
+                nextId.bindLong(1, firstId);
+                nextId.bindLong(2, firstId);
+                nextId.bindLong(3, firstId + StorySearch.IDS_PER_SECOND - 1);
+                long id = nextId.simpleQueryForLong();
+                if (id >= firstId + StorySearch.IDS_PER_SECOND) {
+                    // Every ID of that second is taken
+                    continue;
+                }
+
+                insertStory.bindLong(1, id);
+                insertStory.bindString(2, story.getUrl());
+                insertStory.bindLong(3, story.getPublishedAt());
+                bindText(insertStory, 4, story.getTitle());
+                bindText(insertStory, 5, story.getSection());
+                bindText(insertStory, 6, story.getAuthor());
+                bindText(insertStory, 7, story.getThumbnail());
+                if (insertStory.executeInsert() == -1) {
+                    // Already indexed; replaced if its contents differ
+                    findStaleId.bindString(1, story.getUrl());
+                    findStaleId.bindLong(2, story.getPublishedAt());
+                    bindText(findStaleId, 3, story.getTitle());
+                    bindText(findStaleId, 4, story.getSection());
+                    bindText(findStaleId, 5, story.getAuthor());
+                    bindText(findStaleId, 6, story.getThumbnail());
+                    long staleId;
+                    try {
+                        staleId = findStaleId.simpleQueryForLong();
+                    } catch (SQLiteDoneException e) {
+                        continue;
+                    }
+                    removeIndex.bindLong(1, staleId);
+                    removeIndex.executeUpdateDelete();
+                    removeStory.bindLong(1, staleId);
+                    removeStory.executeUpdateDelete();
+                    // Removing a story frees IDs, so the one taken above is still free
+                    if (insertStory.executeInsert() == -1) {
+                        continue;
+                    }
+                }
+
+                insertIndex.bindLong(1, id);
+                bindText(insertIndex, 2, story.getTitle());
+                bindText(insertIndex, 3, story.getSection());
+                bindText(insertIndex, 4, story.getAuthor());
+                insertIndex.executeInsert();
+            }
+        } finally {
+            nextId.close();
+            insertStory.close();
+            insertIndex.close();
+            findStaleId.close();
+            removeIndex.close();
+            removeStory.close();
+        }
+
+        if (DatabaseUtils.longForQuery(db, StorySearch.COUNT_STORIES, null)
+                > StorySearch.MAX_INDEXED_STORIES) {
+            long threshold = DatabaseUtils.longForQuery(db, StorySearch.EVICTION_THRESHOLD,
+                    new String[]{String.valueOf(StorySearch.STORIES_KEPT_ON_EVICTION)});
+            Object[] evicted = {threshold};
+            db.execSQL(StorySearch.EVICT_INDEX, evicted);
+            db.execSQL(StorySearch.EVICT_STORIES, evicted);
+        }
+    }
+
+    /**
+     * Remove the given stories from the search index within the current transaction,
+     * so their new contents can be indexed.
+     */
+    private static void unindex(SQLiteDatabase db, List<Story> stories) {
+        SQLiteStatement findId = db.compileStatement(StorySearch.FIND_ID);
+        SQLiteStatement removeIndex = db.compileStatement(StorySearch.REMOVE_INDEX);
+        SQLiteStatement removeStory = db.compileStatement(StorySearch.REMOVE_STORY);
+        try {
+            for (Story story : stories) {
+                findId.bindString(1, story.getUrl());
+                long id;
+                try {
+                    id = findId.simpleQueryForLong();
+                } catch (SQLiteDoneException e) {
+                    // Not indexed, or evicted
+                    continue;
+                }
+                removeIndex.bindLong(1, id);
+                removeIndex.executeUpdateDelete();
+                removeStory.bindLong(1, id);
+                removeStory.executeUpdateDelete();
+            }
+        } finally {
+            findId.close();
+            removeIndex.close();
+            removeStory.close();
+        }
+    }
+
+    private static void bindText(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private static void putCacheInfo(ContentValues values, StoryPage page) {
+        values.put(COLUMN_ETAG, page.getEtag());
+        values.put(COLUMN_LAST_MODIFIED, page.getLastModified());
+        values.put(COLUMN_MAX_AGE, page.getMaxAge());
+        values.put(COLUMN_FETCHED_AT, page.getFetchedAt());
+    }
+
+    /**
+     * Creates and upgrades the cache database.
+     */
+    private static class DbHelper extends SQLiteOpenHelper {
+
+        DbHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_PAGES + " ("
+                    + COLUMN_REQUEST_URL + " TEXT PRIMARY KEY, "
+                    + COLUMN_CURRENT_PAGE + " INTEGER NOT NULL, "
+                    + COLUMN_PAGES + " INTEGER NOT NULL, "
+                    + COLUMN_ETAG + " TEXT, "
+                    + COLUMN_LAST_MODIFIED + " TEXT, "
+                    + COLUMN_MAX_AGE + " INTEGER NOT NULL, "
+                    + COLUMN_FETCHED_AT + " INTEGER NOT NULL)");
+            db.execSQL("CREATE TABLE " + TABLE_STORIES + " ("
+                    + COLUMN_REQUEST_URL + " TEXT NOT NULL, "
+                    + COLUMN_POSITION + " INTEGER NOT NULL, "
+                    + COLUMN_PUBLISHED_AT + " INTEGER NOT NULL, "
+                    + COLUMN_TITLE + " TEXT, "
+                    + COLUMN_SECTION + " TEXT, "
+                    + COLUMN_WEB_URL + " TEXT, "
+                    + COLUMN_AUTHOR + " TEXT, "
+                    + COLUMN_THUMBNAIL + " TEXT, "
+                    + "PRIMARY KEY (" + COLUMN_REQUEST_URL + ", " + COLUMN_POSITION + "))");
+            db.execSQL(StorySearch.CREATE_STORIES);
+            db.execSQL(StorySearch.CREATE_INDEX);
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // The cache can always be rebuilt from the network, so just start over.
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_STORIES);
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_PAGES);
+            db.execSQL("DROP TABLE IF EXISTS " + StorySearch.TABLE_INDEX);
+            db.execSQL("DROP TABLE IF EXISTS " + StorySearch.TABLE_STORIES);
+            onCreate(db);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of a {@link StoryPage}, used to keep the stories loaded so far
+ * across process death without fetching and parsing them again.
+ *
+ * The encoding starts with a magic number and a schema version, followed by the paging
+ * and fetch time of the page. Section and author names repeat across stories, so each
+ * distinct name is written once to a string table and stories refer to it by index.
+ * Publication times are written as the difference to the previous story, which is small
+ * because stories are sorted by time. Every integer is a varint, and every string is its
+ * UTF-8 length plus one, with 0 standing for null, followed by its bytes.
+ *
+ * Decoding reads from any {@link ByteBuffer}, so a file can be decoded straight from
+ * a memory mapping without reading it onto the heap first.
+ */
+public final class StoryCodec {
+
+    /** "STRY" */
+    private static final int MAGIC = 0x53545259;
+
+    /** Version of the schema written by {@link #encode} */
+    static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Size of the array strings are decoded through; longer strings get their own */
+    private static final int SCRATCH_SIZE = 1024;
+
+    /**
+     * Create a private constructor because no one should ever create a {@link StoryCodec}
+     * object. This class is only meant to hold static methods.
+     */
+    private StoryCodec() {
+    }
+
+    /**
+     * Returns the encoding of the stories, paging and fetch time of the given page.
+     */
+    public static byte[] encode(StoryPage page) {
+        List<Story> stories = page.getStories();
+
+        // Give every distinct section and author name an index in the string table
+        Map<String, Integer> indexes = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        for (Story story : stories) {
+            addString(indexes, strings, story.getSection());
+            addString(indexes, strings, story.getAuthor());
+        }
+
+        Writer writer = new Writer(64 + stories.size() * 160);
+        writer.writeInt(MAGIC);
+        writer.writeVarint(VERSION);
+        writer.writeVarint(page.getCurrentPage());
+        writer.writeVarint(page.getPages());
+        writer.writeVarint(page.getFetchedAt());
+
+        writer.writeVarint(strings.size());
+        for (String string : strings) {
+            writer.writeString(string);
+        }
+
+        writer.writeVarint(stories.size());
+        long previousTime = 0;
+        for (Story story : stories) {
+            long delta = story.getPublishedAt() - previousTime;
+            writer.writeVarint((delta << 1) ^ (delta >> 63));
+            previousTime = story.getPublishedAt();
+            writer.writeString(story.getTitle());
+            writer.writeVarint(reference(indexes, story.getSection()));
+            writer.writeString(story.getUrl());
+            writer.writeVarint(reference(indexes, story.getAuthor()));
+            writer.writeString(story.getThumbnail());
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Returns the page encoded in the given buffer, from its position on. The page has
+     * no HTTP validators, and its fetch time is the one of the encoded page.
+     *
+     * @throws IOException if the buffer does not hold a page in a supported version
+     */
+    public static StoryPage decode(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not an encoded story page");
+            }
+            int version = (int) readVarint(buffer);
+            if (version > VERSION) {
+                throw new IOException("Unsupported story page version " + version);
+            }
+            int currentPage = (int) readVarint(buffer);
+            int pages = (int) readVarint(buffer);
+            long fetchedAt = readVarint(buffer);
+
+            // Strings are decoded through one scratch array, so the buffer is never copied whole
+            byte[] scratch = new byte[SCRATCH_SIZE];
+            String[] strings = new String[checkCount(buffer, readVarint(buffer))];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = readString(buffer, scratch);
+            }
+
+            int count = checkCount(buffer, readVarint(buffer));
+            List<Story> stories = new ArrayList<>(count);
+            long publishedAt = 0;
+            for (int i = 0; i < count; i++) {
+                long zigzag = readVarint(buffer);
+                publishedAt += (zigzag >>> 1) ^ -(zigzag & 1);
+                String title = readString(buffer, scratch);
+                String section = dereference(strings, readVarint(buffer));
+                String url = readString(buffer, scratch);
+                String author = dereference(strings, readVarint(buffer));
+                String thumbnail = readString(buffer, scratch);
+                stories.add(new Story(publishedAt, title, section, url, author, thumbnail));
+            }
+
+            StoryPage page = new StoryPage(stories, currentPage, pages);
+            page.setCacheInfo(null, null, StoryPage.NO_MAX_AGE, fetchedAt);
+            return page;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Truncated story page", e);
+        }
+    }
+
+    /**
+     * Write the encoding of the given page to the given file, replacing it.
+     */
+    public static void write(StoryPage page, File file) throws IOException {
+        write(encode(page), file);
+    }
+
+    /**
+     * Write the given encoding of a page to the given file, replacing it. This lets the
+     * page be encoded on one thread and written on another.
+     */
+    public static void write(byte[] encoded, File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        OutputStream outputStream = new FileOutputStream(temp);
+        try {
+            outputStream.write(encoded);
+        } finally {
+            outputStream.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Problem replacing " + file);
+        }
+    }
+
+    /**
+     * Returns the page encoded in the given file, decoded from a read-only memory mapping.
+     *
+     * @throws IOException if the file cannot be read or does not hold an encoded page
+     */
+    public static StoryPage read(File file) throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            FileChannel channel = inputStream.getChannel();
+            return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static void addString(Map<String, Integer> indexes, List<String> strings,
+                                  String string) {
+        if (string != null && !indexes.containsKey(string)) {
+            indexes.put(string, strings.size());
+            strings.add(string);
+        }
+    }
+
+    /**
+     * Returns the string table index of the given string plus one, or 0 for null.
+     */
+    private static int reference(Map<String, Integer> indexes, String string) {
+        return string == null ? 0 : indexes.get(string) + 1;
+    }
+
+    private static String dereference(String[] strings, long reference) throws IOException {
+        if (reference == 0) {
+            return null;
+        }
+        if (reference > strings.length) {
+            throw new IOException("String reference out of range: " + reference);
+        }
+        return strings[(int) reference - 1];
+    }
+
+    /**
+     * Returns the given count if the buffer has at least a byte left for every item.
+     */
+    private static int checkCount(ByteBuffer buffer, long count) throws IOException {
+        if (count < 0 || count > buffer.remaining()) {
+            throw new IOException("Count out of range: " + count);
+        }
+        return (int) count;
+    }
+
+    private static long readVarint(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static String readString(ByteBuffer buffer, byte[] scratch) throws IOException {
+        long lengthPlusOne = readVarint(buffer);
+        if (lengthPlusOne == 0) {
+            return null;
+        }
+        int length = checkCount(buffer, lengthPlusOne - 1);
+        byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+        buffer.get(bytes, 0, length);
+        return new String(bytes, 0, length, UTF_8);
+    }
+
+    /**
+     * Growable byte array with varint and string writes.
+     */
+    private static class Writer {
+
+        private byte[] bytes;
+        private int size;
+
+        Writer(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void writeInt(int value) {
+            ensureCapacity(4);
+            bytes[size++] = (byte) (value >>> 24);
+            bytes[size++] = (byte) (value >>> 16);
+            bytes[size++] = (byte) (value >>> 8);
+            bytes[size++] = (byte) value;
+        }
+
+        void writeVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7fL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void writeString(String string) {
+            if (string == null) {
+                writeVarint(0);
+                return;
+            }
+            byte[] encoded = string.getBytes(UTF_8);
+            writeVarint(encoded.length + 1);
+            ensureCapacity(encoded.length);
+            System.arraycopy(encoded, 0, bytes, size, encoded.length);
+            size += encoded.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+    }
+}
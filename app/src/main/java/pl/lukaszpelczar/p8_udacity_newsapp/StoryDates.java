@@ -0,0 +1,149 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+/**
+ * Helper methods for converting the Guardian's ISO-8601 publication dates to epoch
+ * milliseconds and back into the text shown in the list, without going through
+ * Calendar or SimpleDateFormat.
+ */
+public final class StoryDates {
+
+    /** Value used for a missing or malformed date */
+    public static final long NO_DATE = Long.MIN_VALUE;
+
+    private static final long MILLIS_PER_SECOND = 1000;
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+
+    /** Length of "yyyy-MM-ddTHH:mm:ss" */
+    private static final int DATE_TIME_LENGTH = 19;
+
+    /** Length of the formatted "yyyy-MM-dd  HH:mm:ss" */
+    private static final int FORMATTED_LENGTH = 20;
+
+    /**
+     * Create a private constructor because no one should ever create a {@link StoryDates}
+     * object. This class is only meant to hold static methods.
+     */
+    private StoryDates() {
+    }
+
+    /**
+     * Parse a UTC date such as "2018-01-13T12:32:07Z" into epoch milliseconds.
+     * Fractions of a second are ignored.
+     *
+     * @return the parsed time, or {@link #NO_DATE} if the date is missing or malformed
+     */
+    public static long parse(String date) {
+        if (date == null || date.length() < DATE_TIME_LENGTH
+                || date.charAt(4) != '-' || date.charAt(7) != '-' || date.charAt(10) != 'T'
+                || date.charAt(13) != ':' || date.charAt(16) != ':') {
+            return NO_DATE;
+        }
+
+        int year = digits(date, 0, 4);
+        int month = digits(date, 5, 2);
+        int day = digits(date, 8, 2);
+        int hour = digits(date, 11, 2);
+        int minute = digits(date, 14, 2);
+        int second = digits(date, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59
+                || second < 0 || second > 60) {
+            return NO_DATE;
+        }
+
+        long seconds = daysFromCivil(year, month, day) * SECONDS_PER_DAY
+                + hour * 3600 + minute * 60 + second;
+        return seconds * MILLIS_PER_SECOND;
+    }
+
+    /**
+     * Format epoch milliseconds as "yyyy-MM-dd  HH:mm:ss" in UTC.
+     *
+     * @return the formatted date, or an empty string for {@link #NO_DATE}
+     */
+    public static String format(long time) {
+        if (time == NO_DATE) {
+            return "";
+        }
+
+        long seconds = floorDiv(time, MILLIS_PER_SECOND);
+        long days = floorDiv(seconds, SECONDS_PER_DAY);
+        int secondOfDay = (int) (seconds - days * SECONDS_PER_DAY);
+
+        // Civil date from days since 1970-01-01, the inverse of daysFromCivil
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        char[] chars = new char[FORMATTED_LENGTH];
+        putDigits(chars, 0, (int) year, 4);
+        chars[4] = '-';
+        putDigits(chars, 5, month, 2);
+        chars[7] = '-';
+        putDigits(chars, 8, day, 2);
+        chars[10] = ' ';
+        chars[11] = ' ';
+        putDigits(chars, 12, secondOfDay / 3600, 2);
+        chars[14] = ':';
+        putDigits(chars, 15, secondOfDay / 60 % 60, 2);
+        chars[17] = ':';
+        putDigits(chars, 18, secondOfDay % 60, 2);
+        return new String(chars);
+    }
+
+    /**
+     * Returns the number of days from 1970-01-01 to the given date in the proleptic
+     * Gregorian calendar, using Howard Hinnant's days_from_civil algorithm.
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Returns the largest value not greater than the quotient, like Math.floorDiv
+     * which is not available on older Android versions.
+     */
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        if (dividend % divisor != 0 && (dividend < 0) != (divisor < 0)) {
+            quotient--;
+        }
+        return quotient;
+    }
+
+    /**
+     * Returns the value of the given number of decimal digits, or -1 if any is not a digit.
+     */
+    private static int digits(String text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Write the given value as the given number of zero-padded decimal digits.
+     */
+    private static void putDigits(char[] chars, int start, int value, int count) {
+        for (int i = start + count - 1; i >= start; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import java.io.IOException;
+
+/**
+ * A failure to load stories, telling what went wrong so callers can decide whether
+ * to retry and what to show.
+ */
+public class StoryException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Value of {@link #getRetryAfter()} when the server did not say when to retry */
+    public static final long NO_RETRY_AFTER = -1;
+
+    /**
+     * What went wrong.
+     */
+    public enum Kind {
+        /** The connection failed or was lost */
+        NETWORK,
+        /** The request or the whole load ran out of time */
+        TIMEOUT,
+        /** The server answered with a 5xx status */
+        SERVER,
+        /** The server answered 429 Too Many Requests */
+        RATE_LIMITED,
+        /** The request was rejected with another status, or could not be made at all */
+        REQUEST,
+        /** The load was cancelled */
+        CANCELLED
+    }
+
+    private final Kind kind;
+    private final int code;
+    private final long retryAfter;
+
+    public StoryException(Kind kind, String message, Throwable cause) {
+        this(kind, message, 0, NO_RETRY_AFTER);
+        initCause(cause);
+    }
+
+    public StoryException(Kind kind, String message, int code, long retryAfter) {
+        super(message);
+        this.kind = kind;
+        this.code = code;
+        this.retryAfter = retryAfter;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Returns the HTTP status code of the response, or 0 if there was none.
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Returns the time in milliseconds the server asked to wait before retrying,
+     * or {@link #NO_RETRY_AFTER}.
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Returns true if the same request may succeed when retried later.
+     */
+    public boolean isTransient() {
+        return kind == Kind.NETWORK || kind == Kind.TIMEOUT
+                || kind == Kind.SERVER || kind == Kind.RATE_LIMITED;
+    }
+}
@@ -0,0 +1,319 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Helper methods for fetching the pages of several Guardian searches at the same time
+ * and merging them into a single, newest-first list, see {@link Merger}.
+ */
+public final class StoryFanOut {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = StoryFanOut.class.getSimpleName();
+
+    /**
+     * Maximum number of requests running at the same time,
+     * so we don't trip the API rate limits.
+     */
+    private static final int MAX_CONCURRENT_REQUESTS = 4;
+
+    private static final ExecutorService sExecutor =
+            Executors.newFixedThreadPool(MAX_CONCURRENT_REQUESTS);
+
+    /** Orders the head stories of the merged queries, newest first */
+    private static final Comparator<QueryCursor> NEWEST_FIRST = new Comparator<QueryCursor>() {
+        @Override
+        public int compare(QueryCursor first, QueryCursor second) {
+            long firstTime = first.current().getPublishedAt();
+            long secondTime = second.current().getPublishedAt();
+            return firstTime < secondTime ? 1 : (firstTime == secondTime ? 0 : -1);
+        }
+    };
+
+    /**
+     * Create a private constructor because no one should ever create a {@link StoryFanOut}
+     * object. This class is only meant to hold static methods.
+     */
+    private StoryFanOut() {
+    }
+
+    /**
+     * Run all the given fetches on the shared bounded executor and wait for them.
+     * The results are returned in the order of the tasks, with null for every
+     * fetch that failed.
+     */
+    public static List<StoryPage> fetchAll(List<Callable<StoryPage>> tasks) {
+        List<StoryPage> pages = new ArrayList<>(tasks.size());
+        List<Future<StoryPage>> futures;
+        try {
+            futures = sExecutor.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return pages;
+        }
+
+        for (Future<StoryPage> future : futures) {
+            StoryPage page = null;
+            try {
+                page = future.get();
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Problem fetching a page of stories.", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    /**
+     * Loads one page of one query, from the cache or from the network.
+     */
+    public interface PageLoader {
+
+        /**
+         * Returns the given page of the given query URL, or null if it could not be loaded.
+         * This is called on the threads of the shared executor.
+         */
+        StoryPage load(String queryUrl, int pageNumber);
+    }
+
+    /**
+     * Merges the results of several queries, each sorted newest first, into one
+     * newest-first list handed out a page at a time.
+     *
+     * Every query has a cursor over the stories fetched for it and not handed out yet.
+     * The stories a query has still to load are no newer than the oldest one it loaded,
+     * so only the stories down to the newest of those oldest ones, among the queries
+     * with pages left, can be handed out. The rest are held back, and only the queries
+     * holding the others back load their next page. Stories matching several queries
+     * are handed out once.
+     *
+     * A query whose page failed to load does not hold the others back; its page is
+     * loaded again by the next call. Only used from one thread at a time.
+     */
+    public static final class Merger {
+
+        private final List<QueryCursor> mQueries;
+        private final Set<String> mSeenUrls;
+
+        /**
+         * @param queryUrls query URLs to merge the results of
+         * @param seenUrls web URLs of stories handed out already, which are skipped;
+         *                 the web URLs of the stories handed out are added to it
+         */
+        public Merger(List<String> queryUrls, Set<String> seenUrls) {
+            mQueries = new ArrayList<>(queryUrls.size());
+            for (String queryUrl : queryUrls) {
+                mQueries.add(new QueryCursor(queryUrl));
+            }
+            mSeenUrls = seenUrls;
+        }
+
+        /**
+         * Returns true while there are stories left to hand out or pages left to load.
+         */
+        public boolean hasMore() {
+            for (QueryCursor query : mQueries) {
+                if (query.hasMorePages() || query.hasStories()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Load the pages needed to hand out more stories, all of them at the same time on
+         * the shared bounded executor and again until some stories can be handed out,
+         * and return those stories as the page with the given number. The page claims a
+         * next page while there is more to hand out.
+         *
+         * @return the page, possibly empty if some loads failed, or null if there was
+         * something to load and every load failed
+         */
+        public StoryPage next(int pageNumber, final PageLoader loader) {
+            List<Story> stories = new ArrayList<>();
+            boolean attempted = false;
+            boolean loaded = false;
+            boolean fromCache = false;
+            boolean stale = false;
+            while (true) {
+                List<QueryCursor> pending = pending();
+                if (pending.isEmpty()) {
+                    take(stories);
+                    break;
+                }
+
+                List<Callable<StoryPage>> tasks = new ArrayList<>(pending.size());
+                for (final QueryCursor query : pending) {
+                    final int queryPage = query.fetchedPages + 1;
+                    tasks.add(new Callable<StoryPage>() {
+                        @Override
+                        public StoryPage call() {
+                            return loader.load(query.url, queryPage);
+                        }
+                    });
+                }
+                List<StoryPage> parts = fetchAll(tasks);
+                attempted = true;
+
+                boolean failed = false;
+                for (int i = 0; i < pending.size(); i++) {
+                    // Fewer parts than tasks when the fetch was interrupted
+                    StoryPage part = i < parts.size() ? parts.get(i) : null;
+                    if (part == null) {
+                        pending.get(i).failed = true;
+                        failed = true;
+                        continue;
+                    }
+                    pending.get(i).add(part);
+                    loaded = true;
+                    fromCache |= part.isFromCache();
+                    stale |= part.isStale();
+                }
+
+                take(stories);
+                if (!stories.isEmpty() || failed) {
+                    break;
+                }
+            }
+            if (attempted && !loaded) {
+                return null;
+            }
+
+            StoryPage page = new StoryPage(stories, pageNumber,
+                    hasMore() ? pageNumber + 1 : pageNumber);
+            page.setFromCache(fromCache);
+            page.setStale(stale);
+            return page;
+        }
+
+        /**
+         * Returns the publication time down to which stories can be handed out: the
+         * newest of the oldest stories loaded by the queries with pages left.
+         */
+        private long bound() {
+            long bound = StoryDates.NO_DATE;
+            for (QueryCursor query : mQueries) {
+                if (query.hasMorePages() && !query.failed) {
+                    bound = Math.max(bound, query.oldest);
+                }
+            }
+            return bound;
+        }
+
+        /**
+         * Returns the queries whose next page is needed to hand out more stories: those
+         * holding the others back, and those whose last page failed to load.
+         */
+        private List<QueryCursor> pending() {
+            long bound = bound();
+            List<QueryCursor> pending = new ArrayList<>();
+            for (QueryCursor query : mQueries) {
+                if (query.hasMorePages() && (query.failed || query.oldest >= bound)) {
+                    pending.add(query);
+                }
+            }
+            return pending;
+        }
+
+        /**
+         * K-way merge: repeatedly take the newest story among the cursors, down to the
+         * bound, and add it to the given list unless it was handed out already.
+         */
+        private void take(List<Story> stories) {
+            long bound = bound();
+            PriorityQueue<QueryCursor> heads =
+                    new PriorityQueue<>(Math.max(1, mQueries.size()), NEWEST_FIRST);
+            for (QueryCursor query : mQueries) {
+                if (query.hasStories()) {
+                    heads.add(query);
+                }
+            }
+            while (!heads.isEmpty()) {
+                QueryCursor query = heads.poll();
+                Story story = query.current();
+                if (story.getPublishedAt() < bound) {
+                    // The rest of this query is older still
+                    continue;
+                }
+                if (mSeenUrls.add(story.getUrl())) {
+                    stories.add(story);
+                }
+                if (query.advance()) {
+                    heads.add(query);
+                }
+            }
+            for (QueryCursor query : mQueries) {
+                query.compact();
+            }
+        }
+    }
+
+    /**
+     * Position within the stories loaded for one query, and how far the query is loaded.
+     */
+    private static class QueryCursor {
+
+        final String url;
+        private final List<Story> stories = new ArrayList<>();
+        private int index;
+
+        /** Number of pages loaded, and of pages there are, or -1 before the first one */
+        int fetchedPages;
+        int pages = -1;
+
+        /** Publication time of the oldest story loaded; nothing is older before the first */
+        long oldest = Long.MAX_VALUE;
+
+        /** Whether the last page failed to load */
+        boolean failed;
+
+        QueryCursor(String url) {
+            this.url = url;
+        }
+
+        void add(StoryPage page) {
+            stories.addAll(page.getStories());
+            for (Story story : page.getStories()) {
+                oldest = Math.min(oldest, story.getPublishedAt());
+            }
+            fetchedPages++;
+            pages = page.getPages();
+            failed = false;
+        }
+
+        boolean hasMorePages() {
+            return pages < 0 || fetchedPages < pages;
+        }
+
+        boolean hasStories() {
+            return index < stories.size();
+        }
+
+        Story current() {
+            return stories.get(index);
+        }
+
+        boolean advance() {
+            return ++index < stories.size();
+        }
+
+        /** Drop the stories handed out */
+        void compact() {
+            stories.subList(0, index).clear();
+            index = 0;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import android.util.Log;
+import android.util.LruCache;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Coalesces and retries requests in front of
+ * {@link QueryUtils#fetchStoryData(String, StoryPage, Deadline)}.
+ *
+ * Requests are keyed by their normalised URL. A caller asking for a URL that is
+ * already being fetched joins that fetch and receives the same {@link StoryPage},
+ * and pages fetched in the last few seconds are answered from a small in-memory
+ * LRU cache without any request at all.
+ *
+ * Transient failures are retried with exponential backoff and full jitter, or after
+ * the delay the server asked for with Retry-After, as long as the deadline allows.
+ */
+public final class StoryFetcher {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = StoryFetcher.class.getSimpleName();
+
+    /** Time in milliseconds a fetched page is answered from memory */
+    private static final long RECENT_PAGE_TTL = 30 * 1000;
+
+    /** Maximum number of stories held by the in-memory cache */
+    private static final int RECENT_CACHE_SIZE = 500;
+
+    /** Maximum number of attempts at a request */
+    private static final int MAX_ATTEMPTS = 4;
+
+    /** Upper bound in milliseconds of the delay before the first retry, and of any delay */
+    private static final long INITIAL_BACKOFF = 500;
+    private static final long MAX_BACKOFF = 8000;
+
+    private static final SingleFlight<StoryPage> sInFlight = new SingleFlight<>();
+
+    private static final Random sRandom = new Random();
+
+    /** Requests answered from memory, and requests that went upstream */
+    private static final Metrics.Counter MEMORY_HITS = Metrics.counter("fetcher_memory_hits");
+    private static final Metrics.Counter UPSTREAM_FETCHES = Metrics.counter("fetcher_upstream");
+    private static final Metrics.Counter RETRIES = Metrics.counter("fetcher_retries");
+
+    /** Recently fetched pages, sized by their number of stories */
+    private static final LruCache<String, StoryPage> sRecentPages =
+            new LruCache<String, StoryPage>(RECENT_CACHE_SIZE) {
+                @Override
+                protected int sizeOf(String key, StoryPage page) {
+                    return page.getStories().size() + 1;
+                }
+            };
+
+    /**
+     * Create a private constructor because no one should ever create a {@link StoryFetcher}
+     * object. This class is only meant to hold static methods.
+     */
+    private StoryFetcher() {
+    }
+
+    /**
+     * Return the page for the given request URL from memory, by joining a fetch of it
+     * that is already running, or by fetching it. The cached page, if given, makes the
+     * request conditional, see {@link QueryUtils#fetchStoryData(String, StoryPage, Deadline)}.
+     *
+     * A caller joining a running fetch shares the deadline of the caller that started it.
+     *
+     * @throws StoryException telling why no page could be loaded
+     */
+    public static StoryPage fetch(final String requestUrl, final StoryPage cachedPage,
+                                  final Deadline deadline) throws StoryException {
+        final String key = normalise(requestUrl);
+
+        StoryPage recent = sRecentPages.get(key);
+        if (recent != null && System.currentTimeMillis() - recent.getFetchedAt() < RECENT_PAGE_TTL) {
+            MEMORY_HITS.increment();
+            return recent;
+        }
+
+        try {
+            return sInFlight.execute(key, new Callable<StoryPage>() {
+                @Override
+                public StoryPage call() throws StoryException {
+                    StoryPage page = fetchWithRetries(requestUrl, cachedPage, deadline);
+                    sRecentPages.put(key, page);
+                    return page;
+                }
+            });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof StoryException) {
+                throw (StoryException) e.getCause();
+            }
+            Log.e(LOG_TAG, "Problem fetching " + requestUrl, e.getCause());
+            throw new StoryException(StoryException.Kind.NETWORK, "Problem fetching " + requestUrl,
+                    e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StoryException(StoryException.Kind.CANCELLED, "Interrupted", e);
+        }
+    }
+
+    /**
+     * Fetch the given URL, retrying transient failures while attempts and time are left.
+     */
+    private static StoryPage fetchWithRetries(String requestUrl, StoryPage cachedPage,
+                                              Deadline deadline) throws StoryException {
+        for (int attempt = 0; ; attempt++) {
+            UPSTREAM_FETCHES.increment();
+            try {
+                return QueryUtils.fetchStoryData(requestUrl, cachedPage, deadline);
+            } catch (StoryException e) {
+                if (!e.isTransient() || attempt + 1 >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                long delay = e.getRetryAfter() != StoryException.NO_RETRY_AFTER
+                        ? e.getRetryAfter() : backoff(attempt, sRandom);
+                if (delay >= deadline.remaining()) {
+                    // The retry could not finish in time anyway
+                    throw e;
+                }
+                Log.w(LOG_TAG, "Retrying " + requestUrl + " in " + delay + " ms", e);
+                RETRIES.increment();
+                deadline.sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * Returns the delay in milliseconds before the retry following the given attempt,
+     * counted from 0: a random time up to a bound that doubles with every attempt,
+     * so clients that failed together do not all retry together.
+     */
+    static long backoff(int attempt, Random random) {
+        long bound = INITIAL_BACKOFF;
+        for (int i = 0; i < attempt && bound < MAX_BACKOFF; i++) {
+            bound *= 2;
+        }
+        bound = Math.min(bound, MAX_BACKOFF);
+        return (long) (random.nextDouble() * bound);
+    }
+
+    /**
+     * Returns the given URL with its scheme and host in lower case and its query
+     * parameters sorted, so equivalent URLs share one key.
+     */
+    static String normalise(String requestUrl) {
+        try {
+            URI uri = new URI(requestUrl);
+            StringBuilder key = new StringBuilder(requestUrl.length());
+            if (uri.getScheme() != null) {
+                key.append(uri.getScheme().toLowerCase(Locale.US)).append("://");
+            }
+            if (uri.getRawAuthority() != null) {
+                key.append(uri.getRawAuthority().toLowerCase(Locale.US));
+            }
+            if (uri.getRawPath() != null) {
+                key.append(uri.getRawPath());
+            }
+            String query = uri.getRawQuery();
+            if (query != null && !query.isEmpty()) {
+                String[] params = query.split("&");
+                Arrays.sort(params);
+                key.append('?');
+                for (int i = 0; i < params.length; i++) {
+                    if (i > 0) {
+                        key.append('&');
+                    }
+                    key.append(params[i]);
+                }
+            }
+            return key.toString();
+        } catch (URISyntaxException e) {
+            return requestUrl;
+        }
+    }
+}
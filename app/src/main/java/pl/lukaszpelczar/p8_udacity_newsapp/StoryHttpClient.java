@@ -0,0 +1,156 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * Holds the single HTTP client shared by every request the app makes.
+ *
+ * The client keeps idle connections alive in a pool so later requests to the
+ * Guardian API skip the TCP and TLS handshakes, multiplexes requests over HTTP/2
+ * where the server supports it, and is safe to use from several threads at once.
+ */
+public final class StoryHttpClient {
+
+    /** Default timeouts in milliseconds */
+    public static final long DEFAULT_CONNECT_TIMEOUT = 15000;
+    public static final long DEFAULT_READ_TIMEOUT = 10000;
+
+    /** Maximum number of idle connections kept in the pool */
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    /** Time in minutes an idle connection is kept alive */
+    private static final long KEEP_ALIVE_DURATION = 5;
+
+    private static final ConnectionPool sConnectionPool =
+            new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION, TimeUnit.MINUTES);
+
+    private static long sConnectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private static long sReadTimeout = DEFAULT_READ_TIMEOUT;
+
+    private static OkHttpClient sClient;
+
+    /** Metrics of the network stages of every request */
+    private static final Metrics.Histogram DNS_TIME = Metrics.histogram("dns_us");
+    private static final Metrics.Histogram CONNECT_TIME = Metrics.histogram("connect_us");
+    private static final Metrics.Histogram TTFB_TIME = Metrics.histogram("ttfb_us");
+    private static final Metrics.Histogram BODY_TIME = Metrics.histogram("body_us");
+    private static final Metrics.Counter BYTES_READ = Metrics.counter("bytes_read");
+    private static final Metrics.Counter CONNECTIONS_OPENED = Metrics.counter("connections_opened");
+    private static final Metrics.Counter CONNECTIONS_REUSED = Metrics.counter("connections_reused");
+
+    /**
+     * Create a private constructor because no one should ever create a {@link StoryHttpClient}
+     * object. This class is only meant to hold the shared client.
+     */
+    private StoryHttpClient() {
+    }
+
+    /**
+     * Sets the timeouts used by the shared client. The connection pool is kept,
+     * so connections that are already open stay reusable.
+     *
+     * @param connectTimeout connect timeout in milliseconds
+     * @param readTimeout read timeout in milliseconds
+     */
+    public static synchronized void setTimeouts(long connectTimeout, long readTimeout) {
+        sConnectTimeout = connectTimeout;
+        sReadTimeout = readTimeout;
+        sClient = null;
+    }
+
+    /**
+     * Returns the shared client, creating it on first use.
+     */
+    public static synchronized OkHttpClient getClient() {
+        if (sClient == null) {
+            sClient = new OkHttpClient.Builder()
+                    .connectionPool(sConnectionPool)
+                    .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                    .connectTimeout(sConnectTimeout, TimeUnit.MILLISECONDS)
+                    .readTimeout(sReadTimeout, TimeUnit.MILLISECONDS)
+                    .eventListenerFactory(new EventListener.Factory() {
+                        @Override
+                        public EventListener create(Call call) {
+                            return new MetricsEventListener();
+                        }
+                    })
+                    .build();
+        }
+        return sClient;
+    }
+
+    /**
+     * Records the DNS, connect, time-to-first-byte and body read times of a single call.
+     */
+    private static class MetricsEventListener extends EventListener {
+
+        private long mCallStart;
+        private long mDnsStart;
+        private long mConnectStart;
+        private long mBodyStart;
+        private boolean mConnected;
+
+        @Override
+        public void callStart(Call call) {
+            mCallStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            mDnsStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> addresses) {
+            DNS_TIME.record((System.nanoTime() - mDnsStart) / 1000);
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress address, Proxy proxy) {
+            mConnectStart = System.nanoTime();
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress address, Proxy proxy,
+                               Protocol protocol) {
+            mConnected = true;
+            CONNECT_TIME.record((System.nanoTime() - mConnectStart) / 1000);
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            if (mConnected) {
+                CONNECTIONS_OPENED.increment();
+            } else {
+                CONNECTIONS_REUSED.increment();
+            }
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+            TTFB_TIME.record((System.nanoTime() - mCallStart) / 1000);
+        }
+
+        @Override
+        public void responseBodyStart(Call call) {
+            mBodyStart = System.nanoTime();
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            BODY_TIME.record((System.nanoTime() - mBodyStart) / 1000);
+            BYTES_READ.add(byteCount);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Map from the web URL of every story seen recently to the {@link Story} last seen under
+ * it, spanning refreshes, so every new list of stories can be split into the stories that
+ * are new, those whose contents changed, and those that are the same as before.
+ *
+ * Stories are compared by their {@link Story#getContentHash content hash}, and a story
+ * that has not changed is replaced by the instance seen before, so lists loaded at
+ * different times share their unchanged stories and can be compared by identity.
+ * Only the new and changed stories need to be cached, indexed or shown again.
+ *
+ * The least recently seen stories are forgotten beyond the capacity; they count as new
+ * when they come back. This is thread-safe.
+ */
+public class StoryIdentityMap {
+
+    /** Number of stories remembered by the process-wide map, a few hundred pages' worth */
+    static final int DEFAULT_CAPACITY = 5000;
+
+    private static final Metrics.Counter STORIES_ADDED = Metrics.counter("stories_added");
+    private static final Metrics.Counter STORIES_CHANGED = Metrics.counter("stories_changed");
+    private static final Metrics.Counter STORIES_UNCHANGED = Metrics.counter("stories_unchanged");
+
+    private static StoryIdentityMap sInstance;
+
+    /** Stories by web URL, least recently seen first */
+    private final Map<String, Story> mStories;
+
+    /**
+     * @param capacity number of stories remembered
+     */
+    public StoryIdentityMap(final int capacity) {
+        mStories = new LinkedHashMap<String, Story>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Story> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the process-wide {@link StoryIdentityMap}, shared by the loader and the
+     * sync service so a story synced in the background is not indexed again on refresh.
+     */
+    public static synchronized StoryIdentityMap getInstance() {
+        if (sInstance == null) {
+            sInstance = new StoryIdentityMap(DEFAULT_CAPACITY);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Compare the given stories with those seen before under the same web URLs, and
+     * remember the new and changed ones. The given list is left as it is.
+     *
+     * @return the changes, and the given stories with the unchanged ones replaced
+     * by the instances seen before
+     */
+    public synchronized Changes merge(List<Story> stories) {
+        List<Story> merged = new ArrayList<>(stories.size());
+        List<Story> added = new ArrayList<>();
+        List<Story> changed = new ArrayList<>();
+        for (int i = 0; i < stories.size(); i++) {
+            Story story = stories.get(i);
+            if (story.getUrl() == null) {
+                // Nothing to know it by
+                merged.add(story);
+                continue;
+            }
+            Story known = mStories.get(story.getUrl());
+            if (known != null && known.getContentHash() == story.getContentHash()) {
+                merged.add(known);
+                continue;
+            }
+            mStories.put(story.getUrl(), story);
+            merged.add(story);
+            if (known == null) {
+                added.add(story);
+            } else {
+                changed.add(story);
+            }
+        }
+
+        int unchanged = merged.size() - added.size() - changed.size();
+        STORIES_ADDED.add(added.size());
+        STORIES_CHANGED.add(changed.size());
+        STORIES_UNCHANGED.add(unchanged);
+        return new Changes(merged, added, changed);
+    }
+
+    /**
+     * Returns the number of stories remembered.
+     */
+    public synchronized int size() {
+        return mStories.size();
+    }
+
+    /**
+     * Outcome of a {@link #merge}.
+     */
+    public static final class Changes {
+
+        private final List<Story> stories;
+        private final List<Story> added;
+        private final List<Story> changed;
+
+        Changes(List<Story> stories, List<Story> added, List<Story> changed) {
+            this.stories = stories;
+            this.added = added;
+            this.changed = changed;
+        }
+
+        /**
+         * Returns every merged story, in order, the unchanged ones as seen before.
+         */
+        public List<Story> getStories() {
+            return stories;
+        }
+
+        /**
+         * Returns the stories whose web URLs were not known.
+         */
+        public List<Story> getAdded() {
+            return added;
+        }
+
+        /**
+         * Returns the stories whose contents differ from those last seen under their URLs.
+         */
+        public List<Story> getChanged() {
+            return changed;
+        }
+
+        /**
+         * Returns true if every story was seen before with the same contents.
+         */
+        public boolean isEmpty() {
+            return added.isEmpty() && changed.isEmpty();
+        }
+    }
+}
@@ -2,48 +2,479 @@ package pl.lukaszpelczar.p8_udacity_newsapp;
 
 import android.content.AsyncTaskLoader;
 import android.content.Context;
+import android.net.Uri;
+import android.support.v7.util.DiffUtil;
+import android.util.Log;
 
+import java.io.File;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
- * Loads a list of stories by using an AsyncTask to perform the
- * network request to the given URL.
+ * Loads stories page by page by using an AsyncTask to perform the
+ * network requests to the given URLs. Every delivered result is a single
+ * {@link StoryPage}; the stories of all pages loaded so far are kept in a
+ * {@link StoryWindow}, which holds only those around the visible rows on the heap,
+ * so they can be handed back after a configuration change.
+ *
+ * When several query URLs are given, their pages are fetched in parallel and merged
+ * newest first by a {@link StoryFanOut.Merger}, with a story matching several queries
+ * appearing only once. A delivered page holds the stories that no page still to load
+ * can come before, so the pages of a sparse query do not run ahead of the others.
+ *
+ * Pages are cached in the {@link StoryCache}. The first load delivers the cached
+ * first page straight away and, if it is stale, revalidates it from the network
+ * right after. Cached pages are also used whenever the network request fails.
+ *
+ * Every page is merged into the {@link StoryIdentityMap}, so only new and changed stories
+ * are indexed for search, and stories that did not change keep their instances across
+ * refreshes. A refreshed first page with the same stories as before is delivered marked
+ * {@link StoryPage#isUnchanged unchanged}, leaving the window and the pages loaded after
+ * the first one as they are. One with changes is diffed against the first page it
+ * replaces in the background, and the diff handed out by {@link #takeFirstPageChange}.
+ *
+ * Every load runs against a {@link Deadline}. Stopping the loader cancels the running
+ * load, aborting its requests and any wait between retries, and starting it again
+ * picks up an interrupted revalidation.
  */
-public class StoryLoader extends AsyncTaskLoader<List<Story>> {
+public class StoryLoader extends AsyncTaskLoader<StoryPage> {
+
+    /**
+     * How a delivered first page differs from the first page the window started with
+     * before it was refilled.
+     */
+    public static final class FirstPageChange {
+
+        private final DiffUtil.DiffResult mDiff;
+        private final int mOldFirstPageSize;
+        private final int mOldCount;
+
+        FirstPageChange(DiffUtil.DiffResult diff, int oldFirstPageSize, int oldCount) {
+            mDiff = diff;
+            mOldFirstPageSize = oldFirstPageSize;
+            mOldCount = oldCount;
+        }
+
+        /**
+         * Returns the diff from the stories of the old first page to the new one.
+         */
+        public DiffUtil.DiffResult getDiff() {
+            return mDiff;
+        }
+
+        /**
+         * Returns the number of stories of the old first page.
+         */
+        public int getOldFirstPageSize() {
+            return mOldFirstPageSize;
+        }
+
+        /**
+         * Returns the number of stories the window held before it was refilled.
+         */
+        public int getOldCount() {
+            return mOldCount;
+        }
+    }
 
     /** Tag for log messages */
     private static final String LOG_TAG = StoryLoader.class.getName();
 
-    /** Query URL */
-    private String mUrl;
+    /** Query parameter selecting the page of results */
+    private static final String PAGE_PARAM = "page";
+
+    /** Time in milliseconds a load may take, retries included */
+    private static final long LOAD_DEADLINE = 30 * 1000;
+
+    /** Spill file of the stories dropped from the heap, in the cache directory */
+    private static final String WINDOW_FILE = "story_window.bin";
+
+    /** Query URLs */
+    private List<String> mUrls;
+
+    /** Time in milliseconds a cached page is used without revalidation */
+    private long mCacheTtl;
+
+    /** Cache of previously loaded pages */
+    private StoryCache mCache;
+
+    /** Where pages missing from the cache, or stale in it, are loaded from */
+    private StorySource mSource;
+
+    /** Stories seen so far, by web URL */
+    private StoryIdentityMap mIdentities;
+
+    /** Number of the page requested by the next load */
+    private int mNextPage = 1;
+
+    /** Whether a page is currently being loaded */
+    private boolean mLoading;
+
+    /** Whether the next load refreshes the first page from the network */
+    private boolean mRevalidating;
+
+    /** Last page delivered to the client */
+    private StoryPage mLastPage;
+
+    /** Stories of all pages delivered so far, only a window of them on the heap */
+    private StoryWindow mStories;
+
+    /** Time in milliseconds at which the delivered first page was last fetched */
+    private long mRefreshedAt;
+
+    /**
+     * Stories of the first page the window starts with, set on the main thread and read
+     * on the background thread, or null if the window holds none
+     */
+    private volatile List<Story> mFirstPageStories;
+
+    /**
+     * Diff of the first page loaded in the background against the first page stories it
+     * was computed from, set on the background thread and taken by the delivery
+     */
+    private volatile DiffUtil.DiffResult mFirstPageDiff;
+    private volatile List<Story> mFirstPageDiffBase;
+
+    /** Change made by the first page delivered last, until it is taken */
+    private FirstPageChange mFirstPageChange;
+
+    /**
+     * Merges the queries from the delivered first page on, only used on the background
+     * thread while a load runs, or null before the first load
+     */
+    private StoryFanOut.Merger mMerger;
+
+    /** Deadline of the load running in the background, if any */
+    private volatile Deadline mDeadline;
+
+    /** Why the last load failed to fetch a page, or null if it did not fail */
+    private volatile StoryException mFailure;
 
     /**
      * Constructs a new {@link StoryLoader}.
      *
      * @param context of the activity
-     * @param url to load data from
+     * @param urls to load data from
+     * @param cacheTtl time in milliseconds a cached page is used without revalidation,
+     *                 unless the server specified its own max-age
+     * @param source to load pages from
      */
-    public StoryLoader(Context context, String url) {
+    public StoryLoader(Context context, List<String> urls, long cacheTtl, StorySource source) {
         super(context);
-        mUrl = url;
+        mUrls = urls;
+        mCacheTtl = cacheTtl;
+        mCache = StoryCache.getInstance(context);
+        mSource = source;
+        mIdentities = StoryIdentityMap.getInstance();
+        mStories = new StoryWindow(new File(context.getCacheDir(), WINDOW_FILE),
+                StoryWindow.DEFAULT_CAPACITY);
     }
 
     @Override
     protected void onStartLoading() {
+        if (mLastPage != null) {
+            // Hand back the page we already have instead of fetching the next one. No load
+            // has finished, so this skips what deliverResult does with a loaded page.
+            super.deliverResult(mLastPage);
+            if (mRevalidating && !mLoading) {
+                // The revalidation was cancelled when the loader stopped, so run it again
+                mLoading = true;
+                forceLoad();
+            }
+        } else if (!mLoading) {
+            mLoading = true;
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+        // Before API 16 cancelLoad does not cancel the background work itself
+        cancelLoadInBackground();
+    }
+
+    /**
+     * Start loading the next page unless a page is already being loaded
+     * or the last page has been reached.
+     */
+    public void loadNextPage() {
+        if (mLoading || (mLastPage != null && !mLastPage.hasNextPage())) {
+            return;
+        }
+        mLoading = true;
         forceLoad();
     }
 
+    /**
+     * Returns the stories of all pages delivered so far. The window is changed by every
+     * delivered page, on the main thread.
+     */
+    public StoryWindow getStories() {
+        return mStories;
+    }
+
+    /**
+     * Returns how the first page delivered last differs from the one before it, or null
+     * if it was not diffed, and forgets it. The window has already been refilled with
+     * the new first page, so the change describes the rows shown before it was.
+     */
+    public FirstPageChange takeFirstPageChange() {
+        FirstPageChange change = mFirstPageChange;
+        mFirstPageChange = null;
+        return change;
+    }
+
+    /**
+     * Returns the stories of all pages delivered so far as a single page, with the
+     * paging of the last one, that can be handed to {@link #restore} once the process
+     * has been killed. Returns null if nothing has been delivered yet.
+     *
+     * At most a window's worth of stories is saved, and only those on the heap, so
+     * nothing is read from the spill file. When there are more, the saved page claims to
+     * be the first one, so the pages after it are loaded again and the stories already
+     * restored are merged out of them.
+     */
+    public StoryPage getSavedState() {
+        if (mLastPage == null) {
+            return null;
+        }
+        // Copied without moving the window away from the rows on screen
+        List<Story> stories = mStories.copyLoaded(StoryWindow.DEFAULT_CAPACITY);
+        StoryPage page = new StoryPage(stories,
+                stories.size() == mStories.size() ? mLastPage.getCurrentPage() : 1,
+                mLastPage.getPages());
+        page.setCacheInfo(null, null, StoryPage.NO_MAX_AGE, mRefreshedAt);
+        return page;
+    }
+
+    /**
+     * Pick up from a page returned by {@link #getSavedState}, so it is delivered as soon
+     * as the loader starts and the next load continues after it. If the page is no
+     * longer fresh, its first page is revalidated right after it is delivered.
+     * This must be called before the loader is started.
+     */
+    public void restore(StoryPage page) {
+        mStories.clear();
+        mStories.addAll(page.getStories());
+        // Where each query got to is lost, so they are merged from their first pages
+        // again, skipping the restored stories
+        Set<String> seenUrls = new HashSet<>();
+        for (Story story : page.getStories()) {
+            seenUrls.add(story.getUrl());
+        }
+        mMerger = new StoryFanOut.Merger(mUrls, seenUrls);
+        mNextPage = page.getCurrentPage() + 1;
+        mLastPage = page;
+        mRefreshedAt = page.getFetchedAt();
+        mFirstPageStories = null;
+        mRevalidating = !page.isFresh(mCacheTtl, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns why the last load could not fetch a page from the network,
+     * or null if it did not fail.
+     */
+    public StoryException getFailure() {
+        return mFailure;
+    }
+
     /**
      * This is on a background thread.
      */
     @Override
-    public List<Story> loadInBackground() {
-        if (mUrl == null) {
+    public StoryPage loadInBackground() {
+        if (mUrls == null || mUrls.isEmpty()) {
             return null;
         }
 
-        // Perform the network request, parse the response, and extract a list of stories.
-        List<Story> stories = QueryUtils.fetchStoryData(mUrl);
-        return stories;
+        final boolean revalidating = mRevalidating;
+        final boolean firstLoad = mLastPage == null;
+        final int pageNumber = revalidating ? 1 : mNextPage;
+        final Deadline deadline = new Deadline(LOAD_DEADLINE);
+        mDeadline = deadline;
+        mFailure = null;
+        mFirstPageDiff = null;
+        mFirstPageDiffBase = null;
+
+        // A first page starts a new list, so nothing has been merged yet
+        StoryFanOut.Merger merger = pageNumber == 1 || mMerger == null
+                ? new StoryFanOut.Merger(mUrls, new HashSet<String>()) : mMerger;
+        StoryPage page = merger.next(pageNumber, new StoryFanOut.PageLoader() {
+            @Override
+            public StoryPage load(String queryUrl, int queryPage) {
+                // Only the first page of a query is the one being revalidated
+                return loadPage(buildPageUrl(queryUrl, queryPage),
+                        revalidating && queryPage == 1, firstLoad, deadline);
+            }
+        });
+        mDeadline = null;
+
+        if (page != null && revalidating
+                && sameStories(page.getStories(), mFirstPageStories)) {
+            // The stories loaded after the first page still follow on from it
+            page.setUnchanged(true);
+        } else if (page != null) {
+            mMerger = merger;
+            List<Story> previous = mFirstPageStories;
+            if (pageNumber == 1 && previous != null) {
+                // Diffed here, so the refreshed rows can be updated on their own
+                mFirstPageDiff = DiffUtil.calculateDiff(
+                        new StoryAdapter.StoryDiffCallback(previous, page.getStories()));
+                mFirstPageDiffBase = previous;
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Returns true if the given lists hold the same story instances in the same order,
+     * which for stories from the {@link StoryIdentityMap} means the same contents too.
+     */
+    static boolean sameStories(List<Story> stories, List<Story> previous) {
+        if (previous == null || stories.size() != previous.size()) {
+            return false;
+        }
+        for (int i = 0; i < stories.size(); i++) {
+            if (stories.get(i) != previous.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the given page of a single query, from the cache or from the network.
+     */
+    private StoryPage loadPage(String pageUrl, boolean revalidating, boolean firstLoad,
+                               Deadline deadline) {
+        // Use the cached page if it is still fresh. The very first load uses it even when
+        // it is stale, so there is something on screen while it is being revalidated.
+        StoryPage cached = mCache.get(pageUrl);
+        if (!revalidating && cached != null) {
+            boolean fresh = cached.isFresh(mCacheTtl, System.currentTimeMillis());
+            if (fresh || firstLoad) {
+                cached.setStale(!fresh);
+                return merged(cached);
+            }
+        }
+
+        // Load the page from the source. Over the network this is a conditional request,
+        // or joins the one already running for this URL.
+        try {
+            StoryPage page = mSource.fetch(pageUrl, cached, deadline);
+            StoryIdentityMap.Changes changes = mIdentities.merge(page.getStories());
+            if (page.isNotModified()) {
+                mCache.updateCacheInfo(pageUrl, page);
+            } else {
+                mCache.put(pageUrl, page, changes);
+            }
+            return page.withStories(changes.getStories());
+        } catch (StoryException e) {
+            if (e.getKind() != StoryException.Kind.CANCELLED) {
+                Log.w(LOG_TAG, "Problem loading " + pageUrl, e);
+            }
+            mFailure = e;
+        }
+
+        // Without a response, fall back to whatever we have cached. A failed
+        // revalidation keeps showing the stale page that is already delivered.
+        return revalidating || cached == null ? null : merged(cached);
+    }
+
+    /**
+     * Returns a copy of the given cached page with its stories merged into the
+     * {@link StoryIdentityMap}. They were indexed when the page was cached.
+     */
+    private StoryPage merged(StoryPage cached) {
+        return cached.withStories(mIdentities.merge(cached.getStories()).getStories());
+    }
+
+    /**
+     * Returns the URL of the given page of the given query URL, which is also the key
+     * of the page in the {@link StoryCache}.
+     */
+    static String buildPageUrl(String url, int pageNumber) {
+        return Uri.parse(url).buildUpon()
+                .appendQueryParameter(PAGE_PARAM, String.valueOf(pageNumber))
+                .build()
+                .toString();
+    }
+
+    /**
+     * Deliver the outcome of a finished load, a new page or null if it failed. A failed
+     * first load leaves nothing delivered, so the next start of the loader tries again.
+     */
+    @Override
+    public void deliverResult(StoryPage page) {
+        boolean revalidate = false;
+        mLoading = false;
+        mRevalidating = false;
+        DiffUtil.DiffResult firstPageDiff = mFirstPageDiff;
+        List<Story> firstPageDiffBase = mFirstPageDiffBase;
+        mFirstPageDiff = null;
+        mFirstPageDiffBase = null;
+        mFirstPageChange = null;
+        if (page != null && page.isUnchanged()) {
+            // Nothing to merge, the window already starts with these stories
+            mRefreshedAt = System.currentTimeMillis();
+        } else if (page != null) {
+            // A first page replaces everything loaded before it
+            if (page.getCurrentPage() <= 1) {
+                if (firstPageDiff != null && firstPageDiffBase == mFirstPageStories) {
+                    mFirstPageChange = new FirstPageChange(firstPageDiff,
+                            firstPageDiffBase.size(), mStories.size());
+                }
+                mStories.clear();
+                mFirstPageStories = page.getStories();
+            }
+            mStories.addAll(page.getStories());
+            mNextPage = page.getCurrentPage() + 1;
+            mLastPage = page;
+            if (page.getCurrentPage() <= 1 && !page.isStale()) {
+                mRefreshedAt = System.currentTimeMillis();
+            }
+            revalidate = page.isStale() && page.getCurrentPage() <= 1;
+        }
+        super.deliverResult(page);
+
+        if (revalidate) {
+            // Refresh the stale first page in the background
+            mRevalidating = true;
+            mLoading = true;
+            forceLoad();
+        }
+    }
+
+    /**
+     * Cancel the deadline of the running load, which aborts its requests.
+     * This is called on the main thread, from API 16 on.
+     */
+    @Override
+    public void cancelLoadInBackground() {
+        Deadline deadline = mDeadline;
+        if (deadline != null) {
+            deadline.cancel();
+        }
+    }
+
+    @Override
+    public void onCanceled(StoryPage page) {
+        mLoading = false;
+    }
+
+    @Override
+    protected void onReset() {
+        cancelLoad();
+        cancelLoadInBackground();
+        mLoading = false;
+        mRevalidating = false;
+        mLastPage = null;
+        mNextPage = 1;
+        mStories.clear();
+        mFirstPageStories = null;
+        mFirstPageChange = null;
+        mMerger = null;
     }
 }
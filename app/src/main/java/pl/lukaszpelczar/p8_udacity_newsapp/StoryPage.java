@@ -0,0 +1,157 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import java.util.List;
+
+/**
+ * A single page of stories returned by the Guardian API, together with the
+ * paging information needed to request the following page and the HTTP cache
+ * information of the response it was parsed from.
+ */
+public class StoryPage {
+
+    /** Value of {@link #getMaxAge()} when the server sent no max-age directive */
+    public static final long NO_MAX_AGE = -1;
+
+    private List<Story> stories;
+    private int currentPage;
+    private int pages;
+    private String etag;
+    private String lastModified;
+    private long maxAge = NO_MAX_AGE;
+    private long fetchedAt;
+    private boolean fromCache;
+    private boolean notModified;
+    private boolean stale;
+    private boolean unchanged;
+
+    public StoryPage(List<Story> stories, int currentPage, int pages) {
+        this.stories = stories;
+        this.currentPage = currentPage;
+        this.pages = pages;
+    }
+
+    public List<Story> getStories() {
+        return stories;
+    }
+
+    public int getCurrentPage() {
+        return currentPage;
+    }
+
+    public int getPages() {
+        return pages;
+    }
+
+    public boolean hasNextPage() {
+        return currentPage < pages;
+    }
+
+    /**
+     * Returns the ETag of the response, or null if the server sent none.
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * Returns the Last-Modified date of the response, or null if the server sent none.
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Returns the max-age in seconds from the response's Cache-Control header,
+     * or {@link #NO_MAX_AGE}.
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Returns the time in milliseconds at which the response was received.
+     */
+    public long getFetchedAt() {
+        return fetchedAt;
+    }
+
+    public void setCacheInfo(String etag, String lastModified, long maxAge, long fetchedAt) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.maxAge = maxAge;
+        this.fetchedAt = fetchedAt;
+    }
+
+    /**
+     * Returns true if this page was read from the {@link StoryCache}
+     * rather than from the network.
+     */
+    public boolean isFromCache() {
+        return fromCache;
+    }
+
+    public void setFromCache(boolean fromCache) {
+        this.fromCache = fromCache;
+    }
+
+    /**
+     * Returns true if the server answered a conditional request with 304 Not Modified,
+     * so the stories are those of the previously cached page.
+     */
+    public boolean isNotModified() {
+        return notModified;
+    }
+
+    public void setNotModified(boolean notModified) {
+        this.notModified = notModified;
+    }
+
+    /**
+     * Returns true if this page was read from the {@link StoryCache} after its
+     * freshness lifetime and should be revalidated from the network.
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    public void setStale(boolean stale) {
+        this.stale = stale;
+    }
+
+    /**
+     * Returns true if this is a refreshed first page holding the same stories, in the
+     * same order and with the same contents, as the first page delivered before it.
+     */
+    public boolean isUnchanged() {
+        return unchanged;
+    }
+
+    public void setUnchanged(boolean unchanged) {
+        this.unchanged = unchanged;
+    }
+
+    /**
+     * Returns a copy of this page with the given stories in place of its own.
+     */
+    public StoryPage withStories(List<Story> stories) {
+        StoryPage page = new StoryPage(stories, currentPage, pages);
+        page.setCacheInfo(etag, lastModified, maxAge, fetchedAt);
+        page.fromCache = fromCache;
+        page.notModified = notModified;
+        page.stale = stale;
+        page.unchanged = unchanged;
+        return page;
+    }
+
+    /**
+     * Returns true if this page may still be used without revalidation at the given time.
+     * The server's max-age takes precedence over the given time-to-live.
+     *
+     * @param ttl time-to-live in milliseconds used when the server sent no max-age
+     * @param now current time in milliseconds
+     */
+    public boolean isFresh(long ttl, long now) {
+        long lifetime = maxAge != NO_MAX_AGE ? maxAge * 1000 : ttl;
+        return now - fetchedAt < lifetime;
+    }
+}
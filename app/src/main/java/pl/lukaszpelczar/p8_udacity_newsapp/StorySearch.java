@@ -0,0 +1,167 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import java.util.Locale;
+
+/**
+ * Schema and statements of the on-device full-text search index over cached stories,
+ * kept free of Android classes so the benchmark module can run them as well.
+ *
+ * Stories are kept in a plain table, one row per web URL, and the title, section and
+ * author of every row are indexed in an FTS4 table sharing its row ID. Row IDs follow
+ * the publication time of the stories, see {@link #firstId}, so FTS can return the
+ * newest matches first straight from its index without sorting every match, and the
+ * oldest stories are the ones with the lowest IDs.
+ *
+ * The index is bounded: once it holds more than its maximum number of stories, the
+ * oldest ones are evicted down to {@link #STORIES_KEPT_ON_EVICTION}.
+ */
+final class StorySearch {
+
+    /** Maximum number of stories kept in the index */
+    static final int MAX_INDEXED_STORIES = 10000;
+
+    /**
+     * Number of stories kept when the index grows past its maximum. Evicting a tenth
+     * of the index at once keeps evictions, which walk the whole index, rare.
+     */
+    static final int STORIES_KEPT_ON_EVICTION = MAX_INDEXED_STORIES - MAX_INDEXED_STORIES / 10;
+
+    /** Shortest text searched for; a single letter matches nearly everything */
+    static final int MIN_QUERY_LENGTH = 2;
+
+    /** Number of row IDs set aside for the stories published within the same second */
+    static final int IDS_PER_SECOND = 4096;
+
+    static final String TABLE_STORIES = "search_stories";
+    static final String TABLE_INDEX = "search_index";
+
+    static final String CREATE_STORIES = "CREATE TABLE " + TABLE_STORIES + " ("
+            + "_id INTEGER PRIMARY KEY, "
+            + "web_url TEXT NOT NULL UNIQUE, "
+            + "published_at INTEGER NOT NULL, "
+            + "title TEXT, "
+            + "section TEXT, "
+            + "author TEXT, "
+            + "thumbnail TEXT)";
+    static final String CREATE_INDEX = "CREATE VIRTUAL TABLE " + TABLE_INDEX
+            + " USING fts4 (title, section, author)";
+
+    /**
+     * Returns the next free row ID for a story published in a given second: takes the
+     * {@link #firstId first ID} of that second twice and its last ID.
+     */
+    static final String NEXT_ID = "SELECT IFNULL(MAX(_id) + 1, ?) FROM " + TABLE_STORIES
+            + " WHERE _id BETWEEN ? AND ?";
+
+    /**
+     * Adds a story: row ID, web URL, publication time, title, section, author and thumbnail
+     * URL. A story whose web URL is already indexed is ignored; it is only indexed again
+     * once removed, when {@link #FIND_STALE_ID} finds it changed.
+     */
+    static final String INSERT_STORY = "INSERT OR IGNORE INTO " + TABLE_STORIES
+            + " (_id, web_url, published_at, title, section, author, thumbnail)"
+            + " VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    /** Indexes a story: row ID of the story, title, section and author */
+    static final String INSERT_INDEX = "INSERT INTO " + TABLE_INDEX
+            + " (docid, title, section, author) VALUES (?, ?, ?, ?)";
+
+    /** Returns the row ID of the story with the given web URL */
+    static final String FIND_ID = "SELECT _id FROM " + TABLE_STORIES + " WHERE web_url = ?";
+
+    /**
+     * Returns the row ID of the story with the given web URL if it is indexed with other
+     * contents than the given publication time, title, section, author and thumbnail URL.
+     */
+    static final String FIND_STALE_ID = "SELECT _id FROM " + TABLE_STORIES
+            + " WHERE web_url = ? AND NOT (published_at = ? AND title IS ? AND section IS ?"
+            + " AND author IS ? AND thumbnail IS ?)";
+
+    /**
+     * Remove the story with the given row ID, index first and then the story itself, so
+     * a changed story can be indexed again. The index is only searched fast by docid.
+     */
+    static final String REMOVE_INDEX = "DELETE FROM " + TABLE_INDEX + " WHERE docid = ?";
+    static final String REMOVE_STORY = "DELETE FROM " + TABLE_STORIES + " WHERE _id = ?";
+
+    static final String COUNT_STORIES = "SELECT COUNT(*) FROM " + TABLE_STORIES;
+
+    /**
+     * Returns the row ID of the newest story beyond the given number of newest stories,
+     * so it and every older story can be evicted.
+     */
+    static final String EVICTION_THRESHOLD = "SELECT _id FROM " + TABLE_STORIES
+            + " ORDER BY _id DESC LIMIT 1 OFFSET ?";
+
+    /**
+     * Evict the stories with row IDs up to the given one, index first and then
+     * the stories themselves, so both use the same rows.
+     */
+    static final String EVICT_INDEX = "DELETE FROM " + TABLE_INDEX
+            + " WHERE docid IN (SELECT _id FROM " + TABLE_STORIES + " WHERE _id <= ?)";
+    static final String EVICT_STORIES = "DELETE FROM " + TABLE_STORIES + " WHERE _id <= ?";
+
+    /**
+     * Finds the stories matching a {@link #matchQuery match query}, newest first,
+     * up to the given number. Columns are publication time, title, section,
+     * web URL, author and thumbnail URL.
+     */
+    static final String SEARCH = "SELECT s.published_at, s.title, s.section, s.web_url, s.author,"
+            + " s.thumbnail"
+            + " FROM (SELECT docid FROM " + TABLE_INDEX + " WHERE " + TABLE_INDEX + " MATCH ?"
+            + " ORDER BY docid DESC LIMIT ?) m"
+            + " JOIN " + TABLE_STORIES + " s ON s._id = m.docid"
+            + " ORDER BY s._id DESC";
+
+    /**
+     * Create a private constructor because no one should ever create a {@link StorySearch}
+     * object. This class is only meant to hold constants and static methods.
+     */
+    private StorySearch() {
+    }
+
+    /**
+     * Returns the first of the {@link #IDS_PER_SECOND} row IDs of stories published
+     * in the same second as the given time. Stories without a date sort before all others.
+     */
+    static long firstId(long publishedAt) {
+        long seconds = publishedAt > 0 ? publishedAt / 1000 : 0;
+        return seconds * IDS_PER_SECOND;
+    }
+
+    /**
+     * Returns the FTS match query for text typed into the search box, or null if it
+     * holds nothing to search for, or less than {@link #MIN_QUERY_LENGTH} letters and
+     * digits. Every word is matched as a prefix, so results show up while a word is
+     * still being typed, and all words have to match.
+     *
+     * Words are lower-cased and stripped of punctuation, which also keeps the FTS
+     * operators (AND, OR, NOT, NEAR, quotes and so on) out of the query.
+     */
+    static String matchQuery(String text) {
+        if (text == null) {
+            return null;
+        }
+        StringBuilder query = new StringBuilder(text.length() + 8);
+        int length = 0;
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (!inWord && query.length() > 0) {
+                    query.append(' ');
+                }
+                query.append(c);
+                length++;
+                inWord = true;
+            } else if (inWord) {
+                query.append('*');
+                inWord = false;
+            }
+        }
+        if (inWord) {
+            query.append('*');
+        }
+        return length < MIN_QUERY_LENGTH ? null : query.toString().toLowerCase(Locale.US);
+    }
+}
@@ -0,0 +1,23 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+/**
+ * Where the {@link StoryLoader} and the {@link StorySyncService} get pages of stories
+ * from. The app uses the {@link NetworkStorySource}; the {@link CacheStorySource} and
+ * the {@link ReplayStorySource} run the same pipeline without the Guardian service,
+ * see {@link StorySources}.
+ */
+public interface StorySource {
+
+    /**
+     * Return the page for the given request URL. The cached page, if given, holds the
+     * validators of the page already stored for the URL; a source that finds it still
+     * current returns a copy of it marked with {@link StoryPage#setNotModified}.
+     *
+     * This is called on background threads, several at once, and may not take longer
+     * than the given deadline allows.
+     *
+     * @throws StoryException telling why no page could be loaded
+     */
+    StoryPage fetch(String requestUrl, StoryPage cachedPage, Deadline deadline)
+            throws StoryException;
+}
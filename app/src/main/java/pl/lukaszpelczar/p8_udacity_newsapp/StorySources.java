@@ -0,0 +1,60 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import android.content.Context;
+
+import java.io.File;
+
+/**
+ * Picks the {@link StorySource} of the build, set with the storySource Gradle property:
+ *
+ *   network   the Guardian API at the guardianApiUrl property (default)
+ *   cache     the {@link StoryCache} alone
+ *   replay    recordings pushed to the app's external files, in the "replay" directory
+ *
+ * Pointing guardianApiUrl at the benchmark module's ReplayServer runs the network
+ * source against recorded responses with simulated latency, bandwidth and errors.
+ */
+public final class StorySources {
+
+    private static final String NETWORK = "network";
+    private static final String CACHE = "cache";
+    private static final String REPLAY = "replay";
+
+    /** Directory of the recordings replayed by the replay source */
+    private static final String REPLAY_DIRECTORY = "replay";
+
+    private static StorySource sSource;
+
+    /**
+     * Create a private constructor because no one should ever create a {@link StorySources}
+     * object. This class is only meant to hold the shared source.
+     */
+    private StorySources() {
+    }
+
+    /**
+     * Returns the source of this build, creating it on first use.
+     */
+    public static synchronized StorySource get(Context context) {
+        if (sSource == null) {
+            sSource = create(context.getApplicationContext(), BuildConfig.STORY_SOURCE);
+        }
+        return sSource;
+    }
+
+    private static StorySource create(Context context, String name) {
+        if (CACHE.equals(name)) {
+            return new CacheStorySource(StoryCache.getInstance(context));
+        } else if (REPLAY.equals(name)) {
+            File directory = context.getExternalFilesDir(REPLAY_DIRECTORY);
+            if (directory == null) {
+                // External storage is not available, so look in the internal files instead
+                directory = new File(context.getFilesDir(), REPLAY_DIRECTORY);
+            }
+            return new ReplayStorySource(directory);
+        } else if (NETWORK.equals(name)) {
+            return new NetworkStorySource();
+        }
+        throw new IllegalArgumentException("Unknown story source: " + name);
+    }
+}
@@ -0,0 +1,301 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.net.Uri;
+import android.os.BatteryManager;
+import android.os.SystemClock;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the {@link StoryCache} up to date in the background, so opening the app
+ * shows fresh stories straight from the local store without waiting for the network.
+ *
+ * Every sync asks each query only for the stories published since the newest one
+ * already cached, using the API's from-date parameter, and merges them into the
+ * cached first page. Syncs run on an inexact alarm, optionally only while the network
+ * is unmetered or the device is charging, and a sync that fails is retried with
+ * exponential backoff.
+ */
+public class StorySyncService extends IntentService {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = StorySyncService.class.getSimpleName();
+
+    /** Preferences holding the sync settings and backoff state */
+    private static final String PREFERENCES = "story_sync";
+    private static final String PREF_INTERVAL = "interval";
+    private static final String PREF_UNMETERED_ONLY = "unmetered_only";
+    private static final String PREF_CHARGING_ONLY = "charging_only";
+    private static final String PREF_FAILURES = "failures";
+
+    /** Delay in milliseconds before retrying after the first failure */
+    private static final long INITIAL_BACKOFF = 60 * 1000;
+
+    /** Time in milliseconds a sync of every query may take, retries included */
+    private static final long SYNC_DEADLINE = 60 * 1000;
+
+    /** Query parameters of the delta request */
+    private static final String FROM_DATE_PARAM = "from-date";
+    private static final String PAGE_SIZE_PARAM = "page-size";
+
+    /** Number of new stories asked for by a delta request */
+    private static final int DELTA_PAGE_SIZE = 50;
+
+    /** Maximum number of stories kept in a cached first page as deltas are merged into it */
+    private static final int MAX_MERGED_STORIES = 100;
+
+    private static final Metrics.Histogram SYNC_TIME = Metrics.histogram("sync_us");
+    private static final Metrics.Counter SYNCS_SKIPPED = Metrics.counter("syncs_skipped");
+    private static final Metrics.Counter SYNCS_FAILED = Metrics.counter("syncs_failed");
+    private static final Metrics.Counter STORIES_SYNCED = Metrics.counter("stories_synced");
+
+    public StorySyncService() {
+        super(LOG_TAG);
+    }
+
+    /**
+     * Schedule periodic syncs, keeping the next sync if one is already scheduled.
+     *
+     * @param interval time in milliseconds between syncs
+     * @param unmeteredOnly whether to sync only over an unmetered network
+     * @param chargingOnly whether to sync only while the device is charging
+     */
+    public static void schedule(Context context, long interval, boolean unmeteredOnly,
+                                boolean chargingOnly) {
+        getPreferences(context).edit()
+                .putLong(PREF_INTERVAL, interval)
+                .putBoolean(PREF_UNMETERED_ONLY, unmeteredOnly)
+                .putBoolean(PREF_CHARGING_ONLY, chargingOnly)
+                .apply();
+
+        if (PendingIntent.getService(context, 0, new Intent(context, StorySyncService.class),
+                PendingIntent.FLAG_NO_CREATE) == null) {
+            scheduleNext(context, interval);
+        }
+    }
+
+    /**
+     * Set the alarm that starts the next sync after the given delay. The alarm is inexact
+     * and does not wake the device, so the system can batch it with other work.
+     */
+    private static void scheduleNext(Context context, long delay) {
+        PendingIntent pendingIntent = PendingIntent.getService(context, 0,
+                new Intent(context, StorySyncService.class), PendingIntent.FLAG_UPDATE_CURRENT);
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.set(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + delay, pendingIntent);
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * This is on a background thread.
+     */
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        SharedPreferences preferences = getPreferences(this);
+        long interval = preferences.getLong(PREF_INTERVAL, AlarmManager.INTERVAL_HOUR);
+        int failures = preferences.getInt(PREF_FAILURES, 0);
+
+        if (!canSync(preferences.getBoolean(PREF_UNMETERED_ONLY, false),
+                preferences.getBoolean(PREF_CHARGING_ONLY, false))) {
+            // Try again at the next regular sync; this is not a failure
+            SYNCS_SKIPPED.increment();
+            scheduleNext(this, interval);
+            return;
+        }
+
+        long syncStart = Metrics.beginSpan("sync");
+        // Only set once every query has been tried, so anything thrown counts as a failure
+        boolean synced = false;
+        try {
+            boolean failed = false;
+            StoryCache cache = StoryCache.getInstance(this);
+            StorySource source = StorySources.get(this);
+            Deadline deadline = new Deadline(SYNC_DEADLINE);
+            for (String queryUrl : StoryActivity.buildQueryUrls()) {
+                String pageUrl = StoryLoader.buildPageUrl(queryUrl, 1);
+                try {
+                    sync(cache, source, pageUrl, deadline);
+                } catch (StoryException e) {
+                    Log.w(LOG_TAG, "Problem syncing " + pageUrl, e);
+                    failed = true;
+                }
+            }
+            synced = !failed;
+        } catch (RuntimeException e) {
+            // From the cache or the parser: backed off like a failed request
+            Log.e(LOG_TAG, "Problem syncing the stories", e);
+        } finally {
+            Metrics.endSpan(SYNC_TIME, syncStart);
+
+            // Whatever happened, the next sync is scheduled, or the syncs would stop
+            if (synced) {
+                failures = 0;
+            } else {
+                SYNCS_FAILED.increment();
+                failures++;
+            }
+            preferences.edit().putInt(PREF_FAILURES, failures).apply();
+            scheduleNext(this, backoff(failures, interval));
+        }
+    }
+
+    /**
+     * Returns the delay before the next sync after the given number of consecutive
+     * failures: the regular interval when there are none, otherwise a delay doubling
+     * with every failure, never longer than the interval.
+     */
+    static long backoff(int failures, long interval) {
+        if (failures <= 0) {
+            return interval;
+        }
+        long delay = INITIAL_BACKOFF;
+        for (int i = 1; i < failures && delay < interval; i++) {
+            delay *= 2;
+        }
+        return Math.min(delay, interval);
+    }
+
+    /**
+     * Returns true if there is a network connection that satisfies the given conditions.
+     */
+    private boolean canSync(boolean unmeteredOnly, boolean chargingOnly) {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return false;
+        }
+        if (unmeteredOnly && ConnectivityManagerCompat.isActiveNetworkMetered(connectivityManager)) {
+            return false;
+        }
+        if (chargingOnly) {
+            // The battery status is a sticky broadcast, so no receiver is needed to read it
+            Intent batteryStatus = registerReceiver(null,
+                    new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            if (batteryStatus == null
+                    || batteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Bring the cached first page of a query up to date.
+     *
+     * @throws StoryException if the request failed
+     */
+    private void sync(StoryCache cache, StorySource source, String pageUrl, Deadline deadline)
+            throws StoryException {
+        StoryPage cached = cache.get(pageUrl);
+        long latest = cached == null ? StoryDates.NO_DATE : latestPublishedAt(cached);
+        if (latest == StoryDates.NO_DATE) {
+            // Nothing to merge into, so fetch the whole first page
+            refresh(cache, source, pageUrl, cached, deadline);
+            return;
+        }
+
+        // The API takes a calendar day, so the delta also holds stories we already have
+        // from that day; they are dropped by the merge.
+        String deltaUrl = Uri.parse(pageUrl).buildUpon()
+                .appendQueryParameter(FROM_DATE_PARAM, StoryDates.format(latest).substring(0, 10))
+                .appendQueryParameter(PAGE_SIZE_PARAM, String.valueOf(DELTA_PAGE_SIZE))
+                .build()
+                .toString();
+        StoryPage delta = source.fetch(deltaUrl, null, deadline);
+        if (delta.hasNextPage()) {
+            // Too much is new to merge without leaving a gap, so start over
+            refresh(cache, source, pageUrl, cached, deadline);
+            return;
+        }
+
+        StoryPage merged = mergeDelta(cached, delta.getStories(), System.currentTimeMillis());
+        // The new stories come first, and never so many that the cached ones are all cut
+        STORIES_SYNCED.add(merged.getStories().indexOf(cached.getStories().get(0)));
+        cache.put(pageUrl, merged, StoryIdentityMap.getInstance().merge(merged.getStories()));
+    }
+
+    /**
+     * Returns the given cached first page with the given newest-first stories merged in,
+     * at most {@link #MAX_MERGED_STORIES} of them, kept as fresh from the given time for
+     * the cache's own time-to-live.
+     *
+     * The page keeps the validators of the cached response, so the next load can still
+     * revalidate it. The server only answers them with 304 Not Modified when nothing was
+     * published since, and the merged page then holds the same stories as the cached one.
+     */
+    static StoryPage mergeDelta(StoryPage cached, List<Story> newer, long now) {
+        List<Story> stories = mergeNewer(cached.getStories(), newer);
+        if (stories.size() > MAX_MERGED_STORIES) {
+            stories = new ArrayList<>(stories.subList(0, MAX_MERGED_STORIES));
+        }
+        StoryPage merged = new StoryPage(stories, cached.getCurrentPage(), cached.getPages());
+        merged.setCacheInfo(cached.getEtag(), cached.getLastModified(), StoryPage.NO_MAX_AGE, now);
+        return merged;
+    }
+
+    /**
+     * Replace the cached first page of a query with a freshly fetched one.
+     *
+     * @throws StoryException if the request failed
+     */
+    private static void refresh(StoryCache cache, StorySource source, String pageUrl,
+                                StoryPage cached, Deadline deadline) throws StoryException {
+        StoryPage page = source.fetch(pageUrl, cached, deadline);
+        if (page.isNotModified()) {
+            cache.updateCacheInfo(pageUrl, page);
+        } else {
+            cache.put(pageUrl, page, StoryIdentityMap.getInstance().merge(page.getStories()));
+        }
+    }
+
+    /**
+     * Returns the given newest-first stories that are not among the given current ones,
+     * followed by the current stories.
+     */
+    static List<Story> mergeNewer(List<Story> current, List<Story> newer) {
+        Set<String> urls = new HashSet<>();
+        for (Story story : current) {
+            urls.add(story.getUrl());
+        }
+
+        List<Story> stories = new ArrayList<>(newer.size() + current.size());
+        for (Story story : newer) {
+            if (urls.add(story.getUrl())) {
+                stories.add(story);
+            }
+        }
+        stories.addAll(current);
+        return stories;
+    }
+
+    /**
+     * Returns the publication time of the newest story of the given page,
+     * or {@link StoryDates#NO_DATE} if none has a date.
+     */
+    private static long latestPublishedAt(StoryPage page) {
+        long latest = StoryDates.NO_DATE;
+        for (Story story : page.getStories()) {
+            latest = Math.max(latest, story.getPublishedAt());
+        }
+        return latest;
+    }
+}
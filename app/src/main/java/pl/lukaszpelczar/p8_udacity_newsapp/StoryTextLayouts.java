@@ -0,0 +1,184 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import android.content.res.Resources;
+import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Builds the text layouts of story titles, broken into at most {@link #MAX_LINES} lines
+ * and ellipsized at the end, for the width of the title in a row.
+ *
+ * Rows ask for their title's layout while they are measured, on the main thread, and a
+ * layout not built yet is built there and then. The adapter asks for the titles of the
+ * rows about to be bound to be built ahead of time on a background thread, together
+ * with their formatted dates, so that binding and measuring a row only looks them up.
+ * Layouts are built for the width of the last measured title and dropped when it
+ * changes, such as on rotation.
+ */
+public class StoryTextLayouts {
+
+    /** Tag for the background thread */
+    private static final String LOG_TAG = StoryTextLayouts.class.getSimpleName();
+
+    /** Most lines a title is shown on */
+    static final int MAX_LINES = 2;
+
+    /** Number of layouts kept, a few screens' worth of rows either way */
+    private static final int CACHE_SIZE = 300;
+
+    private static final Metrics.Counter PRECOMPUTED = Metrics.counter("title_layouts_precomputed");
+    private static final Metrics.Counter MISSES = Metrics.counter("title_layout_misses");
+    private static final Metrics.Histogram LAYOUT_TIME = Metrics.histogram("title_layout_us");
+
+    /** Paint of the titles, used on the main thread only */
+    private final TextPaint mPaint;
+
+    /** Copy of the paint for the background thread, as a paint is not thread-safe */
+    private final TextPaint mBackgroundPaint;
+
+    /** Layouts of the titles for the current width */
+    private final LruCache<String, Layout> mLayouts = new LruCache<>(CACHE_SIZE);
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, LOG_TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Width the layouts are built for, 0 until the first title is measured */
+    private int mWidth;
+
+    /** Incremented whenever the width changes, so layouts built for an old one are dropped */
+    private int mGeneration;
+
+    public StoryTextLayouts(Resources resources) {
+        mPaint = new TextPaint(TextPaint.ANTI_ALIAS_FLAG);
+        mPaint.setTextSize(resources.getDimension(R.dimen.story_title_text_size));
+        mPaint.setColor(Color.BLACK);
+        mBackgroundPaint = new TextPaint(mPaint);
+    }
+
+    /**
+     * Returns the paint the titles are drawn with.
+     */
+    TextPaint getPaint() {
+        return mPaint;
+    }
+
+    /**
+     * Returns the layout of the given title for the given width, built ahead of time if
+     * it has been, or else now. Layouts built for any other width are dropped.
+     */
+    public Layout get(String title, int width) {
+        if (width != mWidth) {
+            mWidth = width;
+            mGeneration++;
+            mLayouts.evictAll();
+        }
+        Layout layout = mLayouts.get(title);
+        if (layout == null) {
+            MISSES.increment();
+            long layoutStart = Metrics.beginSpan("title_layout");
+            layout = build(title, width, mPaint);
+            Metrics.endSpan(LAYOUT_TIME, layoutStart);
+            mLayouts.put(title, layout);
+        }
+        return layout;
+    }
+
+    /**
+     * Build the title layouts of the given stories on a background thread, and format
+     * their dates there too. The list is read straight away, so it may change afterwards.
+     *
+     * @return false if no title has been measured yet, so the width is not known
+     */
+    public boolean precompute(List<Story> stories) {
+        if (mWidth == 0) {
+            return false;
+        }
+        final int width = mWidth;
+        final int generation = mGeneration;
+        final Story[] pending = new Story[stories.size()];
+        int count = 0;
+        for (int i = 0; i < stories.size(); i++) {
+            Story story = stories.get(i);
+            // Skip the stories still being read back from their window
+            if (story != null && mLayouts.get(titleOf(story)) == null) {
+                pending[count++] = story;
+            }
+        }
+        if (count == 0) {
+            return true;
+        }
+
+        final int storyCount = count;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final String[] titles = new String[storyCount];
+                final Layout[] layouts = new Layout[storyCount];
+                for (int i = 0; i < storyCount; i++) {
+                    // Formatted once and kept by the story, for the date view
+                    pending[i].getFormattedDate();
+                    titles[i] = titleOf(pending[i]);
+                    layouts[i] = build(titles[i], width, mBackgroundPaint);
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        for (int i = 0; i < storyCount; i++) {
+                            mLayouts.put(titles[i], layouts[i]);
+                        }
+                        PRECOMPUTED.add(storyCount);
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Returns the title of the given story, or an empty string if it has none.
+     */
+    static String titleOf(Story story) {
+        return story.getTitle() == null ? "" : story.getTitle();
+    }
+
+    /**
+     * Returns the layout of the given title, ellipsized at the end of its last line if it
+     * does not fit on {@link #MAX_LINES}. Lines are broken first and the remaining text is
+     * ellipsized onto the last one, which works on every API level.
+     */
+    static Layout build(String title, int width, TextPaint paint) {
+        StaticLayout layout = new StaticLayout(title, paint, width,
+                Layout.Alignment.ALIGN_NORMAL, 1f, 0f, true);
+        if (layout.getLineCount() <= MAX_LINES) {
+            return layout;
+        }
+        int lastLineStart = layout.getLineStart(MAX_LINES - 1);
+        CharSequence lastLine = TextUtils.ellipsize(title.substring(lastLineStart), paint, width,
+                TextUtils.TruncateAt.END);
+        return new StaticLayout(title.substring(0, lastLineStart) + lastLine, paint, width,
+                Layout.Alignment.ALIGN_NORMAL, 1f, 0f, true);
+    }
+}
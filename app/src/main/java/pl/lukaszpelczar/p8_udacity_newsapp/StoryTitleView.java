@@ -0,0 +1,103 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.text.Layout;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Shows a story title from a layout built by {@link StoryTextLayouts}, in place of a
+ * TextView that would measure, break and ellipsize the title on the main thread every
+ * time its row is bound. The layout is looked up when the view is measured, once the
+ * width available to the title is known.
+ */
+public class StoryTitleView extends View {
+
+    private StoryTextLayouts mTextLayouts;
+
+    private String mText = "";
+
+    /** Layout of the text, null until the view is measured */
+    private Layout mLayout;
+
+    public StoryTitleView(Context context) {
+        super(context);
+    }
+
+    public StoryTitleView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    /**
+     * Set where the layouts of the titles are built and kept.
+     */
+    public void setTextLayouts(StoryTextLayouts textLayouts) {
+        mTextLayouts = textLayouts;
+        mLayout = null;
+        requestLayout();
+    }
+
+    /**
+     * Set the title shown, which is also read out by accessibility services.
+     */
+    public void setText(String text) {
+        if (text == null) {
+            text = "";
+        }
+        if (text.equals(mText)) {
+            return;
+        }
+        mText = text;
+        mLayout = null;
+        setContentDescription(text);
+        requestLayout();
+        invalidate();
+    }
+
+    public String getText() {
+        return mText;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int horizontalPadding = getPaddingLeft() + getPaddingRight();
+        int verticalPadding = getPaddingTop() + getPaddingBottom();
+        int available = MeasureSpec.getSize(widthMeasureSpec) - horizontalPadding;
+        if (mTextLayouts == null) {
+            mLayout = null;
+        } else if (MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.UNSPECIFIED) {
+            // Not the width of a row, so not worth keeping
+            mLayout = StoryTextLayouts.build(mText, (int) Math.ceil(
+                    Layout.getDesiredWidth(mText, mTextLayouts.getPaint())),
+                    mTextLayouts.getPaint());
+        } else if (available > 0) {
+            mLayout = mTextLayouts.get(mText, available);
+        } else {
+            mLayout = null;
+        }
+
+        if (mLayout == null) {
+            setMeasuredDimension(resolveSize(horizontalPadding, widthMeasureSpec),
+                    resolveSize(verticalPadding, heightMeasureSpec));
+            return;
+        }
+        int textWidth = 0;
+        for (int i = 0; i < mLayout.getLineCount(); i++) {
+            textWidth = Math.max(textWidth, (int) Math.ceil(mLayout.getLineWidth(i)));
+        }
+        setMeasuredDimension(resolveSize(textWidth + horizontalPadding, widthMeasureSpec),
+                resolveSize(mLayout.getHeight() + verticalPadding, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mLayout == null) {
+            return;
+        }
+        canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        mLayout.draw(canvas);
+        canvas.restore();
+    }
+}
@@ -0,0 +1,477 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import android.content.ComponentCallbacks2;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * List of every story loaded so far that keeps only a window of them on the heap.
+ *
+ * Stories are stored in blocks of {@link #BLOCK_SIZE}. Every block is written to a
+ * spill file with the {@link StoryCodec} as soon as it is full, and is then dropped
+ * from memory whenever more stories than the capacity are held, starting with the
+ * blocks farthest from the story read last. The rows being bound are read all the
+ * time, so the window follows the visible range as the list scrolls.
+ *
+ * The spill file is only read and written on a background thread. A story whose block
+ * has been dropped reads as null while the block is read back, and the
+ * {@link OnStoriesLoadedListener} is told once its stories can be shown again.
+ *
+ * Stories can only be appended or cleared. This is not thread-safe, and is meant to
+ * be used on the main thread only.
+ */
+public class StoryWindow extends AbstractList<Story> {
+
+    /**
+     * Told on the main thread when stories that read as null have been read back from
+     * the spill file.
+     */
+    public interface OnStoriesLoadedListener {
+        void onStoriesLoaded(int start, int count);
+    }
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = StoryWindow.class.getSimpleName();
+
+    /** Number of stories held on the heap, unless memory is short */
+    public static final int DEFAULT_CAPACITY = 500;
+
+    /** Number of stories read from and written to the spill file at a time */
+    static final int BLOCK_SIZE = 50;
+
+    /** Fewest stories held: the block being read and the block being filled */
+    private static final int MIN_CAPACITY = 2 * BLOCK_SIZE;
+
+    private static final Metrics.Counter BLOCKS_READ = Metrics.counter("window_blocks_read");
+    private static final Metrics.Counter BLOCKS_DROPPED = Metrics.counter("window_blocks_dropped");
+
+    /** Reads and writes the spill files, one block at a time */
+    private static final ExecutorService sSpillExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, LOG_TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final File mFile;
+
+    /** Where the spill file is read and written, and where the outcome is handed back */
+    private final Executor mSpillExecutor;
+    private final Executor mMainExecutor;
+
+    private OnStoriesLoadedListener mListener;
+
+    /** Number of stories held on the heap when memory is not short, and right now */
+    private int mMaxCapacity;
+    private int mCapacity;
+
+    /** Blocks of stories, null where a block is only in the spill file */
+    private final List<Story[]> mBlocks = new ArrayList<>();
+
+    /** Offset and length of every block in the spill file, -1 until it is written */
+    private long[] mOffsets = new long[16];
+    private int[] mLengths = new int[16];
+
+    /** Whether every block is being read back */
+    private boolean[] mReading = new boolean[16];
+
+    /** Stable ID of every story, see {@link #getId} */
+    private long[] mIds = new long[16 * BLOCK_SIZE];
+
+    private int mSize;
+    private int mResident;
+
+    /** Block of the story read last */
+    private int mCurrentBlock;
+
+    /** Incremented by every clear, so reads and writes of the stories cleared are dropped */
+    private int mGeneration;
+
+    /** Spill file, opened on the first write; only used on the spill executor */
+    private RandomAccessFile mSpill;
+    private long mSpillLength;
+    private ByteBuffer mReadBuffer;
+
+    /**
+     * @param file spill file, replaced by this window
+     * @param capacity number of stories held on the heap
+     */
+    public StoryWindow(File file, int capacity) {
+        this(file, capacity, sSpillExecutor, new Executor() {
+            private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+            @Override
+            public void execute(Runnable runnable) {
+                mMainHandler.post(runnable);
+            }
+        });
+    }
+
+    /**
+     * @param file spill file, replaced by this window
+     * @param capacity number of stories held on the heap
+     * @param spillExecutor runs the reads and writes of the spill file, one at a time
+     * @param mainExecutor runs the outcome of every read and write on the thread
+     *                     the window is used on
+     */
+    StoryWindow(File file, int capacity, Executor spillExecutor, Executor mainExecutor) {
+        mFile = file;
+        mSpillExecutor = spillExecutor;
+        mMainExecutor = mainExecutor;
+        setCapacity(capacity);
+    }
+
+    /**
+     * Set the listener told when stories have been read back, or null for none.
+     */
+    public void setOnStoriesLoadedListener(OnStoriesLoadedListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Set the number of stories held on the heap, dropping blocks straight away if
+     * more are held. This is also the capacity {@link #restoreCapacity} returns to.
+     */
+    public void setCapacity(int capacity) {
+        mMaxCapacity = Math.max(MIN_CAPACITY, capacity);
+        mCapacity = mMaxCapacity;
+        trim(-1);
+    }
+
+    /**
+     * Shrink the window as asked by {@link ComponentCallbacks2#onTrimMemory}: by half
+     * and by three quarters as memory runs low, and down to the visible stories once
+     * memory is critical or the UI is hidden.
+     */
+    public void trimMemory(int level) {
+        int capacity;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            capacity = MIN_CAPACITY;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            capacity = mMaxCapacity / 4;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            capacity = mMaxCapacity / 2;
+        } else {
+            return;
+        }
+        mCapacity = Math.max(MIN_CAPACITY, Math.min(mCapacity, capacity));
+        trim(-1);
+    }
+
+    /**
+     * Let the window grow back to its full capacity after {@link #trimMemory}.
+     */
+    public void restoreCapacity() {
+        mCapacity = mMaxCapacity;
+    }
+
+    /**
+     * Returns the story at the given position, or null if its block is only in the
+     * spill file. The block is then read back in the background, and the listener told
+     * once it has been.
+     */
+    @Override
+    public Story get(int position) {
+        checkPosition(position);
+        int block = position / BLOCK_SIZE;
+        mCurrentBlock = block;
+        Story[] stories = mBlocks.get(block);
+        if (stories == null) {
+            readBlock(block);
+            // Already there if the executors ran the read on this thread
+            stories = mBlocks.get(block);
+            if (stories == null) {
+                return null;
+            }
+        }
+        return stories[position % BLOCK_SIZE];
+    }
+
+    /**
+     * Returns true if the story at the given position is on the heap, so {@link #get}
+     * returns it rather than null.
+     */
+    public boolean isLoaded(int position) {
+        checkPosition(position);
+        return mBlocks.get(position / BLOCK_SIZE) != null;
+    }
+
+    /**
+     * Returns a stable ID for the story at the given position, the hash of its web URL,
+     * whether it is on the heap or not.
+     */
+    public long getId(int position) {
+        checkPosition(position);
+        return mIds[position];
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Append the given story. Any other index is not supported.
+     */
+    @Override
+    public void add(int index, Story story) {
+        if (index != mSize) {
+            throw new UnsupportedOperationException("Stories can only be appended");
+        }
+        int block = mSize / BLOCK_SIZE;
+        if (block == mBlocks.size()) {
+            mBlocks.add(new Story[BLOCK_SIZE]);
+            if (block == mOffsets.length) {
+                mOffsets = Arrays.copyOf(mOffsets, block * 2);
+                mLengths = Arrays.copyOf(mLengths, block * 2);
+                mReading = Arrays.copyOf(mReading, block * 2);
+                mIds = Arrays.copyOf(mIds, block * 2 * BLOCK_SIZE);
+            }
+            mOffsets[block] = -1;
+            mReading[block] = false;
+        }
+        mBlocks.get(block)[mSize % BLOCK_SIZE] = story;
+        mIds[mSize] = Story.hash(story.getUrl());
+        mSize++;
+        mResident++;
+        modCount++;
+
+        if (mSize % BLOCK_SIZE == 0) {
+            writeBlock(block);
+        }
+    }
+
+    /**
+     * Remove every story, and empty the spill file.
+     */
+    @Override
+    public void clear() {
+        mBlocks.clear();
+        mSize = 0;
+        mResident = 0;
+        mCurrentBlock = 0;
+        mGeneration++;
+        modCount++;
+        mSpillExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeSpill();
+            }
+        });
+    }
+
+    /**
+     * Returns a copy of the stories from the start of the window that are on the heap,
+     * at most the given number. Unlike {@link #get}, this neither reads the spill file
+     * nor moves the window towards the stories copied.
+     */
+    List<Story> copyLoaded(int maxCount) {
+        List<Story> stories = new ArrayList<>();
+        for (int block = 0; block < mBlocks.size() && stories.size() < maxCount; block++) {
+            Story[] blockStories = mBlocks.get(block);
+            if (blockStories == null) {
+                break;
+            }
+            int count = Math.min(Math.min(BLOCK_SIZE, mSize - block * BLOCK_SIZE),
+                    maxCount - stories.size());
+            stories.addAll(Arrays.asList(blockStories).subList(0, count));
+        }
+        return stories;
+    }
+
+    /**
+     * Returns the number of stories held on the heap.
+     */
+    int getResidentCount() {
+        return mResident;
+    }
+
+    private void checkPosition(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + mSize);
+        }
+    }
+
+    /**
+     * Drop the blocks farthest from the one read last until the window fits its
+     * capacity. Blocks not in the spill file yet are never dropped, and neither is the
+     * given block, just read back.
+     */
+    private void trim(int keptBlock) {
+        while (mResident > mCapacity) {
+            int farthest = -1;
+            int farthestDistance = 0;
+            for (int i = 0; i < mBlocks.size(); i++) {
+                int distance = Math.abs(i - mCurrentBlock);
+                if (distance > farthestDistance && i != keptBlock && mBlocks.get(i) != null
+                        && mOffsets[i] >= 0) {
+                    farthest = i;
+                    farthestDistance = distance;
+                }
+            }
+            if (farthest < 0) {
+                return;
+            }
+            mResident -= mBlocks.get(farthest).length;
+            mBlocks.set(farthest, null);
+            BLOCKS_DROPPED.increment();
+        }
+    }
+
+    /**
+     * Write the given full block to the spill file in the background. The block can
+     * be dropped once it is written.
+     */
+    private void writeBlock(final int block) {
+        final Story[] stories = mBlocks.get(block);
+        final int generation = mGeneration;
+        mSpillExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                byte[] encoded = StoryCodec.encode(new StoryPage(Arrays.asList(stories), 0, 0));
+                final long offset = write(encoded);
+                final int length = encoded.length;
+                mMainExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration || offset < 0) {
+                            // Cleared, or the block stays on the heap
+                            return;
+                        }
+                        mOffsets[block] = offset;
+                        mLengths[block] = length;
+                        trim(-1);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Read the given dropped block back from the spill file in the background, unless
+     * it is being read already.
+     */
+    private void readBlock(final int block) {
+        if (mReading[block]) {
+            return;
+        }
+        mReading[block] = true;
+        final long offset = mOffsets[block];
+        final int length = mLengths[block];
+        final int generation = mGeneration;
+        mSpillExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Story[] stories = read(offset, length);
+                mMainExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mReading[block] = false;
+                        if (stories == null || mBlocks.get(block) != null) {
+                            // Asked for again, the next time one of its stories is read
+                            return;
+                        }
+                        mBlocks.set(block, stories);
+                        mResident += stories.length;
+                        trim(block);
+                        if (mListener != null) {
+                            int start = block * BLOCK_SIZE;
+                            mListener.onStoriesLoaded(start, Math.min(BLOCK_SIZE, mSize - start));
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Append the given bytes to the spill file and return their offset in it, or -1 if
+     * they could not be written. Only called on the spill executor.
+     */
+    private long write(byte[] encoded) {
+        try {
+            if (mSpill == null) {
+                mSpill = new RandomAccessFile(mFile, "rw");
+                mSpill.setLength(0);
+                mSpillLength = 0;
+            }
+            FileChannel channel = mSpill.getChannel();
+            ByteBuffer buffer = ByteBuffer.wrap(encoded);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, mSpillLength + buffer.position());
+            }
+            long offset = mSpillLength;
+            mSpillLength += encoded.length;
+            return offset;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Problem writing to " + mFile, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the stories of the block at the given offset of the spill file, or null if
+     * it cannot be read. The file stays open until the window is cleared, so it can be
+     * read even if it has been deleted. Only called on the spill executor.
+     */
+    private Story[] read(long offset, int length) {
+        if (mReadBuffer == null || mReadBuffer.capacity() < length) {
+            mReadBuffer = ByteBuffer.allocate(Math.max(length, 16 * 1024));
+        }
+        mReadBuffer.clear();
+        mReadBuffer.limit(length);
+        try {
+            FileChannel channel = mSpill.getChannel();
+            while (mReadBuffer.hasRemaining()) {
+                if (channel.read(mReadBuffer, offset + mReadBuffer.position()) < 0) {
+                    throw new IOException("Unexpected end of " + mFile);
+                }
+            }
+            mReadBuffer.flip();
+            BLOCKS_READ.increment();
+            return StoryCodec.decode(mReadBuffer).getStories().toArray(new Story[BLOCK_SIZE]);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading stories from " + mFile, e);
+            return null;
+        }
+    }
+
+    /**
+     * Close and delete the spill file. Only called on the spill executor.
+     */
+    private void closeSpill() {
+        if (mSpill != null) {
+            try {
+                mSpill.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Problem closing " + mFile, e);
+            }
+            mSpill = null;
+        }
+        if (!mFile.delete() && mFile.exists()) {
+            Log.w(LOG_TAG, "Problem deleting " + mFile);
+        }
+        mReadBuffer = null;
+    }
+}
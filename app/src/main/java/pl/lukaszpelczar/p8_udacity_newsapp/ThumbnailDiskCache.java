@@ -0,0 +1,156 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Size-bounded disk cache of encoded thumbnails, one file per image in a directory
+ * of its own.
+ *
+ * Every read marks its file as just used, and once the files take more than the
+ * maximum size the least recently used ones are deleted until a tenth of the
+ * space is free again, so the directory is listed once per many writes.
+ */
+public class ThumbnailDiskCache {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = ThumbnailDiskCache.class.getSimpleName();
+
+    /** Suffix of the files being written, which are not part of the cache yet */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** Orders files from least to most recently used */
+    private static final Comparator<File> LEAST_RECENTLY_USED = new Comparator<File>() {
+        @Override
+        public int compare(File first, File second) {
+            long firstTime = first.lastModified();
+            long secondTime = second.lastModified();
+            return firstTime < secondTime ? -1 : (firstTime == secondTime ? 0 : 1);
+        }
+    };
+
+    private final File mDirectory;
+    private final long mMaxSize;
+
+    /** Total size in bytes of the cached files, or -1 until the directory is first read */
+    private long mSize = -1;
+
+    /**
+     * @param directory holding nothing but the cached files
+     * @param maxSize maximum total size in bytes of the cached files
+     */
+    public ThumbnailDiskCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns the file cached for the given key, marked as just used,
+     * or null if there is none.
+     */
+    public synchronized File get(String key) {
+        File file = fileFor(key);
+        if (!file.exists()) {
+            return null;
+        }
+        if (!file.setLastModified(System.currentTimeMillis())) {
+            Log.w(LOG_TAG, "Problem marking " + file + " as used");
+        }
+        return file;
+    }
+
+    /**
+     * Stores the given bytes under the given key, replacing the previous entry, and
+     * evicts the least recently used files if the cache has grown too large.
+     */
+    public synchronized void put(String key, byte[] data) throws IOException {
+        initSize();
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Problem creating " + mDirectory);
+        }
+
+        // Write to a temporary file first, so a failed write never leaves a partial entry
+        File file = fileFor(key);
+        File temp = new File(mDirectory, file.getName() + TEMP_SUFFIX);
+        OutputStream outputStream = new FileOutputStream(temp);
+        try {
+            outputStream.write(data);
+        } finally {
+            outputStream.close();
+        }
+
+        long previousSize = file.length();
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Problem storing " + file);
+        }
+        mSize += data.length - previousSize;
+
+        if (mSize > mMaxSize) {
+            trimTo(mMaxSize - mMaxSize / 10);
+        }
+    }
+
+    /**
+     * Returns the total size in bytes of the cached files.
+     */
+    public synchronized long size() {
+        initSize();
+        return mSize;
+    }
+
+    /**
+     * Delete the least recently used files until the cache takes at most the given size.
+     */
+    private void trimTo(long size) {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            mSize = 0;
+            return;
+        }
+        Arrays.sort(files, LEAST_RECENTLY_USED);
+
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        for (int i = 0; i < files.length && total > size; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                total -= length;
+            }
+        }
+        mSize = total;
+    }
+
+    private void initSize() {
+        if (mSize >= 0) {
+            return;
+        }
+        mSize = 0;
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(TEMP_SUFFIX)) {
+                    // Left over from a write that never finished
+                    file.delete();
+                } else {
+                    mSize += file.length();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the file of the given key, named after a 64-bit FNV-1a hash of the key.
+     */
+    private File fileFor(String key) {
+        return new File(mDirectory, Long.toHexString(StoryAdapter.urlId(key)));
+    }
+}
@@ -0,0 +1,413 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Loads story thumbnails into the image views of the story rows.
+ *
+ * Thumbnails are downloaded and decoded on background threads, downsampled while they
+ * are decoded and then cropped to the size of the views, so every thumbnail bitmap has
+ * the same size and config. Thumbnails are kept in a memory LRU cache bounded in bytes
+ * and, re-encoded at that small size, in a {@link ThumbnailDiskCache}, so scrolling back
+ * rarely decodes and never hits the network. Bitmaps evicted from memory are decoded
+ * into again instead of being left to the garbage collector.
+ *
+ * A request belongs to its view: loading another thumbnail into the view, or
+ * cancelling it when the row is recycled, drops the request that is still pending.
+ */
+public class ThumbnailLoader {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = ThumbnailLoader.class.getSimpleName();
+
+    /** Share of the maximum heap size used by the memory cache */
+    private static final int MEMORY_CACHE_FRACTION = 8;
+
+    /** Maximum size in bytes of the disk cache */
+    private static final long DISK_CACHE_SIZE = 10 * 1024 * 1024;
+    private static final String DISK_CACHE_DIRECTORY = "thumbnails";
+
+    /** Number of threads downloading and decoding thumbnails */
+    private static final int LOADER_THREADS = 2;
+
+    /** Maximum number of evicted bitmaps kept to be decoded into */
+    private static final int MAX_REUSABLE_BITMAPS = 8;
+
+    /** Quality of the thumbnails stored on disk */
+    private static final int JPEG_QUALITY = 85;
+
+    /** Thumbnails are opaque photos, so two bytes per pixel are enough */
+    private static final Bitmap.Config CONFIG = Bitmap.Config.RGB_565;
+
+    private static final Metrics.Histogram DECODE_TIME = Metrics.histogram("thumbnail_decode_us");
+    private static final Metrics.Counter MEMORY_HITS = Metrics.counter("thumbnail_memory_hits");
+    private static final Metrics.Counter DISK_HITS = Metrics.counter("thumbnail_disk_hits");
+    private static final Metrics.Counter DOWNLOADS = Metrics.counter("thumbnail_downloads");
+    private static final Metrics.Counter BITMAPS_REUSED = Metrics.counter("bitmaps_reused");
+
+    private static ThumbnailLoader sInstance;
+
+    /** Size in pixels of every thumbnail */
+    private final int mWidth;
+    private final int mHeight;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final ThumbnailDiskCache mDiskCache;
+
+    /** Bitmaps evicted from the memory cache, guarded by itself */
+    private final Deque<Bitmap> mReusable = new ArrayDeque<>();
+
+    /** Whether the whole memory cache is being emptied, so its bitmaps are not reused */
+    private volatile boolean mEvictingAll;
+
+    private final ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(LOADER_THREADS,
+            LOADER_THREADS, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    ThumbnailLoader(File cacheDirectory, int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mDiskCache = new ThumbnailDiskCache(cacheDirectory, DISK_CACHE_SIZE);
+
+        int memoryCacheSize = (int) (Runtime.getRuntime().maxMemory() / MEMORY_CACHE_FRACTION);
+        mMemoryCache = new LruCache<String, Bitmap>(memoryCacheSize) {
+            @Override
+            protected int sizeOf(String url, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String url, Bitmap oldBitmap,
+                                        Bitmap newBitmap) {
+                // The cache holds far more thumbnails than fit on screen, so the least
+                // recently used one is no longer shown by any row. Emptying the whole
+                // cache also evicts the ones still shown, so they are never reused.
+                if (evicted && !mEvictingAll) {
+                    synchronized (mReusable) {
+                        if (mReusable.size() < MAX_REUSABLE_BITMAPS) {
+                            mReusable.push(oldBitmap);
+                        }
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the process-wide {@link ThumbnailLoader}, sized for the thumbnail views.
+     */
+    public static synchronized ThumbnailLoader getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new ThumbnailLoader(
+                    new File(appContext.getCacheDir(), DISK_CACHE_DIRECTORY),
+                    appContext.getResources().getDimensionPixelSize(R.dimen.thumbnail_width),
+                    appContext.getResources().getDimensionPixelSize(R.dimen.thumbnail_height));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Show the thumbnail at the given URL in the given view, straight away if it is in
+     * memory and otherwise once it has been loaded. The view is cleared while it waits,
+     * and stays clear if the URL is null or the thumbnail cannot be loaded.
+     * Called on the main thread.
+     */
+    public void load(String url, ImageView view) {
+        cancel(view);
+        if (url == null) {
+            view.setImageDrawable(null);
+            return;
+        }
+
+        Bitmap bitmap = mMemoryCache.get(url);
+        if (bitmap != null) {
+            MEMORY_HITS.increment();
+            view.setImageBitmap(bitmap);
+            return;
+        }
+
+        view.setImageDrawable(null);
+        ThumbnailRequest request = new ThumbnailRequest(url, view);
+        view.setTag(request);
+        request.mFuture = mExecutor.submit(request);
+    }
+
+    /**
+     * Give back memory as asked by {@link ComponentCallbacks2#onTrimMemory}: half of the
+     * memory cache while memory runs low, and all of it, along with the bitmaps kept for
+     * reuse, once it is critical or the UI is hidden. Called on the main thread.
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            evictAll();
+            synchronized (mReusable) {
+                mReusable.clear();
+            }
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+                mMemoryCache.trimToSize(mMemoryCache.maxSize() / 2);
+            } else {
+                evictAll();
+            }
+        }
+    }
+
+    /**
+     * Empty the memory cache without keeping any of its bitmaps for reuse, as rows on
+     * screen may still show them.
+     */
+    private void evictAll() {
+        mEvictingAll = true;
+        try {
+            mMemoryCache.evictAll();
+        } finally {
+            mEvictingAll = false;
+        }
+    }
+
+    /**
+     * Drop the request still pending for the given view, if any.
+     * Called on the main thread, for example when the view's row is recycled.
+     */
+    public void cancel(ImageView view) {
+        Object tag = view.getTag();
+        if (tag instanceof ThumbnailRequest) {
+            ThumbnailRequest request = (ThumbnailRequest) tag;
+            request.mCancelled = true;
+            if (request.mFuture != null) {
+                // Take it off the queue, so a fast fling does not leave a backlog behind
+                mExecutor.remove((Runnable) request.mFuture);
+            }
+            view.setTag(null);
+        }
+    }
+
+    /**
+     * Returns the thumbnail at the given URL from the disk cache or the network,
+     * or null if it could not be loaded or the request was cancelled.
+     * Called on a loader thread.
+     */
+    private Bitmap loadBitmap(String url, ThumbnailRequest request) {
+        File file = mDiskCache.get(url);
+        if (file != null) {
+            DISK_HITS.increment();
+            long decodeStart = Metrics.beginSpan("thumbnail_decode");
+            Bitmap bitmap = decodeFile(file);
+            Metrics.endSpan(DECODE_TIME, decodeStart);
+            if (bitmap != null) {
+                return bitmap;
+            }
+        }
+        if (request.mCancelled) {
+            return null;
+        }
+
+        byte[] data;
+        Response response = null;
+        try {
+            DOWNLOADS.increment();
+            response = StoryHttpClient.getClient()
+                    .newCall(new Request.Builder().url(url).get().build())
+                    .execute();
+            if (!response.isSuccessful()) {
+                Log.w(LOG_TAG, "Error response code " + response.code() + " for " + url);
+                return null;
+            }
+            data = response.body().bytes();
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Problem downloading " + url, e);
+            return null;
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+        }
+        if (request.mCancelled) {
+            return null;
+        }
+
+        long decodeStart = Metrics.beginSpan("thumbnail_decode");
+        Bitmap bitmap = decodeDownloaded(data);
+        Metrics.endSpan(DECODE_TIME, decodeStart);
+        if (bitmap == null) {
+            Log.w(LOG_TAG, "Problem decoding " + url);
+            return null;
+        }
+
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        if (bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, encoded)) {
+            try {
+                mDiskCache.put(url, encoded.toByteArray());
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Problem caching " + url, e);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decode a thumbnail written to the disk cache. It has the size of every thumbnail,
+     * so it can be decoded straight into an evicted bitmap.
+     */
+    private Bitmap decodeFile(File file) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = CONFIG;
+        options.inMutable = true;
+        options.inBitmap = takeReusable();
+        try {
+            Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+            if (bitmap != null && options.inBitmap != null) {
+                BITMAPS_REUSED.increment();
+            }
+            return bitmap;
+        } catch (IllegalArgumentException e) {
+            // The file does not fit the bitmap after all, so decode it on its own
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        }
+    }
+
+    /**
+     * Decode a downloaded image, downsampled to no less than the thumbnail size,
+     * and crop its center into a thumbnail.
+     */
+    private Bitmap decodeDownloaded(byte[] data) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize(options.outWidth, options.outHeight, mWidth, mHeight);
+        options.inPreferredConfig = CONFIG;
+        Bitmap sampled = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (sampled == null) {
+            return null;
+        }
+
+        Bitmap thumbnail = takeReusable();
+        if (thumbnail != null) {
+            BITMAPS_REUSED.increment();
+        } else {
+            thumbnail = Bitmap.createBitmap(mWidth, mHeight, CONFIG);
+        }
+        new Canvas(thumbnail).drawBitmap(sampled,
+                centerCrop(sampled.getWidth(), sampled.getHeight(), mWidth, mHeight),
+                new Rect(0, 0, mWidth, mHeight), new Paint(Paint.FILTER_BITMAP_FLAG));
+        sampled.recycle();
+        return thumbnail;
+    }
+
+    /**
+     * Returns an evicted bitmap that can be drawn or decoded into, or null if there is none.
+     */
+    private Bitmap takeReusable() {
+        synchronized (mReusable) {
+            while (!mReusable.isEmpty()) {
+                Bitmap bitmap = mReusable.pop();
+                if (!bitmap.isRecycled() && bitmap.isMutable()
+                        && bitmap.getWidth() == mWidth && bitmap.getHeight() == mHeight) {
+                    return bitmap;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the largest power of two the given image can be divided by while both of
+     * its sides stay at least as large as the requested ones.
+     */
+    static int sampleSize(int width, int height, int requestedWidth, int requestedHeight) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= requestedWidth
+                && height / (sampleSize * 2) >= requestedHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Returns the largest centered part of an image of the given size
+     * that has the aspect ratio of the requested size.
+     */
+    private static Rect centerCrop(int width, int height, int requestedWidth,
+                                   int requestedHeight) {
+        if ((long) width * requestedHeight > (long) height * requestedWidth) {
+            int croppedWidth = (int) ((long) height * requestedWidth / requestedHeight);
+            int left = (width - croppedWidth) / 2;
+            return new Rect(left, 0, left + croppedWidth, height);
+        }
+        int croppedHeight = (int) ((long) width * requestedHeight / requestedWidth);
+        int top = (height - croppedHeight) / 2;
+        return new Rect(0, top, width, top + croppedHeight);
+    }
+
+    /**
+     * Loads one thumbnail on a loader thread and shows it in its view on the main thread,
+     * unless the view has moved on to another request in the meantime.
+     */
+    private class ThumbnailRequest implements Runnable {
+
+        private final String mUrl;
+        private final ImageView mView;
+        private volatile boolean mCancelled;
+        private Future<?> mFuture;
+
+        ThumbnailRequest(String url, ImageView view) {
+            mUrl = url;
+            mView = view;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            final Bitmap bitmap = loadBitmap(mUrl, this);
+            if (bitmap == null) {
+                return;
+            }
+            mMemoryCache.put(mUrl, bitmap);
+
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mView.getTag() == ThumbnailRequest.this) {
+                        mView.setTag(null);
+                        mView.setImageBitmap(bitmap);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * A {@link Reader} that decodes UTF-8 straight from a response body.
+ *
+ * Bytes are read into a single buffer from the {@link ByteArrayPool}, sized from the
+ * length of the body when it is known, and decoded into the caller's array without any
+ * intermediate char buffer or String. Runs of ASCII, which is most of a JSON response,
+ * are copied in a tight loop. Malformed input is replaced with U+FFFD, like the
+ * platform decoder does.
+ *
+ * The buffer goes back to the pool when the reader is closed.
+ */
+final class Utf8Reader extends Reader {
+
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final InputStream mInput;
+
+    /** Read buffer; bytes between mPosition and mLimit have not been decoded yet */
+    private byte[] mBuffer;
+    private int mPosition;
+    private int mLimit;
+
+    /** Low surrogate that did not fit into the last read, or 0 if there is none */
+    private char mPendingLowSurrogate;
+
+    /**
+     * @param input the body to decode
+     * @param contentLength length of the body in bytes, or -1 if it is not known
+     */
+    Utf8Reader(InputStream input, long contentLength) {
+        mInput = input;
+        mBuffer = ByteArrayPool.acquire(contentLength);
+    }
+
+    @Override
+    public int read(char[] chars, int offset, int length) throws IOException {
+        if (mBuffer == null) {
+            throw new IOException("Reader is closed");
+        }
+        if (length == 0) {
+            return 0;
+        }
+
+        int out = offset;
+        int end = offset + length;
+        if (mPendingLowSurrogate != 0) {
+            chars[out++] = mPendingLowSurrogate;
+            mPendingLowSurrogate = 0;
+        }
+
+        byte[] buffer = mBuffer;
+        while (out < end) {
+            if (mPosition == mLimit) {
+                // Hand back what has been decoded rather than block for more input
+                if (out > offset || !fill(1)) {
+                    break;
+                }
+            }
+
+            int b = buffer[mPosition];
+            if (b >= 0) {
+                // Copy a run of ASCII characters
+                int run = Math.min(end - out, mLimit - mPosition);
+                int position = mPosition;
+                int runEnd = position + run;
+                while (position < runEnd && buffer[position] >= 0) {
+                    chars[out++] = (char) buffer[position++];
+                }
+                mPosition = position;
+                continue;
+            }
+
+            int codePoint = decodeMultiByte(b & 0xff);
+            if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                chars[out++] = (char) codePoint;
+            } else {
+                // Split into a surrogate pair; Character.highSurrogate and lowSurrogate
+                // are not available on older Android versions
+                int offsetCodePoint = codePoint - Character.MIN_SUPPLEMENTARY_CODE_POINT;
+                chars[out++] = (char) (Character.MIN_HIGH_SURROGATE + (offsetCodePoint >>> 10));
+                char low = (char) (Character.MIN_LOW_SURROGATE + (offsetCodePoint & 0x3ff));
+                if (out < end) {
+                    chars[out++] = low;
+                } else {
+                    mPendingLowSurrogate = low;
+                }
+            }
+        }
+
+        int count = out - offset;
+        return count == 0 ? -1 : count;
+    }
+
+    /**
+     * Decode the sequence starting with the given lead byte at the current position,
+     * advance past it and return its code point, or U+FFFD if it is malformed.
+     * A malformed sequence consumes only its lead byte.
+     */
+    private int decodeMultiByte(int lead) throws IOException {
+        int needed;
+        int minimum;
+        int codePoint;
+        if (lead >= 0xc2 && lead <= 0xdf) {
+            needed = 2;
+            minimum = 0x80;
+            codePoint = lead & 0x1f;
+        } else if (lead >= 0xe0 && lead <= 0xef) {
+            needed = 3;
+            minimum = 0x800;
+            codePoint = lead & 0x0f;
+        } else if (lead >= 0xf0 && lead <= 0xf4) {
+            needed = 4;
+            minimum = Character.MIN_SUPPLEMENTARY_CODE_POINT;
+            codePoint = lead & 0x07;
+        } else {
+            // A continuation byte, an overlong lead or a lead beyond U+10FFFF
+            mPosition++;
+            return REPLACEMENT;
+        }
+
+        if (mLimit - mPosition < needed && !fill(needed)) {
+            // The sequence is cut off by the end of the input
+            mPosition++;
+            return REPLACEMENT;
+        }
+
+        for (int i = 1; i < needed; i++) {
+            int next = mBuffer[mPosition + i];
+            if ((next & 0xc0) != 0x80) {
+                mPosition++;
+                return REPLACEMENT;
+            }
+            codePoint = (codePoint << 6) | (next & 0x3f);
+        }
+        if (codePoint < minimum || codePoint > Character.MAX_CODE_POINT
+                || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+            mPosition++;
+            return REPLACEMENT;
+        }
+
+        mPosition += needed;
+        return codePoint;
+    }
+
+    /**
+     * Read from the input until at least the given number of bytes are buffered,
+     * moving the undecoded bytes to the start of the buffer first.
+     *
+     * @return false if the input ended before that many bytes were available
+     */
+    private boolean fill(int minimum) throws IOException {
+        int remaining = mLimit - mPosition;
+        if (mPosition > 0) {
+            System.arraycopy(mBuffer, mPosition, mBuffer, 0, remaining);
+            mPosition = 0;
+            mLimit = remaining;
+        }
+        while (mLimit < minimum) {
+            int read = mInput.read(mBuffer, mLimit, mBuffer.length - mLimit);
+            if (read == -1) {
+                return false;
+            }
+            mLimit += read;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mBuffer == null) {
+            return;
+        }
+        ByteArrayPool.release(mBuffer);
+        mBuffer = null;
+        mInput.close();
+    }
+}
@@ -0,0 +1,57 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link Deadline}.
+ */
+public class DeadlineTest {
+
+    @Test
+    public void check_passesBeforeDeadline() throws Exception {
+        Deadline deadline = new Deadline(60 * 1000);
+        deadline.check();
+        assertTrue(deadline.remaining() > 0);
+    }
+
+    @Test
+    public void check_throwsTimeoutOncePassed() throws Exception {
+        Deadline deadline = new Deadline(0);
+        assertEquals(0, deadline.remaining());
+        try {
+            deadline.check();
+            fail();
+        } catch (StoryException e) {
+            assertEquals(StoryException.Kind.TIMEOUT, e.getKind());
+            assertTrue(e.isTransient());
+        }
+    }
+
+    @Test
+    public void cancel_wakesSleepingThread() throws Exception {
+        final Deadline deadline = new Deadline(60 * 1000);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                deadline.cancel();
+            }
+        }).start();
+
+        long start = System.currentTimeMillis();
+        try {
+            deadline.sleep(30 * 1000);
+            fail();
+        } catch (StoryException e) {
+            assertEquals(StoryException.Kind.CANCELLED, e.getKind());
+            assertFalse(e.isTransient());
+        }
+        assertTrue(System.currentTimeMillis() - start < 10 * 1000);
+    }
+}
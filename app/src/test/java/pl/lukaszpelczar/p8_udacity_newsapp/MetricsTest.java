@@ -0,0 +1,52 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the counters and histograms of {@link Metrics}.
+ */
+public class MetricsTest {
+    @Test
+    public void counter_isRegisteredOnce() throws Exception {
+        Metrics.Counter counter = Metrics.counter("test_counter");
+        counter.increment();
+        counter.add(2);
+        assertSame(counter, Metrics.counter("test_counter"));
+        assertEquals(3, Metrics.counter("test_counter").get());
+    }
+
+    @Test
+    public void histogram_percentilesAreBucketUpperBounds() throws Exception {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        for (int value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050, histogram.getSum());
+        assertEquals(100, histogram.getMax());
+        // 50 falls in the bucket 32..63, 99 in the bucket 64..127 capped by the maximum
+        assertEquals(63, histogram.percentile(0.5));
+        assertEquals(100, histogram.percentile(0.99));
+    }
+
+    @Test
+    public void histogram_emptyAndNegative() throws Exception {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        assertEquals(0, histogram.percentile(0.5));
+        histogram.record(-5);
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.percentile(0.99));
+    }
+
+    @Test
+    public void snapshot_containsRegisteredMetrics() throws Exception {
+        Metrics.counter("snapshot_counter").increment();
+        Metrics.histogram("snapshot_histogram").record(10);
+        String snapshot = Metrics.snapshot();
+        assertTrue(snapshot.startsWith("{\"time\":"));
+        assertTrue(snapshot.contains("\"snapshot_counter\":1"));
+        assertTrue(snapshot.contains("\"snapshot_histogram\":{\"count\":1,\"sum\":10,\"max\":10"));
+    }
+}
@@ -0,0 +1,61 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ReplayStorySource}.
+ */
+public class ReplayStorySourceTest {
+
+    private static final String URL =
+            "https://content.guardianapis.com/search?q=bitcoin&api-key=secret&page=2";
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = File.createTempFile("replay", "");
+        assertTrue(mDirectory.delete());
+        assertTrue(mDirectory.mkdir());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void recordingName_ignoresHostParamOrderAndKey() {
+        String name = ReplayStorySource.recordingName(URL);
+
+        assertEquals(name, ReplayStorySource.recordingName(
+                "http://10.0.2.2:8080/search?page=2&api-key=other&q=bitcoin"));
+        assertFalse(name.contains("secret"));
+        assertFalse(name.contains("/"));
+        assertFalse(name.equals(ReplayStorySource.recordingName(
+                "http://10.0.2.2:8080/search?page=3&q=bitcoin")));
+    }
+
+    @Test
+    public void fetch_withoutRecording_failsPermanently() {
+        try {
+            new ReplayStorySource(mDirectory).fetch(URL, null, new Deadline(1000));
+            fail();
+        } catch (StoryException e) {
+            assertEquals(StoryException.Kind.REQUEST, e.getKind());
+            assertFalse(e.isTransient());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SingleFlight}.
+ */
+public class SingleFlightTest {
+
+    private static final int CALLERS = 16;
+
+    @Test
+    public void simultaneousCallers_shareOneCall() throws Exception {
+        final SingleFlight<Object> singleFlight = new SingleFlight<>();
+        final AtomicInteger upstreamCalls = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Object result = new Object();
+
+        final Callable<Object> upstream = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                upstreamCalls.incrementAndGet();
+                started.countDown();
+                release.await();
+                return result;
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        List<Future<Object>> futures = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            futures.add(executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return singleFlight.execute("key", upstream);
+                }
+            }));
+        }
+
+        // Let every caller reach the running call before it completes
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        release.countDown();
+
+        for (Future<Object> future : futures) {
+            assertSame(result, future.get(5, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+
+        assertEquals(1, upstreamCalls.get());
+        assertEquals(0, singleFlight.inFlight());
+    }
+
+    @Test
+    public void sequentialCallers_eachMakeACall() throws Exception {
+        SingleFlight<Integer> singleFlight = new SingleFlight<>();
+        final AtomicInteger upstreamCalls = new AtomicInteger();
+        Callable<Integer> upstream = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return upstreamCalls.incrementAndGet();
+            }
+        };
+
+        assertEquals(Integer.valueOf(1), singleFlight.execute("key", upstream));
+        assertEquals(Integer.valueOf(2), singleFlight.execute("key", upstream));
+    }
+
+    @Test
+    public void differentKeys_doNotJoin() throws Exception {
+        SingleFlight<String> singleFlight = new SingleFlight<>();
+        assertEquals("a", singleFlight.execute("a", constant("a")));
+        assertEquals("b", singleFlight.execute("b", constant("b")));
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void failedCall_isReportedToTheCaller() throws Exception {
+        new SingleFlight<String>().execute("key", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                throw new IllegalStateException("upstream failed");
+            }
+        });
+    }
+
+    private static Callable<String> constant(final String value) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                return value;
+            }
+        };
+    }
+}
@@ -0,0 +1,62 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the scan of {@link StoryBatchParser} that splits the results array.
+ */
+public class StoryBatchParserTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void splitResults_findsElementBoundaries() throws Exception {
+        String json = "{\"response\":{\"pages\":3,\"results\":[{\"a\":1},{\"b\":[2,3]},{}]}}";
+        int[] bounds = StoryBatchParser.splitResults(json.getBytes(UTF_8));
+
+        assertNotNull(bounds);
+        assertEquals(4, bounds.length);
+        assertEquals(json.indexOf('['), bounds[0]);
+        assertEquals(json.indexOf(",{\"b\""), bounds[1]);
+        assertEquals(json.indexOf(",{}"), bounds[2]);
+        assertEquals(json.lastIndexOf(']'), bounds[3]);
+    }
+
+    @Test
+    public void splitResults_ignoresStructureInsideStrings() throws Exception {
+        String json = "{\"response\":{\"results\":[{\"t\":\"a, [b] \\\"{c}\\\" \u00e9\"},{\"t\":\"]\"}]}}";
+        byte[] body = json.getBytes(UTF_8);
+        int[] bounds = StoryBatchParser.splitResults(body);
+
+        // Offsets count bytes, and the accented letter takes two
+        assertNotNull(bounds);
+        assertEquals(3, bounds.length);
+        assertEquals(json.indexOf("},{") + 2, bounds[1]);
+        assertEquals(body.length - 3, bounds[2]);
+    }
+
+    @Test
+    public void splitResults_onlyMatchesResultsKeyOfResponse() throws Exception {
+        String json = "{\"response\":{\"status\":\"results\",\"tags\":[1,2],"
+                + "\"nested\":{\"results\":[3,4]},\"results\":[5,6]}}";
+        int[] bounds = StoryBatchParser.splitResults(json.getBytes(UTF_8));
+
+        assertNotNull(bounds);
+        assertEquals(json.lastIndexOf('['), bounds[0]);
+        assertEquals(json.lastIndexOf(','), bounds[1]);
+    }
+
+    @Test
+    public void splitResults_returnsNullWithoutElements() throws Exception {
+        assertNull(StoryBatchParser.splitResults(
+                "{\"response\":{\"results\":[ ]}}".getBytes(UTF_8)));
+        assertNull(StoryBatchParser.splitResults(
+                "{\"response\":{\"pages\":1}}".getBytes(UTF_8)));
+        assertNull(StoryBatchParser.splitResults(
+                "{\"response\":{\"results\":[{},{}".getBytes(UTF_8)));
+    }
+}
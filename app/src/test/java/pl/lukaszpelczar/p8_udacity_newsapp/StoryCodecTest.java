@@ -0,0 +1,150 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link StoryCodec}.
+ */
+public class StoryCodecTest {
+
+    private static StoryPage page(Story... stories) {
+        StoryPage page = new StoryPage(new ArrayList<>(Arrays.asList(stories)), 3, 12);
+        page.setCacheInfo("\"etag\"", null, 60, 1500000123456L);
+        return page;
+    }
+
+    private static void assertSameStories(List<Story> expected, List<Story> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Story e = expected.get(i);
+            Story a = actual.get(i);
+            assertEquals(e.getPublishedAt(), a.getPublishedAt());
+            assertEquals(e.getTitle(), a.getTitle());
+            assertEquals(e.getSection(), a.getSection());
+            assertEquals(e.getUrl(), a.getUrl());
+            assertEquals(e.getAuthor(), a.getAuthor());
+            assertEquals(e.getThumbnail(), a.getThumbnail());
+        }
+    }
+
+    @Test
+    public void decode_returnsEncodedPage() throws Exception {
+        StoryPage page = page(
+                new Story(1500000000000L, "Bitcoin \u20ac rally", "Technology",
+                        "https://www.theguardian.com/a", "Alex Hern", "https://media.guim.co.uk/a.jpg"),
+                new Story(1499990000000L, "Ledger", "Business",
+                        "https://www.theguardian.com/b", "Alex Hern", null),
+                // Out of order, so the time delta is negative
+                new Story(1500100000000L, "Later", "Technology",
+                        "https://www.theguardian.com/c", null, null));
+
+        StoryPage decoded = StoryCodec.decode(ByteBuffer.wrap(StoryCodec.encode(page)));
+
+        assertSameStories(page.getStories(), decoded.getStories());
+        assertEquals(3, decoded.getCurrentPage());
+        assertEquals(12, decoded.getPages());
+        assertEquals(1500000123456L, decoded.getFetchedAt());
+        // Validators are not kept
+        assertNull(decoded.getEtag());
+        assertEquals(StoryPage.NO_MAX_AGE, decoded.getMaxAge());
+    }
+
+    @Test
+    public void decode_keepsNullAndEmptyFieldsApart() throws Exception {
+        StoryPage page = page(new Story(0, "", null, "", "", null));
+
+        Story decoded = StoryCodec.decode(ByteBuffer.wrap(StoryCodec.encode(page)))
+                .getStories().get(0);
+
+        assertEquals("", decoded.getTitle());
+        assertNull(decoded.getSection());
+        assertEquals("", decoded.getAuthor());
+        assertNull(decoded.getThumbnail());
+    }
+
+    @Test
+    public void encode_writesRepeatedNamesOnce() {
+        List<Story> stories = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            stories.add(new Story(1500000000000L - i * 60000L, "t", "A rather long section name",
+                    "u", "A rather long author name", null));
+        }
+
+        byte[] encoded = StoryCodec.encode(page(stories.toArray(new Story[0])));
+
+        // Every story takes a handful of bytes, however long its section and author names
+        assertTrue("Encoded size " + encoded.length, encoded.length < 100 * 12);
+    }
+
+    @Test
+    public void decode_longString() throws Exception {
+        char[] title = new char[5000];
+        Arrays.fill(title, '\u00e9');
+        StoryPage page = page(new Story(1, new String(title), "s", "u", "a", null));
+
+        Story decoded = StoryCodec.decode(ByteBuffer.wrap(StoryCodec.encode(page)))
+                .getStories().get(0);
+
+        assertEquals(new String(title), decoded.getTitle());
+    }
+
+    @Test
+    public void decode_rejectsNewerVersion() {
+        byte[] encoded = StoryCodec.encode(page());
+        // The version follows the four bytes of the magic number
+        encoded[4] = (byte) (StoryCodec.VERSION + 1);
+
+        try {
+            StoryCodec.decode(ByteBuffer.wrap(encoded));
+            fail("Expected an IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void decode_rejectsOtherData() {
+        try {
+            StoryCodec.decode(ByteBuffer.wrap("{\"response\":{}}".getBytes()));
+            fail("Expected an IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void decode_rejectsTruncatedData() {
+        byte[] encoded = StoryCodec.encode(page(
+                new Story(1, "title", "section", "url", "author", "thumbnail")));
+
+        for (int length = 0; length < encoded.length; length++) {
+            try {
+                StoryCodec.decode(ByteBuffer.wrap(encoded, 0, length));
+                fail("Expected an IOException at length " + length);
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void read_returnsWrittenPage() throws Exception {
+        File file = File.createTempFile("stories", ".bin");
+        try {
+            StoryPage page = page(
+                    new Story(1500000000000L, "title", "section", "url", "author", "thumbnail"));
+            StoryCodec.write(page, file);
+
+            assertSameStories(page.getStories(), StoryCodec.read(file).getStories());
+            assertFalse(new File(file.getPath() + ".tmp").exists());
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link StoryDates}.
+ */
+public class StoryDatesTest {
+    @Test
+    public void parse_guardianDate() throws Exception {
+        assertEquals(1515846727000L, StoryDates.parse("2018-01-13T12:32:07Z"));
+    }
+
+    @Test
+    public void parse_ignoresFraction() throws Exception {
+        assertEquals(1515846727000L, StoryDates.parse("2018-01-13T12:32:07.123Z"));
+    }
+
+    @Test
+    public void parse_malformedDate() throws Exception {
+        assertEquals(StoryDates.NO_DATE, StoryDates.parse(null));
+        assertEquals(StoryDates.NO_DATE, StoryDates.parse(""));
+        assertEquals(StoryDates.NO_DATE, StoryDates.parse("2018-01-13"));
+        assertEquals(StoryDates.NO_DATE, StoryDates.parse("2018-13-13T12:32:07Z"));
+        assertEquals(StoryDates.NO_DATE, StoryDates.parse("2018-01-13 12:32:07Z"));
+    }
+
+    @Test
+    public void format_matchesListLayout() throws Exception {
+        assertEquals("2018-01-13  12:32:07", StoryDates.format(1515846727000L));
+        assertEquals("2016-02-29  00:00:00", StoryDates.format(StoryDates.parse("2016-02-29T00:00:00Z")));
+        assertEquals("", StoryDates.format(StoryDates.NO_DATE));
+    }
+}
@@ -0,0 +1,144 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the merge of several queries by {@link StoryFanOut.Merger}.
+ */
+public class StoryFanOutTest {
+
+    @Test
+    public void next_holdsBackStoriesOlderThanPagesStillToLoad() throws Exception {
+        // A is dense, B is sparse: B's first page reaches further back than A's second
+        FakeLoader loader = new FakeLoader();
+        loader.add("A", stories("a", 100, 98, 96), stories("a", 94, 92, 90));
+        loader.add("B", stories("b", 97, 85), stories("b", 80));
+        StoryFanOut.Merger merger =
+                new StoryFanOut.Merger(Arrays.asList("A", "B"), new HashSet<String>());
+
+        StoryPage first = merger.next(1, loader);
+        assertEquals(Arrays.asList("a100", "a98", "b97", "a96"), urls(first));
+        assertTrue(first.hasNextPage());
+
+        // Only A held B back, so only A loads its next page
+        StoryPage second = merger.next(2, loader);
+        assertEquals(Arrays.asList("a94", "a92", "a90", "b85"), urls(second));
+        List<String> loads = new ArrayList<>(loader.mLoads);
+        Collections.sort(loads);
+        assertEquals(Arrays.asList("A:1", "A:2", "B:1"), loads);
+        assertTrue(second.hasNextPage());
+
+        StoryPage third = merger.next(3, loader);
+        assertEquals(Arrays.asList("b80"), urls(third));
+        assertFalse(third.hasNextPage());
+        assertFalse(merger.hasMore());
+    }
+
+    @Test
+    public void next_handsOutStoriesOfSeveralQueriesOnce() throws Exception {
+        FakeLoader loader = new FakeLoader();
+        loader.add("A", stories("x", 30, 20, 10));
+        loader.add("B", stories("x", 20));
+        StoryFanOut.Merger merger =
+                new StoryFanOut.Merger(Arrays.asList("A", "B"), new HashSet<String>());
+
+        assertEquals(Arrays.asList("x30", "x20", "x10"), urls(merger.next(1, loader)));
+    }
+
+    @Test
+    public void next_skipsSeenStories() throws Exception {
+        FakeLoader loader = new FakeLoader();
+        loader.add("A", stories("a", 30, 20), stories("a", 10));
+        StoryFanOut.Merger merger = new StoryFanOut.Merger(Arrays.asList("A"),
+                new HashSet<>(Arrays.asList("a30", "a20")));
+
+        // Keeps loading until there is something new to hand out
+        assertEquals(Arrays.asList("a10"), urls(merger.next(2, loader)));
+    }
+
+    @Test
+    public void next_failedQueryDoesNotHoldOthersBack() throws Exception {
+        FakeLoader loader = new FakeLoader();
+        loader.add("A", stories("a", 30, 20));
+        loader.add("B", stories("b", 25));
+        loader.mFailing.add("B");
+        StoryFanOut.Merger merger =
+                new StoryFanOut.Merger(Arrays.asList("A", "B"), new HashSet<String>());
+
+        StoryPage first = merger.next(1, loader);
+        assertEquals(Arrays.asList("a30", "a20"), urls(first));
+        assertTrue(first.hasNextPage());
+
+        // B is loaded again once it works
+        loader.mFailing.clear();
+        assertEquals(Arrays.asList("b25"), urls(merger.next(2, loader)));
+        assertFalse(merger.hasMore());
+    }
+
+    @Test
+    public void next_everyLoadFailed_returnsNull() throws Exception {
+        FakeLoader loader = new FakeLoader();
+        loader.add("A", stories("a", 30));
+        loader.mFailing.add("A");
+        StoryFanOut.Merger merger =
+                new StoryFanOut.Merger(Arrays.asList("A"), new HashSet<String>());
+
+        assertNull(merger.next(1, loader));
+        assertTrue(merger.hasMore());
+    }
+
+    /**
+     * Returns stories published at the given times, with web URLs made of the given
+     * prefix and the time.
+     */
+    private static List<Story> stories(String prefix, long... times) {
+        List<Story> stories = new ArrayList<>();
+        for (long time : times) {
+            stories.add(new Story(time, "Title", "Section", prefix + time, "Author"));
+        }
+        return stories;
+    }
+
+    private static List<String> urls(StoryPage page) {
+        List<String> urls = new ArrayList<>();
+        for (Story story : page.getStories()) {
+            urls.add(story.getUrl());
+        }
+        return urls;
+    }
+
+    /**
+     * Serves the pages given for every query, and records the pages loaded.
+     */
+    private static class FakeLoader implements StoryFanOut.PageLoader {
+
+        final Map<String, List<List<Story>>> mPages = new HashMap<>();
+        final List<String> mLoads = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> mFailing = Collections.synchronizedList(new ArrayList<String>());
+
+        @SafeVarargs
+        final void add(String queryUrl, List<Story>... pages) {
+            mPages.put(queryUrl, Arrays.asList(pages));
+        }
+
+        @Override
+        public StoryPage load(String queryUrl, int pageNumber) {
+            if (mFailing.contains(queryUrl)) {
+                return null;
+            }
+            mLoads.add(queryUrl + ":" + pageNumber);
+            List<List<Story>> pages = mPages.get(queryUrl);
+            return new StoryPage(pages.get(pageNumber - 1), pageNumber, pages.size());
+        }
+    }
+}
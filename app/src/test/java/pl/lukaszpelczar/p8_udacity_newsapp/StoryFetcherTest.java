@@ -0,0 +1,52 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the retry backoff of {@link StoryFetcher}.
+ */
+public class StoryFetcherTest {
+
+    @Test
+    public void backoff_boundDoublesUpToCap() throws Exception {
+        Random almostOne = new FixedRandom(0.999999);
+        assertEquals(499, StoryFetcher.backoff(0, almostOne));
+        assertEquals(999, StoryFetcher.backoff(1, almostOne));
+        assertEquals(3999, StoryFetcher.backoff(3, almostOne));
+        assertEquals(7999, StoryFetcher.backoff(4, almostOne));
+        assertEquals(7999, StoryFetcher.backoff(100, almostOne));
+    }
+
+    @Test
+    public void backoff_isJittered() throws Exception {
+        assertEquals(0, StoryFetcher.backoff(3, new FixedRandom(0)));
+        assertEquals(2000, StoryFetcher.backoff(3, new FixedRandom(0.5)));
+
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            long delay = StoryFetcher.backoff(2, random);
+            assertTrue(delay >= 0 && delay < 2000);
+        }
+    }
+
+    /**
+     * Returns the same value from every call to {@link #nextDouble()}.
+     */
+    private static class FixedRandom extends Random {
+
+        private final double value;
+
+        FixedRandom(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public double nextDouble() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link StoryIdentityMap} and {@link Story#getContentHash}.
+ */
+public class StoryIdentityMapTest {
+
+    private static Story story(int i, String title) {
+        return new Story(1500000000000L - i * 60000L, title, "Technology",
+                "https://www.theguardian.com/story/" + i, "Author " + i,
+                "https://media.guim.co.uk/" + i + ".jpg");
+    }
+
+    /** Stories as parsed from a fresh response: new instances of every one */
+    private static List<Story> stories(int count) {
+        List<Story> stories = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            stories.add(story(i, "Story " + i));
+        }
+        return stories;
+    }
+
+    @Test
+    public void contentHash_changesWithAnyShownField() {
+        Story story = new Story(1000L, "Title", "Section", "url", "Author", "thumbnail");
+        assertEquals(story.getContentHash(),
+                new Story(1000L, "Title", "Section", "other url", "Author", "thumbnail")
+                        .getContentHash());
+
+        assertNotEquals(story.getContentHash(),
+                new Story(2000L, "Title", "Section", "url", "Author", "thumbnail")
+                        .getContentHash());
+        assertNotEquals(story.getContentHash(),
+                new Story(1000L, "Title!", "Section", "url", "Author", "thumbnail")
+                        .getContentHash());
+        assertNotEquals(story.getContentHash(),
+                new Story(1000L, "Title", "Section", "url", "Author", null).getContentHash());
+        // Text moved from one field to the next
+        assertNotEquals(new Story(1000L, "ab", "c", "url", null).getContentHash(),
+                new Story(1000L, "a", "bc", "url", null).getContentHash());
+        assertNotEquals(new Story(1000L, "", "Section", "url", null).getContentHash(),
+                new Story(1000L, null, "Section", "url", null).getContentHash());
+    }
+
+    @Test
+    public void merge_addsStoriesSeenForTheFirstTime() {
+        StoryIdentityMap map = new StoryIdentityMap(100);
+        List<Story> stories = stories(20);
+
+        StoryIdentityMap.Changes changes = map.merge(stories);
+
+        assertEquals(stories, changes.getAdded());
+        assertTrue(changes.getChanged().isEmpty());
+        assertEquals(stories, changes.getStories());
+        assertEquals(20, map.size());
+    }
+
+    @Test
+    public void merge_keepsTheInstancesOfUnchangedStories() {
+        StoryIdentityMap map = new StoryIdentityMap(100);
+        List<Story> first = stories(20);
+        map.merge(first);
+
+        StoryIdentityMap.Changes changes = map.merge(stories(20));
+
+        assertTrue(changes.isEmpty());
+        for (int i = 0; i < 20; i++) {
+            assertSame(first.get(i), changes.getStories().get(i));
+        }
+    }
+
+    @Test
+    public void merge_findsOnlyNewAndChangedStories() {
+        StoryIdentityMap map = new StoryIdentityMap(100);
+        List<Story> first = stories(20);
+        map.merge(first);
+
+        // A new story on top, and one of the others edited
+        List<Story> refreshed = stories(20);
+        refreshed.set(5, story(5, "Story 5, updated"));
+        refreshed.add(0, story(99, "Breaking"));
+        StoryIdentityMap.Changes changes = map.merge(refreshed);
+
+        assertEquals(Arrays.asList(refreshed.get(0)), changes.getAdded());
+        assertEquals(Arrays.asList(refreshed.get(6)), changes.getChanged());
+        assertEquals(21, changes.getStories().size());
+        assertSame(refreshed.get(0), changes.getStories().get(0));
+        assertSame(first.get(0), changes.getStories().get(1));
+        assertSame(refreshed.get(6), changes.getStories().get(6));
+
+        // The edited version is the one known from now on
+        assertTrue(map.merge(refreshed).isEmpty());
+    }
+
+    @Test
+    public void merge_forgetsTheLeastRecentlySeenStories() {
+        StoryIdentityMap map = new StoryIdentityMap(10);
+        List<Story> stories = stories(15);
+        map.merge(stories.subList(0, 10));
+        // Seen again, so more recent than stories 1 to 9
+        map.merge(stories.subList(0, 1));
+        map.merge(stories.subList(10, 15));
+
+        assertEquals(10, map.size());
+        assertTrue(map.merge(stories.subList(0, 1)).isEmpty());
+        assertEquals(1, map.merge(stories.subList(1, 2)).getAdded().size());
+    }
+
+    @Test
+    public void merge_leavesTheGivenListAsItIs() {
+        StoryIdentityMap map = new StoryIdentityMap(100);
+        map.merge(stories(5));
+        List<Story> refreshed = stories(5);
+        List<Story> copy = new ArrayList<>(refreshed);
+
+        map.merge(refreshed);
+
+        for (int i = 0; i < 5; i++) {
+            assertSame(copy.get(i), refreshed.get(i));
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link StorySearch}.
+ */
+public class StorySearchTest {
+    @Test
+    public void matchQuery_prefixesEveryWord() throws Exception {
+        assertEquals("bit*", StorySearch.matchQuery("bit"));
+        assertEquals("bitcoin* pri*", StorySearch.matchQuery("  Bitcoin   pri"));
+    }
+
+    @Test
+    public void matchQuery_dropsOperatorsAndPunctuation() throws Exception {
+        assertEquals("musk* s* tweet*", StorySearch.matchQuery("Musk's \"tweet\""));
+        assertEquals("bitcoin* or* ether*", StorySearch.matchQuery("bitcoin OR -ether*"));
+    }
+
+    @Test
+    public void matchQuery_nothingToSearch() throws Exception {
+        assertNull(StorySearch.matchQuery(null));
+        assertNull(StorySearch.matchQuery(""));
+        assertNull(StorySearch.matchQuery(" *\"- "));
+        assertNull(StorySearch.matchQuery("b"));
+    }
+
+    @Test
+    public void firstId_followsPublicationTime() throws Exception {
+        long first = StorySearch.firstId(1515846727000L);
+        assertEquals(first, StorySearch.firstId(1515846727999L));
+        assertEquals(first + StorySearch.IDS_PER_SECOND, StorySearch.firstId(1515846728000L));
+        assertEquals(0, StorySearch.firstId(StoryDates.NO_DATE));
+    }
+}
@@ -0,0 +1,82 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the backoff and delta merges of {@link StorySyncService}.
+ */
+public class StorySyncServiceTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Test
+    public void backoff_doublesUpToInterval() throws Exception {
+        assertEquals(HOUR, StorySyncService.backoff(0, HOUR));
+        assertEquals(60 * 1000, StorySyncService.backoff(1, HOUR));
+        assertEquals(2 * 60 * 1000, StorySyncService.backoff(2, HOUR));
+        assertEquals(32 * 60 * 1000, StorySyncService.backoff(6, HOUR));
+        assertEquals(HOUR, StorySyncService.backoff(7, HOUR));
+        assertEquals(HOUR, StorySyncService.backoff(1000, HOUR));
+    }
+
+    @Test
+    public void mergeNewer_putsOnlyUnseenStoriesFirst() throws Exception {
+        Story older = story("b", 1000);
+        Story oldest = story("a", 500);
+        Story newest = story("d", 3000);
+        Story newer = story("c", 2000);
+
+        List<Story> merged = StorySyncService.mergeNewer(
+                Arrays.asList(older, oldest),
+                Arrays.asList(newest, newer, story("b", 1000)));
+
+        assertEquals(Arrays.asList(newest, newer, older, oldest), merged);
+    }
+
+    @Test
+    public void mergeDelta_keepsValidatorsOfCachedPage() throws Exception {
+        Story older = story("a", 1000);
+        Story newer = story("b", 2000);
+        StoryPage cached = new StoryPage(Arrays.asList(older), 1, 3);
+        cached.setCacheInfo("\"v1\"", "Mon, 01 Jan 2018 00:00:00 GMT", 60, 5000);
+
+        StoryPage merged = StorySyncService.mergeDelta(cached, Arrays.asList(newer), 9000);
+
+        assertEquals(Arrays.asList(newer, older), merged.getStories());
+        assertEquals("\"v1\"", merged.getEtag());
+        assertEquals("Mon, 01 Jan 2018 00:00:00 GMT", merged.getLastModified());
+        assertEquals(StoryPage.NO_MAX_AGE, merged.getMaxAge());
+        assertEquals(9000, merged.getFetchedAt());
+        assertEquals(1, merged.getCurrentPage());
+        assertEquals(3, merged.getPages());
+    }
+
+    @Test
+    public void mergeDelta_keepsAtMostMaxMergedStories() throws Exception {
+        List<Story> current = new ArrayList<>();
+        for (int i = 0; i < 90; i++) {
+            current.add(story("current" + i, 1000 - i));
+        }
+        List<Story> newer = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            newer.add(story("newer" + i, 2000 - i));
+        }
+
+        List<Story> merged = StorySyncService.mergeDelta(
+                new StoryPage(current, 1, 1), newer, 0).getStories();
+
+        assertEquals(100, merged.size());
+        assertEquals(newer, merged.subList(0, 20));
+        assertEquals(current.subList(0, 80), merged.subList(20, 100));
+    }
+
+    private static Story story(String url, long publishedAt) {
+        return new Story(publishedAt, "Title " + url, "Section", url, "Author");
+    }
+}
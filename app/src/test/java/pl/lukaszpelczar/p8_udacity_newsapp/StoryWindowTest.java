@@ -0,0 +1,246 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link StoryWindow}.
+ */
+public class StoryWindowTest {
+
+    /** Runs the spill file I/O and its outcome straight away, on the test thread */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("window", ".bin");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+    private StoryWindow window(int capacity, Executor spillExecutor, Executor mainExecutor) {
+        return new StoryWindow(mFile, capacity, spillExecutor, mainExecutor);
+    }
+
+    private static List<Story> stories(int from, int count) {
+        List<Story> stories = new ArrayList<>(count);
+        for (int i = from; i < from + count; i++) {
+            stories.add(new Story(1500000000000L - i * 60000L, "Story " + i,
+                    i % 3 == 0 ? null : "Section " + i % 3,
+                    "https://www.theguardian.com/story/" + i, "Author " + i % 7, null));
+        }
+        return stories;
+    }
+
+    @Test
+    public void get_returnsEveryStoryWhileHoldingAtMostTheCapacity() {
+        StoryWindow window = window(200, DIRECT, DIRECT);
+        window.addAll(stories(0, 1000));
+
+        assertEquals(1000, window.size());
+        assertTrue(window.getResidentCount() <= 200);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("Story " + i, window.get(i).getTitle());
+            assertTrue(window.getResidentCount() <= 200);
+        }
+        // Backwards and at random, as a list scrolled up or jumped through
+        for (int i = 999; i >= 0; i -= 7) {
+            assertEquals("https://www.theguardian.com/story/" + i, window.get(i).getUrl());
+        }
+        assertNull(window.get(300).getSection());
+        assertEquals("Section 1", window.get(301).getSection());
+    }
+
+    @Test
+    public void get_keepsBlocksAroundTheStoryReadLast() {
+        StoryWindow window = window(200, DIRECT, DIRECT);
+        window.addAll(stories(0, 1000));
+        window.get(500);
+        int residentBefore = window.getResidentCount();
+
+        // Neighbouring stories of the same window are on the heap already
+        Story story = window.get(510);
+
+        assertSame(story, window.get(510));
+        assertEquals(residentBefore, window.getResidentCount());
+    }
+
+    @Test
+    public void add_appendsAfterBlocksWereDropped() {
+        StoryWindow window = window(100, DIRECT, DIRECT);
+        window.addAll(stories(0, 420));
+        window.get(0);
+        window.addAll(stories(420, 80));
+
+        assertEquals(500, window.size());
+        assertEquals("Story 419", window.get(419).getTitle());
+        assertEquals("Story 499", window.get(499).getTitle());
+        assertEquals("Story 0", window.get(0).getTitle());
+    }
+
+    @Test
+    public void trimMemory_shrinksTheWindow() {
+        StoryWindow window = window(400, DIRECT, DIRECT);
+        window.addAll(stories(0, 1000));
+        assertEquals(400, window.getResidentCount());
+
+        window.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        assertTrue(window.getResidentCount() <= 200);
+
+        window.trimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertTrue(window.getResidentCount() <= 2 * StoryWindow.BLOCK_SIZE);
+
+        window.restoreCapacity();
+        for (int i = 0; i < 400; i++) {
+            window.get(i);
+        }
+        assertEquals(400, window.getResidentCount());
+    }
+
+    @Test
+    public void clear_removesEveryStory() {
+        StoryWindow window = window(100, DIRECT, DIRECT);
+        window.addAll(stories(0, 300));
+
+        window.clear();
+        window.addAll(stories(1000, 120));
+
+        assertEquals(120, window.size());
+        assertEquals("Story 1000", window.get(0).getTitle());
+        assertEquals("Story 1119", window.get(119).getTitle());
+    }
+
+    @Test
+    public void add_onlyAppends() {
+        StoryWindow window = window(100, DIRECT, DIRECT);
+        window.addAll(stories(0, 10));
+        try {
+            window.add(0, stories(10, 1).get(0));
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    @Test
+    public void get_droppedBlock_isLoadedInTheBackground() {
+        QueuedExecutor spill = new QueuedExecutor();
+        QueuedExecutor main = new QueuedExecutor();
+        StoryWindow window = window(100, spill, main);
+        final List<Integer> loaded = new ArrayList<>();
+        window.setOnStoriesLoadedListener(new StoryWindow.OnStoriesLoadedListener() {
+            @Override
+            public void onStoriesLoaded(int start, int count) {
+                loaded.add(start);
+                loaded.add(count);
+            }
+        });
+        window.addAll(stories(0, 300));
+        // Nothing is dropped before it has been written
+        assertEquals(300, window.getResidentCount());
+        spill.runAll();
+        main.runAll();
+        assertEquals(100, window.getResidentCount());
+
+        // Dropped as soon as it was written, as the block read last is the first one
+        assertFalse(window.isLoaded(60));
+        assertNull(window.get(60));
+        assertNull(window.get(70));
+        assertEquals(1, spill.size());
+        // The ID of a row is known while its story is being read back
+        assertEquals(Story.hash("https://www.theguardian.com/story/60"), window.getId(60));
+        spill.runAll();
+        assertTrue(loaded.isEmpty());
+        main.runAll();
+
+        assertEquals(2, loaded.size());
+        assertEquals(50, (int) loaded.get(0));
+        assertEquals(StoryWindow.BLOCK_SIZE, (int) loaded.get(1));
+        assertTrue(window.isLoaded(60));
+        assertEquals("Story 60", window.get(60).getTitle());
+    }
+
+    @Test
+    public void copyLoaded_copiesLeadingStoriesOnTheHeapWithoutMovingTheWindow() {
+        StoryWindow window = window(200, DIRECT, DIRECT);
+        window.addAll(stories(0, 400));
+        // The first four blocks are held, and the second one is on screen
+        window.get(60);
+
+        List<Story> copied = window.copyLoaded(StoryWindow.DEFAULT_CAPACITY);
+
+        assertEquals(200, copied.size());
+        assertEquals("Story 199", copied.get(199).getTitle());
+        assertEquals(10, window.copyLoaded(10).size());
+        // Blocks are still dropped farthest from the one on screen
+        window.trimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertTrue(window.isLoaded(60));
+        assertFalse(window.isLoaded(150));
+        // Only the stories up to the first block in the spill file are copied
+        assertEquals(0, window.copyLoaded(StoryWindow.DEFAULT_CAPACITY).size());
+    }
+
+    @Test
+    public void clear_dropsTheSpillFileIoOfTheClearedStories() {
+        QueuedExecutor spill = new QueuedExecutor();
+        QueuedExecutor main = new QueuedExecutor();
+        StoryWindow window = window(100, spill, main);
+        window.addAll(stories(0, 300));
+        spill.runAll();
+        main.runAll();
+        assertNull(window.get(60));
+        spill.runAll();
+
+        window.clear();
+        window.addAll(stories(1000, 120));
+        main.runAll();
+        spill.runAll();
+        main.runAll();
+
+        assertEquals(120, window.size());
+        assertEquals("Story 1000", window.get(0).getTitle());
+        assertEquals("Story 1119", window.get(119).getTitle());
+    }
+
+    /**
+     * Holds the tasks given to it until they are run.
+     */
+    private static class QueuedExecutor implements Executor {
+
+        private final List<Runnable> mTasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable runnable) {
+            mTasks.add(runnable);
+        }
+
+        int size() {
+            return mTasks.size();
+        }
+
+        void runAll() {
+            while (!mTasks.isEmpty()) {
+                mTasks.remove(0).run();
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ThumbnailDiskCache}.
+ */
+public class ThumbnailDiskCacheTest {
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = File.createTempFile("thumbnails", "");
+        assertTrue(mDirectory.delete());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void put_storesBytesUnderKey() throws Exception {
+        ThumbnailDiskCache cache = new ThumbnailDiskCache(mDirectory, 1000);
+        assertNull(cache.get("https://example.com/a.jpg"));
+
+        cache.put("https://example.com/a.jpg", new byte[100]);
+        cache.put("https://example.com/a.jpg", new byte[120]);
+
+        File file = cache.get("https://example.com/a.jpg");
+        assertNotNull(file);
+        assertEquals(120, file.length());
+        assertEquals(120, cache.size());
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedOnceFull() throws Exception {
+        ThumbnailDiskCache cache = new ThumbnailDiskCache(mDirectory, 1000);
+        for (int i = 0; i < 4; i++) {
+            put(cache, "key" + i, 250, i);
+        }
+        // Reading the oldest entry makes it the most recently used
+        assertTrue(cache.get("key0").setLastModified(10 * 1000));
+
+        cache.put("key4", new byte[250]);
+
+        assertNotNull(cache.get("key0"));
+        assertNull(cache.get("key1"));
+        assertNull(cache.get("key2"));
+        assertNotNull(cache.get("key3"));
+        assertNotNull(cache.get("key4"));
+        assertTrue(cache.size() <= 900);
+    }
+
+    @Test
+    public void size_countsFilesLeftByEarlierInstance() throws Exception {
+        new ThumbnailDiskCache(mDirectory, 1000).put("key", new byte[300]);
+        assertTrue(new File(mDirectory, "partial.tmp").createNewFile());
+
+        ThumbnailDiskCache cache = new ThumbnailDiskCache(mDirectory, 1000);
+        assertEquals(300, cache.size());
+        assertFalse(new File(mDirectory, "partial.tmp").exists());
+    }
+
+    /**
+     * Store an entry of the given size whose file was last used at the given second.
+     */
+    private static void put(ThumbnailDiskCache cache, String key, int size, int second)
+            throws IOException {
+        cache.put(key, new byte[size]);
+        assertTrue(cache.get(key).setLastModified(second * 1000L));
+    }
+}
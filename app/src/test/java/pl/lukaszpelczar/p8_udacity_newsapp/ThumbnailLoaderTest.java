@@ -0,0 +1,27 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the downsampling of {@link ThumbnailLoader}.
+ */
+public class ThumbnailLoaderTest {
+
+    @Test
+    public void sampleSize_keepsBothSidesAtLeastRequested() throws Exception {
+        assertEquals(1, ThumbnailLoader.sampleSize(300, 180, 300, 180));
+        assertEquals(1, ThumbnailLoader.sampleSize(599, 359, 300, 180));
+        assertEquals(2, ThumbnailLoader.sampleSize(600, 360, 300, 180));
+        assertEquals(4, ThumbnailLoader.sampleSize(2000, 1200, 300, 180));
+        // A wide image is limited by its height
+        assertEquals(2, ThumbnailLoader.sampleSize(4000, 400, 300, 180));
+    }
+
+    @Test
+    public void sampleSize_neverUpsamples() throws Exception {
+        assertEquals(1, ThumbnailLoader.sampleSize(100, 60, 300, 180));
+        assertEquals(1, ThumbnailLoader.sampleSize(0, 0, 300, 180));
+    }
+}
@@ -0,0 +1,112 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link Utf8Reader} and the sizing of its {@link ByteArrayPool} buffers.
+ */
+public class Utf8ReaderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void read_matchesPlatformDecoder() throws Exception {
+        String text = randomText(new Random(8), 50000);
+        byte[] bytes = text.getBytes(UTF_8);
+
+        assertEquals(text, readAll(new Utf8Reader(new ByteArrayInputStream(bytes), bytes.length), 1024));
+        assertEquals(text, readAll(new Utf8Reader(new ByteArrayInputStream(bytes), -1), 7));
+    }
+
+    @Test
+    public void read_sequencesSplitAcrossReads() throws Exception {
+        String text = randomText(new Random(15), 5000);
+        byte[] bytes = text.getBytes(UTF_8);
+
+        // Deliver one byte per read, so every multi-byte sequence arrives in pieces
+        InputStream trickle = new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] buffer, int offset, int length) {
+                return super.read(buffer, offset, Math.min(length, 1));
+            }
+        };
+        assertEquals(text, readAll(new Utf8Reader(trickle, -1), 1));
+    }
+
+    @Test
+    public void read_replacesMalformedInput() throws Exception {
+        byte[] bytes = {'a', (byte) 0x80, 'b', (byte) 0xc0, (byte) 0xaf, 'c',
+                (byte) 0xed, (byte) 0xa0, (byte) 0x80, 'd', (byte) 0xe2, (byte) 0x82};
+        String decoded = readAll(new Utf8Reader(new ByteArrayInputStream(bytes), -1), 16);
+
+        assertEquals("a\uFFFDb\uFFFD\uFFFDc\uFFFD\uFFFD\uFFFDd\uFFFD\uFFFD", decoded);
+    }
+
+    @Test(expected = IOException.class)
+    public void read_afterClose() throws Exception {
+        Reader reader = new Utf8Reader(new ByteArrayInputStream(new byte[1]), 1);
+        reader.close();
+        reader.read(new char[1], 0, 1);
+    }
+
+    @Test
+    public void bufferSize_followsContentLength() throws Exception {
+        assertEquals(ByteArrayPool.DEFAULT_SIZE, ByteArrayPool.sizeFor(-1));
+        assertEquals(ByteArrayPool.MIN_SIZE, ByteArrayPool.sizeFor(100));
+        assertEquals(16 * 1024, ByteArrayPool.sizeFor(10000));
+        assertEquals(16 * 1024, ByteArrayPool.sizeFor(16 * 1024));
+        assertEquals(ByteArrayPool.MAX_SIZE, ByteArrayPool.sizeFor(10 * 1024 * 1024));
+    }
+
+    @Test
+    public void buffers_areReused() throws Exception {
+        byte[] buffer = ByteArrayPool.acquire(10000);
+        ByteArrayPool.release(buffer);
+
+        assertSame(buffer, ByteArrayPool.acquire(12000));
+    }
+
+    private static String readAll(Reader reader, int chunk) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] chars = new char[chunk];
+        int read;
+        while ((read = reader.read(chars, 0, chars.length)) != -1) {
+            text.append(chars, 0, read);
+        }
+        reader.close();
+        return text.toString();
+    }
+
+    /**
+     * Returns text mixing ASCII with two, three and four byte characters.
+     */
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            switch (random.nextInt(5)) {
+                case 0:
+                    text.append('\u00e9');
+                    break;
+                case 1:
+                    text.append('\u20ac');
+                    break;
+                case 2:
+                    text.appendCodePoint(0x1f4f0);
+                    break;
+                default:
+                    text.append((char) (' ' + random.nextInt(95)));
+                    break;
+            }
+        }
+        return text.toString();
+    }
+}
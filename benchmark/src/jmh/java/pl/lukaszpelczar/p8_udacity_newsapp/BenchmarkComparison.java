@@ -0,0 +1,126 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JMH result files written in JSON, a saved baseline and the latest run,
+ * and prints the change in score and in allocated bytes per operation for every
+ * benchmark they share.
+ *
+ * Usage: BenchmarkComparison baseline.json results.json [threshold percent]
+ *
+ * Exits with status 1 when a throughput score dropped, or allocations per operation
+ * grew, by more than the threshold (10% by default).
+ */
+public final class BenchmarkComparison {
+
+    /** Secondary metric added by the gc profiler */
+    private static final String ALLOCATION_METRIC = "\u00b7gc.alloc.rate.norm";
+
+    private BenchmarkComparison() {
+    }
+
+    public static void main(String[] args) throws IOException, JSONException {
+        if (args.length < 2) {
+            System.err.println("Usage: BenchmarkComparison baseline.json results.json [threshold %]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) / 100 : 0.10;
+
+        Map<String, Result> baseline = read(new File(args[0]));
+        Map<String, Result> current = read(new File(args[1]));
+
+        boolean regressed = false;
+        System.out.println(String.format("%-64s %14s %14s %8s %12s %12s %8s",
+                "Benchmark", "Baseline", "Current", "Change", "Base B/op", "Curr B/op", "Change"));
+        for (Map.Entry<String, Result> entry : current.entrySet()) {
+            Result before = baseline.get(entry.getKey());
+            if (before == null) {
+                continue;
+            }
+            Result after = entry.getValue();
+            double scoreChange = change(before.score, after.score);
+            double allocationChange = change(before.allocation, after.allocation);
+
+            boolean scoreRegressed = after.higherIsBetter
+                    ? scoreChange < -threshold : scoreChange > threshold;
+            boolean allocationRegressed = allocationChange > threshold;
+            regressed |= scoreRegressed || allocationRegressed;
+
+            System.out.println(String.format("%-64s %14.2f %14.2f %+7.1f%% %12.0f %12.0f %+7.1f%%%s",
+                    entry.getKey(), before.score, after.score, scoreChange * 100,
+                    before.allocation, after.allocation, allocationChange * 100,
+                    scoreRegressed || allocationRegressed ? "  REGRESSION" : ""));
+        }
+        System.exit(regressed ? 1 : 0);
+    }
+
+    /**
+     * Returns the relative change from the first value to the second, or 0 when there
+     * is nothing to compare.
+     */
+    private static double change(double before, double after) {
+        if (before == 0 || Double.isNaN(before) || Double.isNaN(after)) {
+            return 0;
+        }
+        return (after - before) / before;
+    }
+
+    /**
+     * Returns the results in the given file, keyed by benchmark name and parameters.
+     */
+    private static Map<String, Result> read(File file) throws IOException, JSONException {
+        JSONArray runs = new JSONArray(new String(Files.readAllBytes(file.toPath()),
+                Fixtures.UTF_8));
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (int i = 0; i < runs.length(); i++) {
+            JSONObject run = runs.getJSONObject(i);
+            JSONObject primary = run.getJSONObject("primaryMetric");
+            JSONObject secondary = run.optJSONObject("secondaryMetrics");
+            JSONObject allocation = secondary == null
+                    ? null : secondary.optJSONObject(ALLOCATION_METRIC);
+
+            Result result = new Result();
+            result.score = primary.getDouble("score");
+            result.higherIsBetter = "thrpt".equals(run.optString("mode"));
+            result.allocation = allocation == null ? Double.NaN : allocation.getDouble("score");
+            results.put(name(run), result);
+        }
+        return results;
+    }
+
+    private static String name(JSONObject run) throws JSONException {
+        String benchmark = run.getString("benchmark");
+        StringBuilder name = new StringBuilder(
+                benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1));
+        JSONObject params = run.optJSONObject("params");
+        if (params != null) {
+            Map<String, String> sorted = new TreeMap<>();
+            Iterator<String> keys = params.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                sorted.put(key, params.getString(key));
+            }
+            for (Map.Entry<String, String> param : sorted.entrySet()) {
+                name.append(' ').append(param.getKey()).append('=').append(param.getValue());
+            }
+        }
+        return name.toString();
+    }
+
+    private static final class Result {
+        double score;
+        double allocation;
+        boolean higherIsBetter;
+    }
+}
@@ -0,0 +1,121 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.tls.HandshakeCertificates;
+import okhttp3.tls.HeldCertificate;
+
+/**
+ * Latency of a single page request through the app's shared client, against a local
+ * {@link ReplayServer} over plain HTTP or over TLS with a self-signed certificate:
+ *
+ *   new      every connection is evicted from the pool before the request, so each one
+ *            pays the TCP handshake and, over https, the TLS handshake, as the first
+ *            request of the app does
+ *   reused   the connection stays in the pool, as for every later request
+ *
+ * The client is built from {@link StoryHttpClient#getClient()}, so it shares its pool,
+ * timeouts and metrics, and only differs in trusting the certificate. The server only
+ * speaks HTTP/1.1. The connections opened and reused are printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConnectionReuseBenchmark {
+
+    private static final int RESULTS = 50;
+    private static final int SERVER_THREADS = 4;
+
+    @Param({"http", "https"})
+    public String scheme;
+
+    @Param({"new", "reused"})
+    public String connection;
+
+    private final Metrics.Counter mOpened = Metrics.counter("connections_opened");
+    private final Metrics.Counter mReused = Metrics.counter("connections_reused");
+
+    private HttpServer mServer;
+    private OkHttpClient mClient;
+    private Request mRequest;
+    private long mOpenedBefore;
+    private long mReusedBefore;
+
+    @Setup
+    public void setUp() throws IOException {
+        ReplayServer replayServer = new ReplayServer(null, RESULTS, 0, 0, 0, 0, true);
+        OkHttpClient.Builder builder = StoryHttpClient.getClient().newBuilder();
+        if ("https".equals(scheme)) {
+            HeldCertificate certificate = new HeldCertificate.Builder()
+                    .addSubjectAlternativeName("localhost")
+                    .build();
+            HandshakeCertificates serverCertificates = new HandshakeCertificates.Builder()
+                    .heldCertificate(certificate)
+                    .build();
+            HandshakeCertificates clientCertificates = new HandshakeCertificates.Builder()
+                    .addTrustedCertificate(certificate.certificate())
+                    .build();
+            HttpsServer server = HttpsServer.create(new InetSocketAddress(0), 0);
+            server.setHttpsConfigurator(new HttpsConfigurator(serverCertificates.sslContext()));
+            mServer = ReplayServer.start(replayServer, server, SERVER_THREADS);
+            builder.sslSocketFactory(clientCertificates.sslSocketFactory(),
+                    clientCertificates.trustManager());
+        } else {
+            mServer = ReplayServer.start(replayServer, 0, SERVER_THREADS);
+        }
+        mClient = builder.build();
+        mRequest = new Request.Builder()
+                .url(scheme + "://localhost:" + mServer.getAddress().getPort() + "/search")
+                .build();
+        mOpenedBefore = mOpened.get();
+        mReusedBefore = mReused.get();
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println(scheme + ", " + connection + ": "
+                + (mOpened.get() - mOpenedBefore) + " connections opened, "
+                + (mReused.get() - mReusedBefore) + " reused");
+        mClient.connectionPool().evictAll();
+        mServer.stop(0);
+        ((ExecutorService) mServer.getExecutor()).shutdown();
+    }
+
+    @Setup(Level.Invocation)
+    public void evictConnections() {
+        if ("new".equals(connection)) {
+            mClient.connectionPool().evictAll();
+        }
+    }
+
+    @Benchmark
+    public int request() throws IOException {
+        Response response = mClient.newCall(mRequest).execute();
+        try {
+            return response.body().bytes().length;
+        } finally {
+            response.close();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Guardian search responses of any size for the benchmarks.
+ *
+ * Responses are built from the results of guardian-search.json, a page modelled on a
+ * real "show-tags=contributor&show-fields=thumbnail" response. It includes results with
+ * several contributor tags, with an empty tags array, without a tags field, without a
+ * thumbnail and with a null section name.
+ */
+final class Fixtures {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String SAMPLE = "/guardian-search.json";
+
+    private Fixtures() {
+    }
+
+    /**
+     * Returns the UTF-8 bytes of a response holding the given number of results, made by
+     * cycling through the sample results with unique URLs and ever older dates.
+     *
+     * @param tags whether to keep the contributor tags, or drop them from every result
+     */
+    static byte[] guardianResponse(int results, boolean tags) {
+        try {
+            JSONObject sample = new JSONObject(new String(readResource(SAMPLE), UTF_8));
+            JSONObject response = sample.getJSONObject("response");
+            JSONArray sampleResults = response.getJSONArray("results");
+
+            JSONArray generated = new JSONArray();
+            for (int i = 0; i < results; i++) {
+                JSONObject result = new JSONObject(
+                        sampleResults.getJSONObject(i % sampleResults.length()).toString());
+                String suffix = "-" + i;
+                result.put("id", result.getString("id") + suffix);
+                result.put("webUrl", result.getString("webUrl") + suffix);
+                result.put("apiUrl", result.getString("apiUrl") + suffix);
+                result.put("webPublicationDate", isoDate(
+                        StoryDates.parse(result.getString("webPublicationDate"))
+                                - i * 60 * 1000L));
+                if (!tags) {
+                    result.remove("tags");
+                }
+                generated.put(result);
+            }
+
+            response.put("results", generated);
+            response.put("pageSize", results);
+            return sample.toString().getBytes(UTF_8);
+        } catch (JSONException | IOException e) {
+            throw new IllegalStateException("Problem building the fixture", e);
+        }
+    }
+
+    /**
+     * Returns a response of at least the given size in bytes, with contributor tags.
+     */
+    static byte[] guardianResponseOfSize(long bytes) {
+        int sampleResults = 100;
+        long bytesPerResult = guardianResponse(sampleResults, true).length / sampleResults;
+        return guardianResponse((int) (bytes / bytesPerResult) + 1, true);
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        InputStream inputStream = Fixtures.class.getResourceAsStream(name);
+        if (inputStream == null) {
+            throw new IOException("Missing resource " + name);
+        }
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            return output.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Formats epoch milliseconds the way the Guardian API does, "2018-01-13T12:32:07Z".
+     */
+    private static String isoDate(long time) {
+        String formatted = StoryDates.format(time);
+        return formatted.substring(0, 10) + "T" + formatted.substring(12) + "Z";
+    }
+}
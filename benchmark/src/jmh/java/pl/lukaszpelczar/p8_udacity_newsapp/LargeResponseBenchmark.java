@@ -0,0 +1,53 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing 1 MB and 10 MB responses, where copies of the whole body dominate. The gc
+ * profiler's bytes per operation show how much of the body each approach keeps around:
+ * the original read holds the body as a String and as a JSON tree before any story is
+ * built, while the streaming parse only ever holds its read buffer and the stories.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LargeResponseBenchmark {
+
+    @Param({"1048576", "10485760"})
+    public long bytes;
+
+    private byte[] mBody;
+
+    @Setup
+    public void setUp() {
+        mBody = Fixtures.guardianResponseOfSize(bytes);
+    }
+
+    @Benchmark
+    public List<LegacyQueryUtils.LegacyStory> legacyDomParse() throws IOException {
+        return LegacyQueryUtils.extractFeatureFromJson(
+                LegacyQueryUtils.readFromStream(new ByteArrayInputStream(mBody)));
+    }
+
+    @Benchmark
+    public StoryPage streamingParseUnknownLength() throws IOException {
+        return QueryUtils.extractFeatureFromStream(new ByteArrayInputStream(mBody), -1);
+    }
+
+    @Benchmark
+    public StoryPage streamingParseKnownLength() throws IOException {
+        return QueryUtils.extractFeatureFromStream(new ByteArrayInputStream(mBody), mBody.length);
+    }
+}
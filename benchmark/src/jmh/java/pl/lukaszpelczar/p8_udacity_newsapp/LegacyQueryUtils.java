@@ -0,0 +1,101 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The original response handling of {@link QueryUtils}, kept as the baseline the
+ * benchmarks compare against: the whole body is read into a String line by line,
+ * parsed into an org.json tree, and every story keeps its date as raw text that is
+ * cut up again for display.
+ */
+final class LegacyQueryUtils {
+
+    private LegacyQueryUtils() {
+    }
+
+    /**
+     * A story as it was modelled before: five Strings.
+     */
+    static final class LegacyStory {
+
+        final String date;
+        final String title;
+        final String section;
+        final String url;
+        final String author;
+
+        LegacyStory(String date, String title, String section, String url, String author) {
+            this.date = date;
+            this.title = title;
+            this.section = section;
+            this.url = url;
+            this.author = author;
+        }
+    }
+
+    static String readFromStream(InputStream inputStream) throws IOException {
+        StringBuilder output = new StringBuilder();
+        if (inputStream != null) {
+            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Fixtures.UTF_8);
+            BufferedReader reader = new BufferedReader(inputStreamReader);
+            String line = reader.readLine();
+            while (line != null) {
+                output.append(line);
+                line = reader.readLine();
+            }
+        }
+        return output.toString();
+    }
+
+    static List<LegacyStory> extractFeatureFromJson(String storyJSON) {
+        if (storyJSON == null || storyJSON.isEmpty()) {
+            return null;
+        }
+
+        List<LegacyStory> stories = new ArrayList<>();
+        try {
+            JSONObject baseJsonResponse = new JSONObject(storyJSON);
+            JSONObject response = baseJsonResponse.getJSONObject("response");
+            JSONArray storyArray = response.getJSONArray("results");
+
+            for (int i = 0; i < storyArray.length(); i++) {
+                JSONObject currentStory = storyArray.getJSONObject(i);
+                String date = currentStory.optString("webPublicationDate");
+                String title = currentStory.optString("webTitle");
+                String section = currentStory.optString("sectionName");
+                String url = currentStory.optString("webUrl");
+                String author = "N/A";
+
+                if (currentStory.has("tags")) {
+                    JSONArray tagsArray = currentStory.getJSONArray("tags");
+                    if (!tagsArray.isNull(0)) {
+                        JSONObject currentStoryTags = tagsArray.getJSONObject(0);
+                        if (currentStory.has("webTitle")) {
+                            author = currentStoryTags.getString("webTitle");
+                        }
+                    }
+                }
+
+                stories.add(new LegacyStory(date, title, section, url, author));
+            }
+        } catch (JSONException e) {
+            // Keep the stories parsed so far, like the original
+        }
+        return stories;
+    }
+
+    static String formatDate(String date) {
+        String subDate = date.substring(0, 10);
+        String subTime = date.substring(11, 19);
+        return subDate + "  " + subTime;
+    }
+}
@@ -0,0 +1,103 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives the app's fetch and parse pipeline, {@link QueryUtils#fetchStoryData}, against
+ * a {@link ReplayServer} from several threads, and prints the throughput, the latency
+ * percentiles and the failures, followed by a snapshot of the app's {@link Metrics}.
+ *
+ *   LoadTest [--url http://localhost:8080/search?q=bitcoin] [--threads 4]
+ *            [--requests 1000] [--pages 10] [--deadline ms]
+ *
+ * Requests cycle through the given number of pages. There are no retries, so every
+ * error the server injects shows up as a failure.
+ */
+public final class LoadTest {
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String url = "http://localhost:8080/search?q=bitcoin&show-tags=contributor"
+                + "&show-fields=thumbnail";
+        int threads = 4;
+        int requests = 1000;
+        int pages = 10;
+        long deadline = 30 * 1000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--url":
+                    url = value;
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "--requests":
+                    requests = Integer.parseInt(value);
+                    break;
+                case "--pages":
+                    pages = Integer.parseInt(value);
+                    break;
+                case "--deadline":
+                    deadline = Long.parseLong(value);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        final String baseUrl = url;
+        final int pageCount = pages;
+        final int total = requests;
+        final long requestDeadline = deadline;
+        final Metrics.Histogram latency = Metrics.histogram("load_test_us");
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger stories = new AtomicInteger();
+        final Map<StoryException.Kind, Integer> failures = new TreeMap<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = next.getAndIncrement(); i < total; i = next.getAndIncrement()) {
+                        String pageUrl = baseUrl + "&page=" + (i % pageCount + 1);
+                        long requestStart = System.nanoTime();
+                        try {
+                            StoryPage page = QueryUtils.fetchStoryData(pageUrl, null,
+                                    new Deadline(requestDeadline));
+                            stories.addAndGet(page.getStories().size());
+                        } catch (StoryException e) {
+                            synchronized (failures) {
+                                Integer count = failures.get(e.getKind());
+                                failures.put(e.getKind(), count == null ? 1 : count + 1);
+                            }
+                        }
+                        latency.record((System.nanoTime() - requestStart) / 1000);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.DAYS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d requests on %d threads in %.2f s: %.1f requests/s, "
+                        + "%.0f stories/s%n", total, threads, seconds, total / seconds,
+                stories.get() / seconds);
+        System.out.printf("latency ms: p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n",
+                latency.percentile(0.5) / 1000.0, latency.percentile(0.9) / 1000.0,
+                latency.percentile(0.99) / 1000.0, latency.getMax() / 1000.0);
+        System.out.println("failures: " + failures);
+        System.out.println(Metrics.snapshot());
+    }
+}
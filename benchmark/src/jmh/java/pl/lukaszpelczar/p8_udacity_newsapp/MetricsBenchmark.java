@@ -0,0 +1,71 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording a single sample with {@link Metrics}: incrementing a counter,
+ * recording into a histogram, and a span around no work at all, which is what every
+ * instrumented stage pays on top of its own work. The contended variants record into
+ * the same metric from 4 threads, as the parallel page fetches do.
+ *
+ * The span only measures the clock reads and the histogram, as the JVM stand-in for
+ * the Android Trace does nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsBenchmark {
+
+    private final Metrics.Counter mCounter = Metrics.counter("benchmark_count");
+    private final Metrics.Histogram mHistogram = Metrics.histogram("benchmark_us");
+    private final Metrics.Histogram mSpans = Metrics.histogram("benchmark_span_us");
+
+    /**
+     * Values recorded by each thread, spread over the buckets the way stage times in
+     * microseconds are.
+     */
+    @State(Scope.Thread)
+    public static class Values {
+        private long mNext = 1;
+
+        long next() {
+            mNext = mNext * 6364136223846793005L + 1442695040888963407L;
+            return (mNext >>> 40) & 0xFFFF;
+        }
+    }
+
+    @Benchmark
+    public void counterIncrement() {
+        mCounter.increment();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void counterIncrementContended() {
+        mCounter.increment();
+    }
+
+    @Benchmark
+    public void histogramRecord(Values values) {
+        mHistogram.record(values.next());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void histogramRecordContended(Values values) {
+        mHistogram.record(values.next());
+    }
+
+    @Benchmark
+    public void span() {
+        Metrics.endSpan(mSpans, Metrics.beginSpan("benchmark"));
+    }
+}
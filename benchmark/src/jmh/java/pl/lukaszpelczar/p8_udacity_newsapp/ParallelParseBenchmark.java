@@ -0,0 +1,59 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing archive-sized responses split across 1, 2, 4 and 8 threads, against the
+ * sequential streaming parse. The speedup over the sequential parse at each thread
+ * count is what the size of the parsing pool is picked from; it can only show on a
+ * machine with at least that many cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParallelParseBenchmark {
+
+    @Param({"1000", "5000"})
+    public int results;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private byte[] mBody;
+    private ExecutorService mExecutor;
+
+    @Setup
+    public void setUp() {
+        mBody = Fixtures.guardianResponse(results, true);
+        mExecutor = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public StoryPage sequentialParse() throws IOException {
+        return QueryUtils.extractFeatureFromStream(new ByteArrayInputStream(mBody), mBody.length);
+    }
+
+    @Benchmark
+    public StoryPage parallelParse() throws IOException {
+        return StoryBatchParser.parse(mBody, mExecutor, threads);
+    }
+}
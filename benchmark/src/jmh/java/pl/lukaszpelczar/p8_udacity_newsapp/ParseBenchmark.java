@@ -0,0 +1,49 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning a response body into stories: the original String plus org.json tree,
+ * against the streaming parse of {@link QueryUtils}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ParseBenchmark {
+
+    @Param({"10", "200", "2000"})
+    public int results;
+
+    @Param({"true", "false"})
+    public boolean tags;
+
+    private byte[] mBody;
+
+    @Setup
+    public void setUp() {
+        mBody = Fixtures.guardianResponse(results, tags);
+    }
+
+    @Benchmark
+    public List<LegacyQueryUtils.LegacyStory> legacyDomParse() throws IOException {
+        return LegacyQueryUtils.extractFeatureFromJson(
+                LegacyQueryUtils.readFromStream(new ByteArrayInputStream(mBody)));
+    }
+
+    @Benchmark
+    public StoryPage streamingParse() throws IOException {
+        return QueryUtils.extractFeatureFromStream(new ByteArrayInputStream(mBody));
+    }
+}
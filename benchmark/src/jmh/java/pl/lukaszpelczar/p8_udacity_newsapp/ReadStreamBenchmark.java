@@ -0,0 +1,67 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reading a response body: the original line-by-line read into a String,
+ * against decoding the same bytes without keeping them, through the platform decoder
+ * and through the pooled {@link Utf8Reader}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReadStreamBenchmark {
+
+    @Param({"10", "200", "2000"})
+    public int results;
+
+    private byte[] mBody;
+
+    @Setup
+    public void setUp() {
+        mBody = Fixtures.guardianResponse(results, true);
+    }
+
+    @Benchmark
+    public String legacyReadFromStream() throws IOException {
+        return LegacyQueryUtils.readFromStream(new ByteArrayInputStream(mBody));
+    }
+
+    @Benchmark
+    public long decodeOnly() throws IOException {
+        Reader reader = new InputStreamReader(new ByteArrayInputStream(mBody), Fixtures.UTF_8);
+        char[] buffer = new char[8192];
+        long total = 0;
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            total += read;
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long pooledDecode() throws IOException {
+        Reader reader = new Utf8Reader(new ByteArrayInputStream(mBody), mBody.length);
+        char[] buffer = new char[8192];
+        long total = 0;
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            total += read;
+        }
+        reader.close();
+        return total;
+    }
+}
@@ -0,0 +1,201 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Work done on a refresh of 500 stories of which 5% changed, on SQLite through JDBC the
+ * way StoryCache indexes them on the device:
+ *
+ *   lookup   every refreshed story is looked up in the index and skipped if indexed
+ *            already, as before the {@link StoryIdentityMap}, so changes are never indexed
+ *   replace  every refreshed story is removed from the index and indexed again, which is
+ *            what keeping the index up to date takes without change detection
+ *   merge    the stories are merged into a {@link StoryIdentityMap} and only the changed
+ *            ones are indexed again
+ *
+ * Every refresh parses new instances of all the stories, and alternates between two
+ * versions of the page. The number of stories written to the index per refresh is
+ * printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RefreshBenchmark {
+
+    private static final int STORIES = 500;
+
+    /** Every twentieth story differs between the two versions of the page */
+    private static final int CHANGE_EVERY = 20;
+
+    @Param({"lookup", "replace", "merge"})
+    public String mode;
+
+    private File mFile;
+    private Connection mConnection;
+    private StoryIdentityMap mIdentities;
+
+    /** Number of refreshes, and stories written to the index by them */
+    private long mRefreshes;
+    private long mStoriesIndexed;
+
+    @Setup
+    public void setUp() throws IOException, SQLException {
+        mFile = File.createTempFile("refresh", ".db");
+        mConnection = DriverManager.getConnection("jdbc:sqlite:" + mFile.getPath());
+        Statement statement = mConnection.createStatement();
+        statement.execute(StorySearch.CREATE_STORIES);
+        statement.execute(StorySearch.CREATE_INDEX);
+        statement.close();
+        mConnection.setAutoCommit(false);
+
+        mIdentities = new StoryIdentityMap(StoryIdentityMap.DEFAULT_CAPACITY);
+        List<Story> first = page(0);
+        mIdentities.merge(first);
+        index(first);
+        mConnection.commit();
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        System.out.println(mode + ": " + mStoriesIndexed / Math.max(1, mRefreshes)
+                + " of " + STORIES + " stories indexed per refresh");
+        mConnection.close();
+        if (!mFile.delete()) {
+            mFile.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public int refresh() throws SQLException {
+        List<Story> stories = page(++mRefreshes);
+        int indexed;
+        if ("merge".equals(mode)) {
+            StoryIdentityMap.Changes changes = mIdentities.merge(stories);
+            unindex(changes.getChanged());
+            List<Story> modified = new ArrayList<>(changes.getAdded());
+            modified.addAll(changes.getChanged());
+            indexed = index(modified);
+        } else if ("replace".equals(mode)) {
+            unindex(stories);
+            indexed = index(stories);
+        } else {
+            indexed = index(stories);
+        }
+        mConnection.commit();
+        mStoriesIndexed += indexed;
+        return indexed;
+    }
+
+    /**
+     * Returns new instances of the stories of the page as at the given refresh, the
+     * even and odd refreshes differing in the title of every {@link #CHANGE_EVERY}th story.
+     */
+    private static List<Story> page(long refresh) {
+        List<Story> stories = new ArrayList<>(STORIES);
+        for (int i = 0; i < STORIES; i++) {
+            String title = "Bitcoin price falls as regulators warn investors, story " + i;
+            if (i % CHANGE_EVERY == 0 && refresh % 2 == 1) {
+                title += " (updated)";
+            }
+            stories.add(new Story(1500000000000L - i * 60 * 1000L, title, "Technology",
+                    "https://www.theguardian.com/story/" + i, "Author " + i % 17,
+                    "https://media.guim.co.uk/" + i + "/500.jpg"));
+        }
+        return stories;
+    }
+
+    /**
+     * Index the given stories as StoryCache does, skipping those whose web URL is indexed
+     * already, and return the number of stories written.
+     */
+    private int index(List<Story> stories) throws SQLException {
+        PreparedStatement nextId = mConnection.prepareStatement(StorySearch.NEXT_ID);
+        PreparedStatement insertStory = mConnection.prepareStatement(StorySearch.INSERT_STORY);
+        PreparedStatement insertIndex = mConnection.prepareStatement(StorySearch.INSERT_INDEX);
+        int indexed = 0;
+        try {
+            for (Story story : stories) {
+                long firstId = StorySearch.firstId(story.getPublishedAt());
+                nextId.setLong(1, firstId);
+                nextId.setLong(2, firstId);
+                nextId.setLong(3, firstId + StorySearch.IDS_PER_SECOND - 1);
+                ResultSet result = nextId.executeQuery();
+                long id = result.getLong(1);
+                result.close();
+
+                insertStory.setLong(1, id);
+                insertStory.setString(2, story.getUrl());
+                insertStory.setLong(3, story.getPublishedAt());
+                insertStory.setString(4, story.getTitle());
+                insertStory.setString(5, story.getSection());
+                insertStory.setString(6, story.getAuthor());
+                insertStory.setString(7, story.getThumbnail());
+                if (insertStory.executeUpdate() == 0) {
+                    // Already indexed
+                    continue;
+                }
+
+                insertIndex.setLong(1, id);
+                insertIndex.setString(2, story.getTitle());
+                insertIndex.setString(3, story.getSection());
+                insertIndex.setString(4, story.getAuthor());
+                insertIndex.executeUpdate();
+                indexed++;
+            }
+        } finally {
+            nextId.close();
+            insertStory.close();
+            insertIndex.close();
+        }
+        return indexed;
+    }
+
+    /**
+     * Remove the given stories from the index as StoryCache does.
+     */
+    private void unindex(List<Story> stories) throws SQLException {
+        PreparedStatement findId = mConnection.prepareStatement(StorySearch.FIND_ID);
+        PreparedStatement removeIndex = mConnection.prepareStatement(StorySearch.REMOVE_INDEX);
+        PreparedStatement removeStory = mConnection.prepareStatement(StorySearch.REMOVE_STORY);
+        try {
+            for (Story story : stories) {
+                findId.setString(1, story.getUrl());
+                ResultSet result = findId.executeQuery();
+                if (!result.next()) {
+                    result.close();
+                    continue;
+                }
+                long id = result.getLong(1);
+                result.close();
+                removeIndex.setLong(1, id);
+                removeIndex.executeUpdate();
+                removeStory.setLong(1, id);
+                removeStory.executeUpdate();
+            }
+        } finally {
+            findId.close();
+            removeIndex.close();
+            removeStory.close();
+        }
+    }
+}
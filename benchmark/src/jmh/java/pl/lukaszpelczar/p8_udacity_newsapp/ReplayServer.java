@@ -0,0 +1,306 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Local HTTP server standing in for the Guardian API, so the app and the {@link LoadTest}
+ * can be run end to end, repeatably, on a machine without network access.
+ *
+ * Every request is answered with its recording from the recordings directory, named by
+ * {@link ReplayStorySource#recordingName} like the app's replay source, or else with a
+ * generated response of the given number of results. Responses carry an ETag, so
+ * conditional requests are answered with 304 Not Modified, are gzipped for clients that
+ * accept it, like those of the Guardian API, and can be slowed down and made to fail
+ * at random:
+ *
+ *   ReplayServer [--port 8080] [--recordings dir] [--results 50] [--latency ms]
+ *                [--jitter ms] [--bandwidth bytes/s] [--error-rate 0..1] [--threads 16]
+ *                [--gzip true]
+ *
+ * Recordings of the live API are made with
+ *
+ *   ReplayServer record dir url...
+ *
+ * The app is pointed at the server with the guardianApiUrl Gradle property; from the
+ * emulator the host is http://10.0.2.2:8080/search.
+ */
+public final class ReplayServer implements HttpHandler {
+
+    private static final int SERVICE_UNAVAILABLE = 503;
+    private static final int NOT_MODIFIED = 304;
+    private static final int OK = 200;
+
+    /** Bytes written between the pauses that hold the bandwidth down */
+    private static final int CHUNK_SIZE = 4096;
+
+    static {
+        // The JDK server writes the headers and the body apart, and on a kept-alive
+        // connection Nagle's algorithm holds the body back until the client's delayed
+        // ACK, some 40 ms later. Read once, when the first server is created.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final File mRecordings;
+    private final byte[] mGenerated;
+    private final byte[] mGeneratedGzip;
+    private final long mLatency;
+    private final long mJitter;
+    private final long mBandwidth;
+    private final double mErrorRate;
+    private final boolean mGzip;
+    private final Random mRandom = new Random();
+
+    /** Bytes of response bodies sent, as they went over the wire */
+    private final AtomicLong mBodyBytesSent = new AtomicLong();
+
+    ReplayServer(File recordings, int results, long latency, long jitter, long bandwidth,
+                 double errorRate, boolean gzip) throws IOException {
+        mRecordings = recordings;
+        mGenerated = Fixtures.guardianResponse(results, true);
+        mGeneratedGzip = gzip(mGenerated);
+        mLatency = latency;
+        mJitter = jitter;
+        mBandwidth = bandwidth;
+        mErrorRate = errorRate;
+        mGzip = gzip;
+    }
+
+    /**
+     * Start serving the given replay server on the given port, or on any free port if it
+     * is 0, from the given number of threads. The port is that of the returned server's
+     * address.
+     */
+    static HttpServer start(ReplayServer replayServer, int port, int threads)
+            throws IOException {
+        return start(replayServer, HttpServer.create(new InetSocketAddress(port), 0), threads);
+    }
+
+    /**
+     * Start serving the given replay server from the given, bound but not yet started,
+     * server, an HttpsServer for instance, from the given number of threads.
+     */
+    static HttpServer start(ReplayServer replayServer, HttpServer server, int threads) {
+        server.createContext("/", replayServer);
+        server.setExecutor(Executors.newFixedThreadPool(threads));
+        server.start();
+        return server;
+    }
+
+    /**
+     * Returns the number of bytes of response bodies sent so far, compressed if they
+     * were gzipped.
+     */
+    long getBodyBytesSent() {
+        return mBodyBytesSent.get();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && "record".equals(args[0])) {
+            record(args);
+            return;
+        }
+
+        int port = 8080;
+        File recordings = null;
+        int results = 50;
+        long latency = 0;
+        long jitter = 0;
+        long bandwidth = 0;
+        double errorRate = 0;
+        int threads = 16;
+        boolean gzip = true;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "--recordings":
+                    recordings = new File(value);
+                    break;
+                case "--results":
+                    results = Integer.parseInt(value);
+                    break;
+                case "--latency":
+                    latency = Long.parseLong(value);
+                    break;
+                case "--jitter":
+                    jitter = Long.parseLong(value);
+                    break;
+                case "--bandwidth":
+                    bandwidth = Long.parseLong(value);
+                    break;
+                case "--error-rate":
+                    errorRate = Double.parseDouble(value);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "--gzip":
+                    gzip = Boolean.parseBoolean(value);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        start(new ReplayServer(recordings, results, latency, jitter, bandwidth, errorRate, gzip),
+                port, threads);
+        System.out.println("Replaying on http://localhost:" + port + "/search"
+                + (recordings != null ? " from " + recordings : "")
+                + ", " + results + " generated results, latency " + latency + "+" + jitter
+                + " ms, bandwidth " + (bandwidth > 0 ? bandwidth + " bytes/s" : "unlimited")
+                + ", error rate " + errorRate + (gzip ? ", gzip" : ""));
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            long delay = mLatency + (mJitter > 0 ? nextLong(mJitter + 1) : 0);
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+
+            if (mErrorRate > 0 && nextDouble() < mErrorRate) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                exchange.sendResponseHeaders(SERVICE_UNAVAILABLE, -1);
+                return;
+            }
+
+            byte[] body = responseFor(exchange.getRequestURI().toString());
+            String etag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.getResponseHeaders().set("Cache-Control", "max-age=60");
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(NOT_MODIFIED, -1);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (mGzip && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                body = body == mGenerated ? mGeneratedGzip : gzip(body);
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.sendResponseHeaders(OK, body.length);
+            writeThrottled(exchange.getResponseBody(), body);
+            mBodyBytesSent.addAndGet(body.length);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Returns the recording of the given request URI, or the generated response.
+     */
+    private byte[] responseFor(String requestUri) throws IOException {
+        if (mRecordings != null) {
+            File file = new File(mRecordings, ReplayStorySource.recordingName(requestUri));
+            if (!file.isFile()) {
+                file = new File(mRecordings, ReplayStorySource.DEFAULT_RECORDING);
+            }
+            if (file.isFile()) {
+                return Files.readAllBytes(file.toPath());
+            }
+        }
+        return mGenerated;
+    }
+
+    /**
+     * Write the body in chunks, pausing after each one so it goes out no faster than
+     * the bandwidth allows.
+     */
+    private void writeThrottled(OutputStream output, byte[] body)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        for (int offset = 0; offset < body.length; offset += CHUNK_SIZE) {
+            int count = Math.min(CHUNK_SIZE, body.length - offset);
+            output.write(body, offset, count);
+            if (mBandwidth > 0) {
+                output.flush();
+                long due = (offset + count) * 1000L / mBandwidth;
+                long elapsed = (System.nanoTime() - start) / 1000000;
+                if (due > elapsed) {
+                    Thread.sleep(due - elapsed);
+                }
+            }
+        }
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(body.length / 4);
+        GZIPOutputStream gzip = new GZIPOutputStream(output);
+        try {
+            gzip.write(body);
+        } finally {
+            gzip.close();
+        }
+        return output.toByteArray();
+    }
+
+    private synchronized long nextLong(long bound) {
+        return (long) (mRandom.nextDouble() * bound);
+    }
+
+    private synchronized double nextDouble() {
+        return mRandom.nextDouble();
+    }
+
+    /**
+     * Save the live responses to the given URLs, the arguments after "record" and the
+     * directory, under the names the server and the app's replay source look for.
+     */
+    private static void record(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: ReplayServer record dir url...");
+            System.exit(2);
+        }
+        File directory = new File(args[1]);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Problem creating " + directory);
+        }
+
+        for (int i = 2; i < args.length; i++) {
+            Request request = new Request.Builder().url(args[i]).get().build();
+            Response response = StoryHttpClient.getClient().newCall(request).execute();
+            try {
+                if (response.code() != OK) {
+                    System.err.println("Skipping " + args[i] + ": " + response.code());
+                    continue;
+                }
+                File file = new File(directory, ReplayStorySource.recordingName(args[i]));
+                OutputStream output = new FileOutputStream(file);
+                try {
+                    output.write(response.body().bytes());
+                } finally {
+                    output.close();
+                }
+                System.out.println("Recorded " + file);
+            } finally {
+                response.close();
+            }
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,202 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the local story search with 10k and 100k indexed stories, running the
+ * statements of {@link StorySearch} on SQLite through JDBC the way StoryCache runs
+ * them on the device: searches as they are typed, and indexing pages of new stories
+ * into a full index, which now and then evicts the oldest tenth of it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchBenchmark {
+
+    /** Maximum number of stories shown for a search, as in StoryActivity */
+    private static final int SEARCH_LIMIT = 200;
+
+    /** Stories per indexed page */
+    private static final int PAGE_SIZE = 10;
+
+    /** Text as typed into the search box */
+    private static final String[] SEARCHES = {"bi", "bit", "bitcoin", "bitcoin pri",
+            "bitcoin price", "regulation", "jane", "technology crash"};
+
+    private static final String[] WORDS = {"bitcoin", "blockchain", "cryptocurrency", "price",
+            "prices", "market", "markets", "regulation", "regulators", "bank", "banks", "crash",
+            "rally", "record", "high", "low", "investors", "exchange", "hack", "fraud", "mining",
+            "energy", "china", "us", "uk", "ban", "tax", "futures", "trading", "bubble", "ether",
+            "ethereum", "ripple", "wallet", "token", "ico", "startup", "fund", "billion",
+            "million", "falls", "rises", "soars", "plunges", "warns", "says", "could", "why",
+            "what", "how", "new", "digital", "currency", "central", "payments", "technology"};
+    private static final String[] SECTIONS = {"Technology", "Business", "World news", "Money",
+            "Opinion", "UK news", "US news", "Science"};
+    private static final String[] FIRST_NAMES = {"Jane", "Alex", "Sam", "Chris", "Kim", "Pat",
+            "Jo", "Max", "Lee", "Robin"};
+    private static final String[] LAST_NAMES = {"Smith", "Jones", "Taylor", "Brown", "Wilson",
+            "Evans", "Thomas", "Roberts", "Walker", "Wright"};
+
+    @Param({"10000", "100000"})
+    public int stories;
+
+    private File mFile;
+    private Connection mConnection;
+    private final Random mRandom = new Random(14);
+
+    /** Index of the next search, and number of stories indexed so far */
+    private int mSearch;
+    private int mIndexed;
+
+    @Setup
+    public void setUp() throws IOException, SQLException {
+        mFile = File.createTempFile("search", ".db");
+        mConnection = DriverManager.getConnection("jdbc:sqlite:" + mFile.getPath());
+        Statement statement = mConnection.createStatement();
+        statement.execute(StorySearch.CREATE_STORIES);
+        statement.execute(StorySearch.CREATE_INDEX);
+        statement.close();
+
+        mConnection.setAutoCommit(false);
+        for (int i = 0; i < stories; i += PAGE_SIZE) {
+            insertPage();
+        }
+        mConnection.commit();
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        mConnection.close();
+        if (!mFile.delete()) {
+            mFile.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public List<Story> search() throws SQLException {
+        String matchQuery = StorySearch.matchQuery(SEARCHES[mSearch++ % SEARCHES.length]);
+
+        List<Story> results = new ArrayList<>();
+        Map<String, String> names = new HashMap<>();
+        PreparedStatement statement = mConnection.prepareStatement(StorySearch.SEARCH);
+        try {
+            statement.setString(1, matchQuery);
+            statement.setInt(2, SEARCH_LIMIT);
+            ResultSet cursor = statement.executeQuery();
+            while (cursor.next()) {
+                results.add(new Story(cursor.getLong(1), cursor.getString(2),
+                        QueryUtils.dedupe(names, cursor.getString(3)), cursor.getString(4),
+                        QueryUtils.dedupe(names, cursor.getString(5)), cursor.getString(6)));
+            }
+        } finally {
+            statement.close();
+        }
+        return results;
+    }
+
+    @Benchmark
+    public void indexPage() throws SQLException {
+        insertPage();
+
+        PreparedStatement count = mConnection.prepareStatement(StorySearch.COUNT_STORIES);
+        ResultSet result = count.executeQuery();
+        long indexed = result.getLong(1);
+        count.close();
+        if (indexed > stories) {
+            // Keep the same share of the index as StorySearch.STORIES_KEPT_ON_EVICTION
+            PreparedStatement threshold =
+                    mConnection.prepareStatement(StorySearch.EVICTION_THRESHOLD);
+            threshold.setInt(1, stories - stories / 10);
+            long evicted = threshold.executeQuery().getLong(1);
+            threshold.close();
+            for (String sql : new String[]{StorySearch.EVICT_INDEX, StorySearch.EVICT_STORIES}) {
+                PreparedStatement evict = mConnection.prepareStatement(sql);
+                evict.setLong(1, evicted);
+                evict.executeUpdate();
+                evict.close();
+            }
+        }
+        mConnection.commit();
+    }
+
+    /**
+     * Index a page of new stories, each published a minute after the last one.
+     */
+    private void insertPage() throws SQLException {
+        PreparedStatement insertStory = mConnection.prepareStatement(StorySearch.INSERT_STORY);
+        PreparedStatement insertIndex = mConnection.prepareStatement(StorySearch.INSERT_INDEX);
+        try {
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                int number = mIndexed++;
+                String title = title();
+                String section = SECTIONS[mRandom.nextInt(SECTIONS.length)];
+                String author = FIRST_NAMES[mRandom.nextInt(FIRST_NAMES.length)] + " "
+                        + LAST_NAMES[mRandom.nextInt(LAST_NAMES.length)];
+
+                long publishedAt = 1500000000000L + number * 60 * 1000L;
+                long firstId = StorySearch.firstId(publishedAt);
+                PreparedStatement nextId = mConnection.prepareStatement(StorySearch.NEXT_ID);
+                nextId.setLong(1, firstId);
+                nextId.setLong(2, firstId);
+                nextId.setLong(3, firstId + StorySearch.IDS_PER_SECOND - 1);
+                ResultSet result = nextId.executeQuery();
+                long id = result.getLong(1);
+                nextId.close();
+
+                insertStory.setLong(1, id);
+                insertStory.setString(2, "https://www.theguardian.com/story/" + number);
+                insertStory.setLong(3, publishedAt);
+                insertStory.setString(4, title);
+                insertStory.setString(5, section);
+                insertStory.setString(6, author);
+                insertStory.setString(7, "https://media.guim.co.uk/" + number + "/500.jpg");
+                insertStory.executeUpdate();
+
+                insertIndex.setLong(1, id);
+                insertIndex.setString(2, title);
+                insertIndex.setString(3, section);
+                insertIndex.setString(4, author);
+                insertIndex.executeUpdate();
+            }
+        } finally {
+            insertStory.close();
+            insertIndex.close();
+        }
+    }
+
+    private String title() {
+        int words = 6 + mRandom.nextInt(8);
+        StringBuilder title = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                title.append(' ');
+            }
+            String word = WORDS[mRandom.nextInt(WORDS.length)];
+            title.append(i == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word);
+        }
+        return title.toString();
+    }
+}
@@ -0,0 +1,174 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cold starts the installed app over and over through adb, and prints the percentiles of
+ * its time to initial display, the TotalTime reported by "am start -W" once the first
+ * frame is drawn, and of its time to full display, the "Fully drawn" time logged once
+ * StoryActivity reports the first stories shown.
+ *
+ *   StartupBenchmark [--adb adb] [--serial emulator-5554] [--runs 20]
+ *                    [--timeout ms] [--component package/.Activity]
+ *
+ * The app is force-stopped before every run, so every start creates the process. Runs
+ * whose full display is not logged within the timeout, after a failed load for
+ * instance, only count towards the initial display.
+ */
+public final class StartupBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Pattern TOTAL_TIME = Pattern.compile("TotalTime: (\\d+)");
+
+    /** Logged as for instance "Fully drawn package/.Activity: +1s234ms" */
+    private static final Pattern FULLY_DRAWN =
+            Pattern.compile("Fully drawn (\\S+): \\+(?:(\\d+)s)?(\\d+)ms");
+
+    /** Time in milliseconds between looks at the log for the full display */
+    private static final long POLL_INTERVAL = 100;
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String adb = "adb";
+        String serial = null;
+        int runs = 20;
+        long timeout = 15 * 1000;
+        String component = "pl.lukaszpelczar.p8_udacity_newsapp/.StoryActivity";
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--adb":
+                    adb = value;
+                    break;
+                case "--serial":
+                    serial = value;
+                    break;
+                case "--runs":
+                    runs = Integer.parseInt(value);
+                    break;
+                case "--timeout":
+                    timeout = Long.parseLong(value);
+                    break;
+                case "--component":
+                    component = value;
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        List<String> command = new ArrayList<>();
+        command.add(adb);
+        if (serial != null) {
+            command.add("-s");
+            command.add(serial);
+        }
+
+        // Exact times in milliseconds, as the buckets of a Metrics.Histogram are too coarse
+        List<Long> initialDisplay = new ArrayList<>(runs);
+        List<Long> fullDisplay = new ArrayList<>(runs);
+        for (int run = 1; run <= runs; run++) {
+            run(command, "logcat", "-c");
+            String started = run(command, "shell", "am", "start", "-W", "-S", "-n", component);
+            Matcher totalTime = TOTAL_TIME.matcher(started);
+            if (!totalTime.find()) {
+                System.err.println("Problem starting " + component + ":\n" + started);
+                System.exit(1);
+            }
+            long initial = Long.parseLong(totalTime.group(1));
+            initialDisplay.add(initial);
+
+            long full = awaitFullyDrawn(command, component, timeout);
+            if (full >= 0) {
+                fullDisplay.add(full);
+            }
+            System.out.printf("run %d: initial display %d ms, full display %s%n", run,
+                    initial, full >= 0 ? full + " ms" : "not logged");
+        }
+
+        print("initial display", initialDisplay);
+        print("full display", fullDisplay);
+    }
+
+    /**
+     * Returns the time to full display in milliseconds logged for the given component,
+     * or -1 if it is not logged within the timeout.
+     */
+    private static long awaitFullyDrawn(List<String> command, String component, long timeout)
+            throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (System.currentTimeMillis() < deadline) {
+            // The activity manager logs under another tag from Android 10
+            Matcher fullyDrawn = FULLY_DRAWN.matcher(run(command, "logcat", "-d", "-s",
+                    "ActivityManager:I", "ActivityTaskManager:I"));
+            while (fullyDrawn.find()) {
+                if (fullyDrawn.group(1).equals(component)) {
+                    long seconds = fullyDrawn.group(2) == null
+                            ? 0 : Long.parseLong(fullyDrawn.group(2));
+                    return seconds * 1000 + Long.parseLong(fullyDrawn.group(3));
+                }
+            }
+            Thread.sleep(POLL_INTERVAL);
+        }
+        return -1;
+    }
+
+    /**
+     * Run the given adb command followed by the given arguments, and return its output.
+     */
+    private static String run(List<String> command, String... args)
+            throws IOException, InterruptedException {
+        List<String> full = new ArrayList<>(command);
+        full.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(full).redirectErrorStream(true).start();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        InputStream inputStream = process.getInputStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+        } finally {
+            inputStream.close();
+        }
+        int exitCode = process.waitFor();
+        if (exitCode != 0) {
+            throw new IOException(full + " exited with " + exitCode + ":\n"
+                    + new String(output.toByteArray(), UTF_8));
+        }
+        return new String(output.toByteArray(), UTF_8);
+    }
+
+    private static void print(String name, List<Long> times) {
+        if (times.isEmpty()) {
+            System.out.println(name + ": no runs");
+            return;
+        }
+        Collections.sort(times);
+        System.out.printf("%s ms over %d runs: min %d, p50 %d, p90 %d, max %d%n", name,
+                times.size(), times.get(0), percentile(times, 0.5), percentile(times, 0.9),
+                times.get(times.size() - 1));
+    }
+
+    /**
+     * Returns the given percentile, for example 0.9, of the given sorted times.
+     */
+    private static long percentile(List<Long> sorted, double fraction) {
+        int rank = Math.max(1, (int) Math.ceil(fraction * sorted.size()));
+        return sorted.get(rank - 1);
+    }
+}
@@ -0,0 +1,86 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-story costs on a page of {@value #STORIES} results: building {@link Story}
+ * objects, parsing their dates, and producing the date text shown when a row is bound.
+ * Scores are per story.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class StoryBenchmark {
+
+    private static final int STORIES = 200;
+
+    private List<LegacyQueryUtils.LegacyStory> mLegacyStories;
+    private List<Story> mStories;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] body = Fixtures.guardianResponse(STORIES, true);
+        mLegacyStories = LegacyQueryUtils.extractFeatureFromJson(
+                LegacyQueryUtils.readFromStream(new ByteArrayInputStream(body)));
+        mStories = QueryUtils.extractFeatureFromStream(new ByteArrayInputStream(body))
+                .getStories();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STORIES)
+    public void buildStories(Blackhole blackhole) {
+        Map<String, String> names = new HashMap<>();
+        for (LegacyQueryUtils.LegacyStory legacy : mLegacyStories) {
+            blackhole.consume(new Story(StoryDates.parse(legacy.date), legacy.title,
+                    QueryUtils.dedupe(names, legacy.section), legacy.url,
+                    QueryUtils.dedupe(names, legacy.author)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STORIES)
+    public void parseDates(Blackhole blackhole) {
+        for (LegacyQueryUtils.LegacyStory legacy : mLegacyStories) {
+            blackhole.consume(StoryDates.parse(legacy.date));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STORIES)
+    public void legacyBindDate(Blackhole blackhole) {
+        for (LegacyQueryUtils.LegacyStory legacy : mLegacyStories) {
+            blackhole.consume(LegacyQueryUtils.formatDate(legacy.date));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STORIES)
+    public void formatDates(Blackhole blackhole) {
+        for (Story story : mStories) {
+            blackhole.consume(StoryDates.format(story.getPublishedAt()));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STORIES)
+    public void bindDate(Blackhole blackhole) {
+        for (Story story : mStories) {
+            blackhole.consume(story.getFormattedDate());
+        }
+    }
+}
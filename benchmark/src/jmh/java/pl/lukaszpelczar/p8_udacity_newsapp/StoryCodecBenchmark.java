@@ -0,0 +1,72 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Restoring saved stories from their {@link StoryCodec} encoding, from the heap and from
+ * a memory-mapped file, against parsing the same stories from a Guardian response.
+ * The sizes of both forms are printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StoryCodecBenchmark {
+
+    @Param({"50", "500"})
+    public int results;
+
+    private byte[] mJson;
+    private StoryPage mPage;
+    private byte[] mEncoded;
+    private File mFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        mJson = Fixtures.guardianResponse(results, true);
+        mPage = QueryUtils.extractFeatureFromStream(new ByteArrayInputStream(mJson), mJson.length);
+        mEncoded = StoryCodec.encode(mPage);
+        mFile = File.createTempFile("stories", ".bin");
+        StoryCodec.write(mPage, mFile);
+        System.out.println(results + " stories: JSON " + mJson.length + " bytes, encoded "
+                + mEncoded.length + " bytes");
+    }
+
+    @TearDown
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Benchmark
+    public StoryPage parseJson() throws IOException {
+        return QueryUtils.extractFeatureFromStream(new ByteArrayInputStream(mJson), mJson.length);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return StoryCodec.encode(mPage);
+    }
+
+    @Benchmark
+    public StoryPage decode() throws IOException {
+        return StoryCodec.decode(ByteBuffer.wrap(mEncoded));
+    }
+
+    @Benchmark
+    public StoryPage readMapped() throws IOException {
+        return StoryCodec.read(mFile);
+    }
+}
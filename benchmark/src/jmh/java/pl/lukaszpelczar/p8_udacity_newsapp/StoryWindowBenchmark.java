@@ -0,0 +1,113 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holding 50k stories in a plain list against a {@link StoryWindow} of the default
+ * capacity: the heap each one retains is printed once per trial, and the benchmarks
+ * measure scrolling through every story and jumping around the list, which pages
+ * blocks of the window in and out of its spill file.
+ *
+ * The window does its spill file I/O on the benchmark thread, so every read is paid
+ * for by the row that needs it instead of showing up as a placeholder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StoryWindowBenchmark {
+
+    private static final int STORIES = 50000;
+
+    /** Rows bound by a jump to a random position */
+    private static final int JUMP_ROWS = 10;
+
+    /** Runs the spill file I/O of the window on the benchmark thread */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    @Param({"list", "window"})
+    public String store;
+
+    private List<Story> mStories;
+    private File mFile;
+    private final Random mRandom = new Random(42);
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] sample = Fixtures.guardianResponse(10, true);
+        List<Story> samples = QueryUtils.extractFeatureFromStream(
+                new ByteArrayInputStream(sample), sample.length).getStories();
+        mFile = File.createTempFile("window", ".bin");
+
+        long before = usedHeap();
+        List<Story> stories = "window".equals(store)
+                ? new StoryWindow(mFile, StoryWindow.DEFAULT_CAPACITY, DIRECT, DIRECT)
+                : new ArrayList<Story>();
+        for (int i = 0; i < STORIES; i++) {
+            // New strings for every story, the way every parsed page has its own
+            Story story = samples.get(i % samples.size());
+            stories.add(new Story(story.getPublishedAt() - i * 60 * 1000L,
+                    story.getTitle() + " " + i, story.getSection(), story.getUrl() + "-" + i,
+                    story.getAuthor(), story.getThumbnail() == null
+                    ? null : story.getThumbnail() + "?" + i));
+        }
+        mStories = stories;
+        long retained = usedHeap() - before;
+        System.out.println(store + ": " + retained / 1024 + " KB retained by " + STORIES
+                + " stories");
+    }
+
+    @TearDown
+    public void tearDown() {
+        mStories.clear();
+        mFile.delete();
+    }
+
+    @Benchmark
+    public int scrollThroughAll() {
+        int length = 0;
+        for (int i = 0; i < mStories.size(); i++) {
+            length += mStories.get(i).getTitle().length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public int jumpAndBind() {
+        int start = mRandom.nextInt(mStories.size() - JUMP_ROWS);
+        int length = 0;
+        for (int i = start; i < start + JUMP_ROWS; i++) {
+            length += mStories.get(i).getTitle().length();
+        }
+        return length;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
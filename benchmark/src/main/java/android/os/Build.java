@@ -0,0 +1,16 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android Build. SDK_INT is 0, so version-gated
+ * platform calls are skipped.
+ */
+public class Build {
+
+    public static class VERSION {
+        public static final int SDK_INT = 0;
+    }
+
+    public static class VERSION_CODES {
+        public static final int JELLY_BEAN_MR2 = 18;
+    }
+}
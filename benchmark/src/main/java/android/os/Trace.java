@@ -0,0 +1,16 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android Trace, without any tracing.
+ */
+public final class Trace {
+
+    private Trace() {
+    }
+
+    public static void beginSection(String sectionName) {
+    }
+
+    public static void endSection() {
+    }
+}
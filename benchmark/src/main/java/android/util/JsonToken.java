@@ -0,0 +1,17 @@
+package android.util;
+
+/**
+ * JVM stand-in for the Android JsonToken, with the same constants as Gson's.
+ */
+public enum JsonToken {
+    BEGIN_ARRAY,
+    END_ARRAY,
+    BEGIN_OBJECT,
+    END_OBJECT,
+    NAME,
+    STRING,
+    NUMBER,
+    BOOLEAN,
+    NULL,
+    END_DOCUMENT
+}
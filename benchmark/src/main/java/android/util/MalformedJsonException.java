@@ -0,0 +1,15 @@
+package android.util;
+
+import java.io.IOException;
+
+/**
+ * JVM stand-in for the Android MalformedJsonException.
+ */
+public final class MalformedJsonException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public MalformedJsonException(String message) {
+        super(message);
+    }
+}
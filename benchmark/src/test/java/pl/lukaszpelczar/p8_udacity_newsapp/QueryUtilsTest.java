@@ -0,0 +1,111 @@
+package pl.lukaszpelczar.p8_udacity_newsapp;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link QueryUtils#fetchStoryData} over the shared client against a local
+ * {@link ReplayServer}, which gzips its responses like the Guardian API does and answers
+ * conditional requests for an unchanged response with 304 Not Modified.
+ */
+public class QueryUtilsTest {
+
+    private static final long DEADLINE = 30 * 1000;
+
+    private ReplayServer mReplayServer;
+    private HttpServer mServer;
+
+    @After
+    public void tearDown() {
+        if (mServer != null) {
+            mServer.stop(0);
+            ((ExecutorService) mServer.getExecutor()).shutdown();
+        }
+    }
+
+    /**
+     * Start a replay server generating the given number of results, and return its
+     * search URL.
+     */
+    private String serve(int results) throws IOException {
+        mReplayServer = new ReplayServer(null, results, 0, 0, 0, 0, true);
+        mServer = ReplayServer.start(mReplayServer, 0, 2);
+        return "http://localhost:" + mServer.getAddress().getPort() + "/search?q=bitcoin";
+    }
+
+    /** Responses parsed by StoryBatchParser, in parallel or, on one core, sequentially */
+    private static long batchParses() {
+        return Metrics.counter("parses_parallel").get()
+                + Metrics.counter("parses_sequential").get();
+    }
+
+    @Test
+    public void fetch_largeGzipResponse_isParsedInBatches() throws Exception {
+        int results = 500;
+        byte[] json = Fixtures.guardianResponse(results, true);
+        assertTrue(json.length >= StoryBatchParser.MIN_PARALLEL_SIZE);
+        String url = serve(results);
+        long batchParses = batchParses();
+
+        StoryPage page = QueryUtils.fetchStoryData(url, null, new Deadline(DEADLINE));
+
+        assertEquals(results, page.getStories().size());
+        assertEquals(batchParses + 1, batchParses());
+        // Sent compressed, so the client never saw the length of the JSON
+        assertTrue(mReplayServer.getBodyBytesSent() < json.length);
+    }
+
+    @Test
+    public void fetch_smallGzipResponse_isParsedOnTheCallingThread() throws Exception {
+        int results = 10;
+        byte[] json = Fixtures.guardianResponse(results, true);
+        assertTrue(json.length < StoryBatchParser.MIN_PARALLEL_SIZE);
+        String url = serve(results);
+        long batchParses = batchParses();
+
+        StoryPage page = QueryUtils.fetchStoryData(url, null, new Deadline(DEADLINE));
+
+        assertEquals(results, page.getStories().size());
+        assertEquals(batchParses, batchParses());
+        assertTrue(mReplayServer.getBodyBytesSent() < json.length);
+    }
+
+    @Test
+    public void fetch_withValidators_reusesCachedStoriesOnNotModified() throws Exception {
+        String url = serve(10);
+        StoryPage cached = QueryUtils.fetchStoryData(url, null, new Deadline(DEADLINE));
+        assertNotNull(cached.getEtag());
+        long bytesSent = mReplayServer.getBodyBytesSent();
+        long notModified = Metrics.counter("responses_304").get();
+
+        StoryPage page = QueryUtils.fetchStoryData(url, cached, new Deadline(DEADLINE));
+
+        assertTrue(page.isNotModified());
+        assertSame(cached.getStories(), page.getStories());
+        assertEquals(cached.getEtag(), page.getEtag());
+        assertEquals(notModified + 1, Metrics.counter("responses_304").get());
+        // The 304 carries no body
+        assertEquals(bytesSent, mReplayServer.getBodyBytesSent());
+    }
+
+    @Test
+    public void fetch_withoutValidators_downloadsTheBodyAgain() throws Exception {
+        String url = serve(10);
+        StoryPage cached = QueryUtils.fetchStoryData(url, null, new Deadline(DEADLINE));
+        long bytesSent = mReplayServer.getBodyBytesSent();
+        cached.setCacheInfo(null, null, StoryPage.NO_MAX_AGE, cached.getFetchedAt());
+
+        StoryPage page = QueryUtils.fetchStoryData(url, cached, new Deadline(DEADLINE));
+
+        assertFalse(page.isNotModified());
+        assertEquals(cached.getStories().size(), page.getStories().size());
+        assertEquals(2 * bytesSent, mReplayServer.getBodyBytesSent());
+    }
+}